@@ -6,35 +6,40 @@ import org.devio.hi.library.log.HiConsolePrinter
 import org.devio.hi.library.log.HiFilePrinter
 import org.devio.hi.library.log.HiLogConfig
 import org.devio.hi.library.log.HiLogConfig.JsonParser
+import org.devio.hi.library.log.HiLogConfigWatcher
 import org.devio.hi.library.log.HiLogManager
+import java.io.File
 
 class MApplication : Application() {
     override fun onCreate() {
         super.onCreate()
-        HiLogManager.init(
-            object : HiLogConfig() {
-                override fun injectJsonParser(): JsonParser? {
-                    return JsonParser { src -> Gson().toJson(src) }
-                }
+        val config = object : HiLogConfig() {
+            override fun injectJsonParser(): JsonParser? {
+                return JsonParser { src -> Gson().toJson(src) }
+            }
 
-                override fun getGlobalTag(): String {
-                    return "MApplication"
-                }
+            override fun getGlobalTag(): String {
+                return "MApplication"
+            }
 
-                override fun enable(): Boolean {
-                    return true
-                }
+            override fun enable(): Boolean {
+                return true
+            }
 
-                override fun includeThread(): Boolean {
-                    return true
-                }
+            override fun includeThread(): Boolean {
+                return true
+            }
 
-                override fun stackTraceDepth(): Int {
-                    return 5
-                }
-            },
+            override fun stackTraceDepth(): Int {
+                return 5
+            }
+        }
+        HiLogManager.init(
+            config,
             HiConsolePrinter(),
             HiFilePrinter.getInstance(applicationContext.cacheDir.absolutePath, 0)
         )
+        //修改cache目录下的hilog.properties即可在运行中调整log的级别等配置
+        HiLogConfigWatcher(File(cacheDir, "hilog.properties"), config).start(2000)
     }
 }
\ No newline at end of file
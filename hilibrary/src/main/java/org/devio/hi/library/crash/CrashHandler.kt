@@ -9,11 +9,12 @@ import android.os.StatFs
 import android.text.format.Formatter
 import org.devio.hi.library.BuildConfig
 import org.devio.hi.library.log.HiLog
+import org.devio.hi.library.log.HiLogManager
+import org.devio.hi.library.log.HiTimeFormatter
 import org.devio.hi.library.util.ActivityManager
 import org.devio.hi.library.util.AppGlobals
 import java.io.*
 import java.lang.Exception
-import java.text.SimpleDateFormat
 import java.util.*
 import kotlin.system.exitProcess
 
@@ -26,8 +27,8 @@ internal object CrashHandler {
 
     private class CaughtExceptionHandler : Thread.UncaughtExceptionHandler {
         private val context = AppGlobals.get()!!
-        private val formatter = SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.CHINA)
-        private val LAUNCH_TIME = formatter.format(Date())
+        private val formatter = HiTimeFormatter.CRASH
+        private val LAUNCH_TIME = formatter.format(System.currentTimeMillis())
         private val defaultExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
         override fun uncaughtException(t: Thread, e: Throwable) {
             if (!handleException(e) && defaultExceptionHandler != null) {
@@ -52,6 +53,8 @@ internal object CrashHandler {
             val log = collectDeviceInfo(e)
             if (BuildConfig.DEBUG) {
                 HiLog.e(log)
+                //异步分发时等crash log交给打印器后再退出进程
+                HiLogManager.getInstance().flush(1000)
             }
 
             saveCrashInfo2File(log)
@@ -63,7 +66,7 @@ internal object CrashHandler {
             if (!crashDir.exists()) {
                 crashDir.mkdirs()
             }
-            val crashFile = File(crashDir, formatter.format(Date()) + "-crash.txt")
+            val crashFile = File(crashDir, formatter.format(System.currentTimeMillis()) + "-crash.txt")
             crashFile.createNewFile()
             val fos = FileOutputStream(crashFile)
 
@@ -90,7 +93,7 @@ internal object CrashHandler {
             sb.append("os=${Build.VERSION.RELEASE}\n")//9.0
             sb.append("sdk=${Build.VERSION.SDK_INT}\n")//28
             sb.append("launch_time=${LAUNCH_TIME}\n")//启动APP的时间
-            sb.append("crash_time=${formatter.format(Date())}\n")//crash发生的时间
+            sb.append("crash_time=${formatter.format(System.currentTimeMillis())}\n")//crash发生的时间
             sb.append("forground=${ActivityManager.instance.front}\n")//应用处于前后台
             sb.append("thread=${Thread.currentThread().name}\n")//异常线程名
             sb.append("cpu_arch=${Build.CPU_ABI}\n")//armv7 armv8
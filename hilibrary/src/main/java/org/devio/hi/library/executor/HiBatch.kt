@@ -0,0 +1,68 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * 一批计算任务的分块执行，见[HiExecutor.parallelFor]
+ * 不再把每个小任务都放进共享的优先级队列，而是只提交少量的执行者，执行者通过原子下标自己领取下一块
+ *
+ * tips：
+ * 1、一批任务在优先级队列中只入队(workers - 1)次，领取任务只是一次getAndAdd，没有锁竞争；
+ * 2、先完成的执行者继续领取剩下的块，相当于从慢的执行者那里"窃取"任务，负载自动均衡；
+ * 3、提交的线程也是执行者，执行者还在队列中没被调度时由提交的线程把任务做完，
+ * 所以在线程池的线程中嵌套调用也不会死锁；
+ * 4、任意一块抛出异常后不再领取新的块，等正在执行的块结束后把第一个异常抛给调用方。
+ */
+internal class HiBatch(
+    private val from: Int,
+    private val to: Int,
+    private val grain: Int,
+    private val body: (Int) -> Unit
+) : Runnable {
+    private val next = AtomicInteger(from)
+    private val error = AtomicReference<Throwable>()
+
+    /**
+     * 还没执行完的块数，为0时唤醒提交的线程
+     */
+    private val remaining = AtomicInteger(((to.toLong() - from + grain - 1) / grain).toInt())
+    private val done = CountDownLatch(1)
+
+    val chunks: Int
+        get() = remaining.get()
+
+    override fun run() {
+        while (true) {
+            val start = next.getAndAdd(grain)
+            if (start >= to || start < from) {
+                //start < from：getAndAdd溢出
+                return
+            }
+            try {
+                if (error.get() == null) {
+                    val end = if (to - start > grain) start + grain else to
+                    for (i in start until end) {
+                        body(i)
+                    }
+                }
+            } catch (e: Throwable) {
+                error.compareAndSet(null, e)
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    done.countDown()
+                }
+            }
+        }
+    }
+
+    /**
+     * 提交的线程参与执行，然后等待其它执行者手上的块结束
+     */
+    fun join() {
+        run()
+        done.await()
+        error.get()?.let { throw it }
+    }
+}
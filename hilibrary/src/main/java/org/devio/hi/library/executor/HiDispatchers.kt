@@ -0,0 +1,66 @@
+package org.devio.hi.library.executor
+
+import androidx.annotation.IntRange
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * HiExecutor的协程调度器，协程在HiExecutor的线程池中按优先级执行，不额外创建线程
+ * 如：
+ * launch(HiDispatchers.IO + HiPriority(8)) { ... }
+ * withContext(HiDispatchers.lane("disk", 2)) { ... }
+ *
+ * tips：
+ * 1、协程每次恢复都是一个[HiExecutor.PriorityRunnable]，优先级取上下文中的[HiPriority]，没有时为0；
+ * 2、[lane]返回的调度器同一时间最多有parallelism个协程片段在执行，作用与limitedParallelism相同，
+ * 基于[HiExecutor.setLaneLimit]实现，同名的通道共用一个并发数；
+ * 3、协程的续体不能丢弃，不受线程池队列容量和拒绝策略的限制。
+ */
+object HiDispatchers {
+    @JvmField
+    val CPU: CoroutineDispatcher = HiCoroutineDispatcher(HiExecutor.PoolType.CPU, null)
+
+    @JvmField
+    val IO: CoroutineDispatcher = HiCoroutineDispatcher(HiExecutor.PoolType.IO, null)
+
+    /**
+     * @param name 通道名
+     * @param parallelism 通道同时执行的最大协程片段数
+     */
+    @JvmStatic
+    fun lane(
+        name: String,
+        @IntRange(from = 1) parallelism: Int,
+        type: HiExecutor.PoolType = HiExecutor.PoolType.IO
+    ): CoroutineDispatcher {
+        HiExecutor.setLaneLimit(name, parallelism)
+        return HiCoroutineDispatcher(type, name)
+    }
+
+    private class HiCoroutineDispatcher(
+        private val type: HiExecutor.PoolType,
+        private val lane: String?
+    ) : CoroutineDispatcher() {
+        override fun dispatch(context: CoroutineContext, block: Runnable) {
+            val priority = context[HiPriority]?.priority ?: 0
+            HiExecutor.executeAccepted(priority, block, lane, type)
+        }
+
+        override fun toString(): String {
+            return "HiDispatchers." + type + if (lane == null) "" else "[$lane]"
+        }
+    }
+}
+
+/**
+ * 协程的优先级，与[HiExecutor.execute]的priority相同
+ */
+class HiPriority(@IntRange(from = 0, to = 10) val priority: Int) :
+    AbstractCoroutineContextElement(HiPriority) {
+    companion object Key : CoroutineContext.Key<HiPriority>
+
+    override fun toString(): String {
+        return "HiPriority($priority)"
+    }
+}
@@ -3,84 +3,394 @@ package org.devio.hi.library.executor
 import android.content.ContentValues.TAG
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import androidx.annotation.IntRange
 import org.devio.hi.library.log.HiLog
+import org.devio.hi.library.util.ActivityManager
+import java.util.PriorityQueue
 import java.util.concurrent.*
 import java.util.concurrent.atomic.AtomicLong
-import java.util.concurrent.locks.Condition
-import java.util.concurrent.locks.ReentrantLock
 import kotlin.math.max
 
 /**
  * 支持按任务的优先级去执行,
- * 支持线程池暂停.恢复(批量文件下载，上传) ，
- * 异步结果主动回调主线程
- * todo 线程池能力监控,耗时任务检测,定时,延迟,
+ * 支持线程池暂停.恢复(批量文件下载，上传)，可以只暂停一个分组的任务 ，
+ * 异步结果主动回调主线程，可以通过[submit]得到可组合、可取消的[HiFuture]
+ * 支持按通道(lane)限制并发数，如io通道同时最多执行2个任务
+ * 计算任务和io任务分别在有界的cpu、io线程池中执行，队列满时按[rejectPolicy]处理
+ * 任务的等待、执行耗时和线程池状态通过[snapshot]查看，耗时任务检测和状态浮窗见[HiExecutorMonitor]
+ * 支持延迟、固定频率、固定延迟的定时任务，由时间轮计时，见[HiTimingWheel]
+ * 大量的小计算任务可以通过[parallelFor]、[invokeAll]分块并行执行，执行者自己领取任务，不争抢队列的锁
+ *
+ * tips：
+ * 1、同优先级的任务按提交顺序(FIFO)执行；
+ * 2、任务在队列中每等待[agingMillis]，优先级相当于提升1，持续的高优先级任务不会让低优先级任务一直得不到执行；
+ * 3、老化通过虚拟截止时间实现：截止时间 = 提交时间 + (10 - 优先级) * agingMillis，队列按截止时间排序，
+ * 排序键在入队时就确定了，不会随时间变化破坏优先级队列的堆结构；
+ * 4、io线程池会随着排队的任务增多而新建线程，直到最大线程数，见[HiThreadPool]；
+ * 5、应用退到后台后核心线程空闲超过keepAlive也会退出，回到前台后按需重新创建；
+ * 6、暂停发生在线程取任务的时候，暂停期间任务留在优先级队列中(分组暂停时保存在分组中)，
+ * 不会有线程拿着已经出队的任务等待，恢复时一次唤醒所有线程；
+ * 7、被暂停的分组中的任务不占用通道的名额，恢复时重新申请，仍然受通道并发数的限制。
  */
 object HiExecutor {
     private const val TAG: String = "HiExecutor"
-    private var isPaused: Boolean = false
-    private var hiExecutor: ThreadPoolExecutor
-    private var lock: ReentrantLock = ReentrantLock()
-    private var pauseCondition: Condition
+    private const val MAX_PRIORITY = 10
+
+    /**
+     * 任务每等待多久优先级提升1，单位毫秒，<=0时不老化，只按优先级和提交顺序执行
+     * 修改后只影响之后提交的任务
+     */
+    @Volatile
+    var agingMillis: Long = 1000L
+    private val sequence = AtomicLong()
+    private val lanes = ConcurrentHashMap<String, Lane>()
+
+    /**
+     * 队列满时的处理方式
+     */
+    @Volatile
+    var rejectPolicy: RejectPolicy = RejectPolicy.CALLER_RUNS
+    private val pauseGate = HiPauseGate()
+
+    /**
+     * 被暂停的分组和分组中等待恢复的任务
+     */
+    private val pausedGroups = ConcurrentHashMap<String, PriorityQueue<PriorityRunnable>>()
+    private val cpuPool: HiThreadPool
+    private val ioPool: HiThreadPool
     private val mainHandler = Handler(Looper.getMainLooper());
 
-    init {
-        pauseCondition = lock.newCondition()
+    /**
+     * 10ms一格，512格一圈，第一次提交定时任务时才创建
+     */
+    private val timingWheel by lazy { HiTimingWheel(TimeUnit.MILLISECONDS.toNanos(10), 512) }
 
+    init {
         val cpuCount = Runtime.getRuntime().availableProcessors()
-        val corePoolSize = cpuCount + 1
-        val maxPoolSize = cpuCount * 2 + 1
-        val blockingQueue: PriorityBlockingQueue<out Runnable> = PriorityBlockingQueue()
         val keepAliveTime = 30L
-        val unit = TimeUnit.SECONDS
-
-        val seq = AtomicLong()
-        val threadFactory = ThreadFactory {
-            val thread = Thread(it)
-            //hi-executor-0
-            thread.name = "hi-executor-" + seq.getAndIncrement()
-            return@ThreadFactory thread
-        }
-
-        hiExecutor = object : ThreadPoolExecutor(
-            corePoolSize,
-            maxPoolSize,
-            keepAliveTime,
-            unit,
-            blockingQueue as BlockingQueue<Runnable>,
-            threadFactory
-        ) {
-            override fun beforeExecute(t: Thread?, r: Runnable?) {
-                if (isPaused) {
-                    lock.lock()
-                    try {
-                        pauseCondition.await()
-                    } finally {
-                        lock.unlock()
-                    }
+        //计算任务多开线程没有意义，只留一个给偶尔阻塞的任务
+        cpuPool = HiThreadPool(
+            "hi-cpu", cpuCount, cpuCount + 1, keepAliveTime, 256, pauseGate
+        )
+        //io任务大部分时间在等待，排队的任务多了就加线程
+        ioPool = HiThreadPool(
+            "hi-io", cpuCount + 1, cpuCount * 2 + 1, keepAliveTime, 512, pauseGate
+        )
+
+        //ActivityManager的回调在主线程中添加和分发
+        mainHandler.post {
+            val activityManager = ActivityManager.instance
+            activityManager.addFrontBackCallback(object : ActivityManager.FrontBackCallback {
+                override fun onChanged(front: Boolean) {
+                    cpuPool.allowCoreThreadTimeOut(!front)
+                    ioPool.allowCoreThreadTimeOut(!front)
                 }
+            })
+            if (!activityManager.front) {
+                cpuPool.allowCoreThreadTimeOut(true)
+                ioPool.allowCoreThreadTimeOut(true)
             }
+        }
+    }
 
-            override fun afterExecute(r: Runnable?, t: Throwable?) {
-                //监控线程池耗时任务,线程创建数量,正在运行的数量
-                HiLog.e(TAG, "已执行完的任务的优先级是：" + (r as PriorityRunnable).priority)
-            }
+    /**
+     * @param lane 任务所属的通道，通过[setLaneLimit]设置了并发数的通道，超出并发数的任务在通道内排队，
+     * 不占用线程池的线程和队列
+     * @param type 计算任务用[PoolType.CPU]，文件、数据库、网络等会阻塞的任务用[PoolType.IO]
+     * @param group 任务所属的分组，可以通过[pause]只暂停这个分组的任务
+     */
+    fun execute(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        runnable: Runnable,
+        lane: String? = null,
+        type: PoolType = PoolType.CPU,
+        group: String? = null
+    ) {
+        execute(priority, runnable, lane, type, group, rejectPolicy)
+    }
+
+    /**
+     * 执行已经被接受、不能丢弃的任务(如协程的续体)，不受队列容量限制
+     */
+    internal fun executeAccepted(priority: Int, runnable: Runnable, lane: String?, type: PoolType) {
+        execute(priority, runnable, lane, type, null, null)
+    }
+
+    /**
+     * @param policy 为null时不受队列容量限制
+     */
+    private fun execute(
+        priority: Int,
+        runnable: Runnable,
+        lane: String?,
+        type: PoolType,
+        group: String?,
+        policy: RejectPolicy?
+    ) {
+        val task = PriorityRunnable(priority, runnable)
+        val pool = if (type == PoolType.IO) ioPool else cpuPool
+        task.group = group
+        task.pool = pool
+        //先记下通道，暂停的分组恢复时按通道的并发数重新提交
+        task.lane = if (lane == null) null else lanes[lane]
+        if (group != null && isPaused(group) && hold(task)) {
+            return
+        }
+        if (task.lane?.acquire(task) == false) {
+            return
+        }
+        if (policy == null) {
+            pool.force(task)
+        } else {
+            pool.execute(task, policy)
+        }
+    }
+
+    /**
+     * 在线程池中执行block，返回它的结果
+     */
+    fun <T> submit(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        type: PoolType = PoolType.CPU,
+        block: () -> T
+    ): HiFuture<T> {
+        val future = HiFuture<T>()
+        try {
+            execute(priority, future.task(block), type = type)
+        } catch (e: RejectedExecutionException) {
+            future.fail(e)
+        }
+        return future
+    }
+
+    /**
+     * 并行执行body(from until to)，全部执行完后返回，任意一次抛出异常时把第一个异常抛出
+     * 适合图片解码、json解析等大量的小计算任务，见[HiBatch]
+     * 会阻塞调用的线程，不要在主线程中调用
+     *
+     * @param priority 这一批任务在cpu线程池中的优先级
+     * @param grain 每次领取的下标个数，<=0时按执行者数量自动分块
+     */
+    fun parallelFor(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        from: Int,
+        to: Int,
+        grain: Int = 0,
+        body: (Int) -> Unit
+    ) {
+        if (from >= to) {
+            return
+        }
+        val workers = cpuPool.maxPoolSize
+        val size = to.toLong() - from
+        //每个执行者大约领取8块，块之间可以均衡负载，又不会频繁领取
+        val chunk = if (grain > 0) grain else max(1L, size / (workers * 8L)).toInt()
+        val batch = HiBatch(from, to, chunk, body)
+        val helpers = minOf(workers, batch.chunks) - 1
+        for (i in 0 until helpers) {
+            executeAccepted(priority, batch, null, PoolType.CPU)
+        }
+        batch.join()
+    }
+
+    /**
+     * 并行执行所有任务，按tasks的顺序返回结果
+     * @see parallelFor
+     */
+    fun <T> invokeAll(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        tasks: List<() -> T>
+    ): List<T> {
+        val results = arrayOfNulls<Any?>(tasks.size)
+        parallelFor(priority, 0, tasks.size, 1) { results[it] = tasks[it]() }
+        @Suppress("UNCHECKED_CAST")
+        return results.asList() as List<T>
+    }
+
+    /**
+     * 延迟delayMillis后执行一次
+     */
+    fun schedule(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        runnable: Runnable,
+        delayMillis: Long,
+        type: PoolType = PoolType.CPU
+    ): HiScheduledTask {
+        return schedule(priority, runnable, delayMillis, 0, type)
+    }
+
+    /**
+     * 固定频率执行，第n次的时间是initialDelayMillis + n * periodMillis，执行时间超过周期时下一次会立即执行
+     */
+    fun scheduleAtFixedRate(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        runnable: Runnable,
+        initialDelayMillis: Long,
+        periodMillis: Long,
+        type: PoolType = PoolType.CPU
+    ): HiScheduledTask {
+        require(periodMillis > 0) { "periodMillis must be > 0" }
+        return schedule(priority, runnable, initialDelayMillis, TimeUnit.MILLISECONDS.toNanos(periodMillis), type)
+    }
+
+    /**
+     * 固定延迟执行，每次执行完后再等待delayMillis
+     */
+    fun scheduleWithFixedDelay(
+        @IntRange(from = 0, to = 10) priority: Int = 0,
+        runnable: Runnable,
+        initialDelayMillis: Long,
+        delayMillis: Long,
+        type: PoolType = PoolType.CPU
+    ): HiScheduledTask {
+        require(delayMillis > 0) { "delayMillis must be > 0" }
+        return schedule(priority, runnable, initialDelayMillis, -TimeUnit.MILLISECONDS.toNanos(delayMillis), type)
+    }
+
+    private fun schedule(
+        priority: Int,
+        runnable: Runnable,
+        delayMillis: Long,
+        periodNanos: Long,
+        type: PoolType
+    ): HiScheduledTask {
+        val wheel = timingWheel
+        val deadline = wheel.elapsedNanos() + TimeUnit.MILLISECONDS.toNanos(max(delayMillis, 0L))
+        val task = HiScheduledTask(wheel, priority, runnable, type, periodNanos, deadline)
+        wheel.add(task)
+        return task
+    }
+
+    /**
+     * 延迟delayMillis后直接在时间轮线程中执行一次，不经过线程池，线程池暂停或排满时也能按时执行
+     * 只用于很短、不会阻塞的任务，如[HiFuture.timeout]
+     */
+    internal fun scheduleOnTimer(runnable: Runnable, delayMillis: Long): HiScheduledTask {
+        val wheel = timingWheel
+        val deadline = wheel.elapsedNanos() + TimeUnit.MILLISECONDS.toNanos(max(delayMillis, 0L))
+        val task = HiScheduledTask(wheel, 0, runnable, PoolType.CPU, 0, deadline, true)
+        wheel.add(task)
+        return task
+    }
+
+    /**
+     * 时间轮中到期的任务放进线程池，定时任务已经被接受，不受队列容量限制
+     */
+    internal fun dispatch(task: HiScheduledTask) {
+        val pool = if (task.type == PoolType.IO) ioPool else cpuPool
+        pool.force(PriorityRunnable(task.priority, task))
+    }
+
+    /**
+     * 两个线程池当前的状态和累计的耗时分布
+     */
+    fun snapshot(): HiExecutorSnapshot {
+        return HiExecutorSnapshot(cpuPool.snapshot(), ioPool.snapshot())
+    }
+
+    enum class PoolType {
+        CPU, IO
+    }
+
+    enum class RejectPolicy {
+        /**
+         * 抛出RejectedExecutionException
+         */
+        ABORT,
+
+        /**
+         * 丢弃任务
+         */
+        DISCARD,
+
+        /**
+         * 在提交任务的线程中直接执行，提交方被拖慢，形成背压
+         */
+        CALLER_RUNS,
+
+        /**
+         * 阻塞提交任务的线程，直到队列有空位
+         * 主线程提交时仍然放入队列，线程池自己的线程提交时在当前线程执行，见[HiThreadPool]
+         */
+        BLOCK
+    }
+
+    /**
+     * 设置通道同时执行的最大任务数，如setLaneLimit("io", 2)
+     */
+    fun setLaneLimit(lane: String, @IntRange(from = 1) maxConcurrency: Int) {
+        val laneState = lanes.getOrPut(lane) { Lane(maxConcurrency) }
+        val ready = laneState.setLimit(maxConcurrency)
+        for (task in ready) {
+            task.pool.force(task)
         }
     }
 
-    fun execute(@IntRange(from = 0, to = 10) priority: Int = 0, runnable: Runnable) {
-        hiExecutor.execute(PriorityRunnable(priority, runnable))
+    /**
+     * 通道的并发控制，超出并发数的任务按与线程池队列相同的顺序在通道内等待
+     */
+    internal class Lane(private var limit: Int) {
+        private var running = 0
+        private val waiting = PriorityQueue<PriorityRunnable>()
+
+        /**
+         * @return true 可以立即提交到线程池；false 已在通道内排队
+         */
+        @Synchronized
+        fun acquire(task: PriorityRunnable): Boolean {
+            if (running < limit) {
+                running++
+                task.holdsLane = true
+                return true
+            }
+            waiting.add(task)
+            return false
+        }
+
+        /**
+         * 任务执行完后调用
+         * @return 通道内下一个可以提交的任务
+         */
+        @Synchronized
+        fun release(): PriorityRunnable? {
+            val next = waiting.poll()
+            if (next == null) {
+                running--
+            } else {
+                next.holdsLane = true
+            }
+            return next
+        }
+
+        /**
+         * @return 并发数调大后可以立即提交的任务
+         */
+        @Synchronized
+        fun setLimit(limit: Int): List<PriorityRunnable> {
+            this.limit = max(limit, 1)
+            val ready = ArrayList<PriorityRunnable>()
+            while (running < this.limit && waiting.isNotEmpty()) {
+                running++
+                val next = waiting.poll()!!
+                next.holdsLane = true
+                ready.add(next)
+            }
+            return ready
+        }
     }
 
     abstract class Callable<T> : Runnable {
+        private val prepare = Runnable { onPrepare() }
+
         override fun run() {
-            mainHandler.post { onPrepare() }
+            mainHandler.post(prepare)
 
             val t: T? = onBackground()
 
-            //移除所有消息.防止需要执行onCompleted了，onPrepare还没被执行，那就不需要执行了
-            mainHandler.removeCallbacksAndMessages(null)
+            //只移除自己的onPrepare.防止需要执行onCompleted了，onPrepare还没被执行，那就不需要执行了
+            //不能用removeCallbacksAndMessages(null)，mainHandler是共用的，会把别的任务的回调也移除
+            mainHandler.removeCallbacks(prepare)
             mainHandler.post { onCompleted(t) }
         }
 
@@ -94,35 +404,136 @@ object HiExecutor {
 
     class PriorityRunnable(val priority: Int, private val runnable: Runnable) : Runnable,
         Comparable<PriorityRunnable> {
+        /**
+         * 提交顺序，截止时间相同时先提交的先执行
+         */
+        private val seq = sequence.getAndIncrement()
+
+        /**
+         * 虚拟截止时间，越小越先执行
+         */
+        private val deadline: Long = agingMillis.let {
+            val rank = (MAX_PRIORITY - priority.coerceIn(0, MAX_PRIORITY)).toLong()
+            if (it > 0) SystemClock.uptimeMillis() + rank * it else rank
+        }
+        internal var lane: Lane? = null
+        internal var group: String? = null
+        internal val submitNanos = System.nanoTime()
+        internal var startNanos = 0L
+        internal var thread: Thread? = null
+        internal var slowReported = false
+
+        /**
+         * 提交任务的位置，只有被采样到的任务才有
+         */
+        internal val callSite: StackTraceElement? = HiExecutorMonitor.callSiteSampleInterval.let {
+            if (it > 0 && seq % it == 0L) HiExecutorMonitor.findCallSite() else null
+        }
+        internal lateinit var pool: HiThreadPool
+
+        /**
+         * 是否占用了线程池队列的名额
+         */
+        internal var holdsSlot = false
+
+        /**
+         * 是否占用了通道的名额
+         */
+        @Volatile
+        internal var holdsLane = false
+
         override fun compareTo(other: PriorityRunnable): Int {
-            return if (this.priority < other.priority) 1 else if (this.priority > other.priority) -1 else 0
+            return if (deadline != other.deadline) deadline.compareTo(other.deadline) else seq.compareTo(other.seq)
         }
 
         override fun run() {
-            runnable.run()
+            try {
+                runnable.run()
+            } finally {
+                releaseLane()
+            }
+        }
+
+        /**
+         * 任务被拒绝时调用，让出通道的名额
+         */
+        internal fun discard() {
+            releaseLane()
+            //HiFuture的任务被丢弃时让future失败，否则get()会一直阻塞
+            (runnable as? HiFuture<*>.Task)?.reject()
+        }
+
+        internal fun releaseLane() {
+            if (!holdsLane) {
+                return
+            }
+            holdsLane = false
+            //通道内等待的任务保留原来的截止时间，按等待的时长参与排序
+            val next = lane?.release()
+            if (next != null) {
+                next.pool.force(next)
+            }
         }
 
     }
 
 
-    fun pause() {
-        lock.lock()
-        try {
-            isPaused = true
-            HiLog.e(TAG, "hiExecutor is paused")
-        } finally {
-            lock.unlock()
+    /**
+     * @param group 为null时暂停所有任务，否则只暂停这个分组的任务
+     */
+    fun pause(group: String? = null) {
+        if (group == null) {
+            pauseGate.pause()
+        } else {
+            pausedGroups.putIfAbsent(group, PriorityQueue())
         }
+        HiLog.e(TAG, "hiExecutor is paused" + if (group == null) "" else ", group $group")
     }
 
-    fun resume() {
-        lock.lock()
-        try {
-            isPaused = false
-            pauseCondition.signalAll()
-        } finally {
-            lock.unlock()
+    fun resume(group: String? = null) {
+        if (group == null) {
+            pauseGate.resume()
+            cpuPool.wakeUp()
+            ioPool.wakeUp()
+        } else {
+            val held = pausedGroups.remove(group)
+            if (held != null) {
+                val tasks: List<PriorityRunnable>
+                synchronized(held) {
+                    tasks = ArrayList(held)
+                    held.clear()
+                }
+                //按原来的排序键放回各自的线程池，队列和通道的名额已经在暂停时归还，
+                //重新申请通道的名额，不再受队列容量限制
+                for (task in tasks) {
+                    if (task.lane?.acquire(task) != false) {
+                        task.pool.force(task)
+                    }
+                }
+            }
+        }
+        HiLog.e(TAG, "hiExecutor is resumed" + if (group == null) "" else ", group $group")
+    }
+
+    internal fun isPaused(group: String): Boolean {
+        return pausedGroups.containsKey(group)
+    }
+
+    /**
+     * 保存被暂停的分组中的任务
+     * @return false 分组已经恢复，任务可以执行
+     */
+    internal fun hold(task: PriorityRunnable): Boolean {
+        val held = pausedGroups[task.group ?: return false] ?: return false
+        synchronized(held) {
+            //与resume同时发生时，resume已经从map中移除了这个分组
+            if (pausedGroups[task.group] !== held) {
+                return false
+            }
+            held.add(task)
         }
-        HiLog.e(TAG, "hiExecutor is resumed")
+        //暂停期间不占用通道，同一通道上其它分组的任务可以继续执行
+        task.releaseLane()
+        return true
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package org.devio.hi.library.executor
+
+import android.app.Application
+import android.content.Context
+import android.graphics.PixelFormat
+import android.os.Build
+import android.provider.Settings
+import android.view.Gravity
+import android.view.LayoutInflater
+import android.view.WindowManager
+import android.widget.TextView
+import org.devio.hi.library.R
+import org.devio.hi.library.log.HiLog
+import org.devio.hi.library.util.AppGlobals
+import org.devio.hi.library.util.MainHandler
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * HiExecutor的监控：耗时任务检测、提交位置采样、状态浮窗
+ * tips：
+ * 1、任务的等待时间和执行时间总是记录到[HiHistogram]中，通过[HiExecutor.snapshot]查看；
+ * 2、设置了耗时阈值后，看门狗线程每隔阈值的一半检查一次正在执行的任务，超过阈值的任务只报告一次，
+ * 报告中带有执行线程当前的调用栈，没有设置阈值时执行任务不做额外的记录；
+ * 3、每[callSiteSampleInterval]个任务记录一次提交任务的位置，慢任务是被采样到的任务时报告中会带上它。
+ */
+object HiExecutorMonitor {
+    private const val TAG = "HiExecutorMonitor"
+
+    /**
+     * 每多少个任务记录一次提交位置，<=0不记录，记录需要获取调用栈，不要设置得太小
+     */
+    @Volatile
+    var callSiteSampleInterval = 64
+
+    @Volatile
+    internal var slowThresholdNanos = 0L
+
+    @Volatile
+    private var slowTaskListener: SlowTaskListener? = null
+    private val runningTasks =
+        Collections.newSetFromMap(ConcurrentHashMap<HiExecutor.PriorityRunnable, Boolean>())
+    private val watchdog = Executors.newSingleThreadScheduledExecutor {
+        val thread = Thread(it, "hi-executor-watchdog")
+        thread.isDaemon = true
+        thread
+    }
+    private var watchFuture: ScheduledFuture<*>? = null
+    private val viewer by lazy { ExecutorViewer() }
+
+    /**
+     * 检测执行时间超过阈值的任务
+     * @param thresholdMillis <=0 关闭检测
+     * @param listener 在看门狗线程中回调，为null时输出到HiLog
+     */
+    @Synchronized
+    fun setSlowTaskListener(thresholdMillis: Long, listener: SlowTaskListener? = null) {
+        watchFuture?.cancel(false)
+        watchFuture = null
+        slowTaskListener = listener
+        slowThresholdNanos = if (thresholdMillis > 0) TimeUnit.MILLISECONDS.toNanos(thresholdMillis) else 0
+        if (thresholdMillis <= 0) {
+            runningTasks.clear()
+            return
+        }
+        val period = Math.max(thresholdMillis / 2, 50)
+        watchFuture = watchdog.scheduleWithFixedDelay({ check() }, period, period, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * 显示或隐藏线程池状态浮窗，每秒刷新一次
+     */
+    fun toggle() {
+        viewer.toggle()
+    }
+
+    internal fun onStart(task: HiExecutor.PriorityRunnable) {
+        if (slowThresholdNanos > 0) {
+            runningTasks.add(task)
+        }
+    }
+
+    internal fun onFinish(task: HiExecutor.PriorityRunnable) {
+        if (slowThresholdNanos > 0) {
+            runningTasks.remove(task)
+        }
+    }
+
+    /**
+     * 找到调用栈中第一个不属于executor包的位置
+     */
+    internal fun findCallSite(): StackTraceElement? {
+        val packageName = HiExecutorMonitor::class.java.getPackage()?.name ?: return null
+        for (element in Throwable().stackTrace) {
+            if (!element.className.startsWith(packageName)) {
+                return element
+            }
+        }
+        return null
+    }
+
+    private fun check() {
+        val threshold = slowThresholdNanos
+        if (threshold <= 0) {
+            return
+        }
+        val now = System.nanoTime()
+        for (task in runningTasks) {
+            val thread = task.thread ?: continue
+            if (task.slowReported || now - task.startNanos < threshold) {
+                continue
+            }
+            task.slowReported = true
+            val slowTask = SlowTask(
+                task.pool.name,
+                task.priority,
+                TimeUnit.NANOSECONDS.toMillis(now - task.startNanos),
+                thread.name,
+                thread.stackTrace,
+                task.callSite
+            )
+            val listener = slowTaskListener
+            if (listener != null) {
+                listener.onSlowTask(slowTask)
+            } else {
+                HiLog.wt(TAG, slowTask.toString())
+            }
+        }
+    }
+
+    interface SlowTaskListener {
+        fun onSlowTask(task: SlowTask)
+    }
+
+    class SlowTask(
+        val poolName: String,
+        val priority: Int,
+        /**
+         * 检测到时已经执行的时间
+         */
+        val runningMillis: Long,
+        val threadName: String,
+        /**
+         * 检测到时执行线程的调用栈
+         */
+        val stackTrace: Array<StackTraceElement>,
+        /**
+         * 提交任务的位置，没有被采样时为null
+         */
+        val callSite: StackTraceElement?
+    ) {
+        override fun toString(): String {
+            val sb = StringBuilder()
+            sb.append("slow task on ").append(threadName).append(" (").append(poolName)
+                .append(", priority ").append(priority).append(") running ")
+                .append(runningMillis).append("ms")
+            if (callSite != null) {
+                sb.append(", submitted at ").append(callSite)
+            }
+            for (element in stackTrace) {
+                sb.append("\n\tat ").append(element)
+            }
+            return sb.toString()
+        }
+    }
+
+    private class ExecutorViewer {
+        private var params = WindowManager.LayoutParams()
+        private var isPlaying = false
+        private val application: Application = AppGlobals.get()!!
+        private val monitorView =
+            LayoutInflater.from(application).inflate(R.layout.executor_monitor_view, null, false) as TextView
+        private val windowManager =
+            application.getSystemService(Context.WINDOW_SERVICE) as WindowManager
+        private val refresh = object : Runnable {
+            override fun run() {
+                monitorView.text = HiExecutor.snapshot().toString()
+                MainHandler.postDelay(1000, this)
+            }
+        }
+
+        init {
+            params.width = WindowManager.LayoutParams.WRAP_CONTENT
+            params.height = WindowManager.LayoutParams.WRAP_CONTENT
+            params.flags =
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE or WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE or WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL
+            params.format = PixelFormat.TRANSLUCENT
+            params.gravity = Gravity.LEFT or Gravity.BOTTOM
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                params.type = WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
+            } else {
+                params.type = WindowManager.LayoutParams.TYPE_TOAST
+            }
+        }
+
+        fun toggle() {
+            if (isPlaying) {
+                isPlaying = false
+                MainHandler.remove(refresh)
+                windowManager.removeView(monitorView)
+                return
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !Settings.canDrawOverlays(application)) {
+                HiLog.e("app has no overlay permission")
+                return
+            }
+            isPlaying = true
+            windowManager.addView(monitorView, params)
+            refresh.run()
+        }
+    }
+}
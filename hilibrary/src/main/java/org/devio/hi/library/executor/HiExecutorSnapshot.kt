@@ -0,0 +1,50 @@
+package org.devio.hi.library.executor
+
+/**
+ * [HiExecutor.snapshot]返回的线程池状态，耗时的单位都是微秒，计数都是从进程启动开始累计
+ */
+class HiExecutorSnapshot(val cpu: PoolSnapshot, val io: PoolSnapshot) {
+    override fun toString(): String {
+        return "$cpu\n$io"
+    }
+}
+
+class PoolSnapshot(
+    val name: String,
+    val poolSize: Int,
+    val largestPoolSize: Int,
+    val maxPoolSize: Int,
+    /**
+     * 正在执行任务的线程数
+     */
+    val running: Int,
+    val queued: Int,
+    val completed: Long,
+    /**
+     * 抛出异常的任务数
+     */
+    val failed: Long,
+    /**
+     * 队列满时按拒绝策略处理的任务数
+     */
+    val rejected: Long,
+    /**
+     * 执行时间超过[HiExecutorMonitor.setSlowTaskListener]阈值的任务数
+     */
+    val slow: Long,
+    /**
+     * 从提交到开始执行的等待时间
+     */
+    val wait: HiHistogram.Snapshot,
+    /**
+     * 执行时间
+     */
+    val run: HiHistogram.Snapshot
+) {
+    override fun toString(): String {
+        return "$name threads=$poolSize/$maxPoolSize(peak $largestPoolSize) running=$running queued=$queued " +
+                "done=$completed failed=$failed rejected=$rejected slow=$slow\n" +
+                "  wait(us) $wait\n" +
+                "  run(us) $run"
+    }
+}
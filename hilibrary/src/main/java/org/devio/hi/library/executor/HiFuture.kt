@@ -0,0 +1,318 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * 异步任务的结果，通过[HiExecutor.submit]创建，可以组合、取消、设置超时，回调可以在主线程执行
+ * 如：
+ * HiExecutor.submit(type = PoolType.IO) { readFile() }
+ *     .then { parse(it) }
+ *     .timeout(3000)
+ *     .thenOnMain { textView.text = it }
+ *
+ * tips：
+ * 1、取消是协作式的：还没开始执行的任务不再执行，正在执行的任务通过[ensureActive]检查是否已经取消，不会中断线程；
+ * 2、取消和失败向下游传递：依赖它的future以同样的原因结束，[zip]和[allOf]中任意一个失败或取消时，其它的都会被取消；
+ * 3、主线程回调通过[HiMainDispatcher]批量执行，future被取消时只移除它自己的回调；
+ * 4、[timeout]到期时以TimeoutException结束，同样会让正在执行的任务在[ensureActive]处停止，
+ * 超时在时间轮线程中判断，不受线程池暂停和排队的影响；
+ * 5、任务因为队列满被拒绝或丢弃时，future以RejectedExecutionException结束。
+ */
+class HiFuture<T> internal constructor() {
+    private val state = AtomicInteger(PENDING)
+
+    @Volatile
+    private var result: Any? = null
+
+    /**
+     * 结束时回调，结束后置为DONE_LISTENERS，之后添加的监听器直接回调
+     */
+    private val listeners = AtomicReference(EMPTY)
+
+    /**
+     * 还没执行的主线程回调，取消时一起取消
+     */
+    @Volatile
+    private var mainEntry: HiMainDispatcher.Entry? = null
+
+    val isDone: Boolean
+        get() = state.get() != PENDING
+
+    val isCancelled: Boolean
+        get() = state.get() == CANCELLED
+
+    /**
+     * 取消还没有结束的future
+     * @return false 已经结束
+     */
+    fun cancel(): Boolean {
+        if (!finish(CANCELLED, CancellationException())) {
+            return false
+        }
+        mainEntry?.cancelled = true
+        return true
+    }
+
+    /**
+     * 在线程池中处理结果
+     */
+    fun <R> then(
+        priority: Int = 0,
+        type: HiExecutor.PoolType = HiExecutor.PoolType.CPU,
+        fn: (T) -> R
+    ): HiFuture<R> {
+        val next = HiFuture<R>()
+        addListener(next) { value ->
+            try {
+                HiExecutor.execute(priority, next.task { fn(value) }, type = type)
+            } catch (e: RejectedExecutionException) {
+                next.fail(e)
+            }
+        }
+        return next
+    }
+
+    /**
+     * 在主线程中处理结果
+     */
+    fun <R> thenOnMain(fn: (T) -> R): HiFuture<R> {
+        val next = HiFuture<R>()
+        addListener(next) { value -> next.postToMain { fn(value) } }
+        return next
+    }
+
+    /**
+     * 结束时回调，成功时error为null
+     * @param onMain 是否在主线程回调
+     */
+    fun whenComplete(onMain: Boolean = true, callback: (T?, Throwable?) -> Unit): HiFuture<T> {
+        addListener {
+            val entry = HiMainDispatcher.Entry(Runnable {
+                @Suppress("UNCHECKED_CAST")
+                if (state.get() == SUCCESS) callback(result as T, null) else callback(null, result as Throwable)
+            })
+            if (onMain) HiMainDispatcher.post(entry) else entry.run()
+        }
+        return this
+    }
+
+    /**
+     * 超过timeoutMillis还没结束时以TimeoutException结束
+     */
+    fun timeout(timeoutMillis: Long): HiFuture<T> {
+        //直接在时间轮线程中结束，线程池暂停或排满时超时仍然准时
+        val timer = HiExecutor.scheduleOnTimer(Runnable {
+            finish(FAILED, TimeoutException("timeout after $timeoutMillis ms"))
+        }, timeoutMillis)
+        addListener { timer.cancel() }
+        return this
+    }
+
+    /**
+     * 阻塞等待结果，不要在主线程中调用
+     * @throws CancellationException 已经取消
+     * @throws ExecutionException 执行失败或超时
+     */
+    fun get(): T {
+        if (!isDone) {
+            val latch = CountDownLatch(1)
+            addListener { latch.countDown() }
+            latch.await()
+        }
+        @Suppress("UNCHECKED_CAST")
+        return when (state.get()) {
+            SUCCESS -> result as T
+            CANCELLED -> throw result as CancellationException
+            else -> throw ExecutionException(result as Throwable)
+        }
+    }
+
+    internal fun complete(value: T): Boolean {
+        return finish(SUCCESS, value)
+    }
+
+    internal fun fail(error: Throwable): Boolean {
+        return finish(if (error is CancellationException) CANCELLED else FAILED, error)
+    }
+
+    /**
+     * 把block包装成在线程池中执行的任务，future已经结束时不再执行
+     */
+    internal fun task(block: () -> T): Runnable {
+        return Task(block)
+    }
+
+    internal inner class Task(private val block: () -> T) : Runnable {
+        override fun run() {
+            if (isDone) {
+                return
+            }
+            val previous = CURRENT.get()
+            CURRENT.set(this@HiFuture)
+            try {
+                complete(block())
+            } catch (e: Throwable) {
+                fail(e)
+            } finally {
+                CURRENT.set(previous)
+            }
+        }
+
+        /**
+         * 队列满、任务被[HiExecutor.RejectPolicy.DISCARD]丢弃时调用
+         */
+        fun reject() {
+            fail(RejectedExecutionException("task discarded, queue is full"))
+        }
+    }
+
+    private fun postToMain(block: () -> T) {
+        val entry = HiMainDispatcher.Entry(Runnable {
+            mainEntry = null
+            if (isDone) {
+                return@Runnable
+            }
+            try {
+                complete(block())
+            } catch (e: Throwable) {
+                fail(e)
+            }
+        })
+        mainEntry = entry
+        HiMainDispatcher.post(entry)
+    }
+
+    private fun finish(newState: Int, value: Any?): Boolean {
+        if (state.get() != PENDING) {
+            return false
+        }
+        synchronized(this) {
+            if (state.get() != PENDING) {
+                return false
+            }
+            //先写结果再改状态，读到结束状态的线程一定能看到结果
+            result = value
+            state.set(newState)
+        }
+        var node: Node? = listeners.getAndSet(DONE_LISTENERS)
+        //链表是倒序的，反转后按添加顺序回调
+        var reversed: Node? = null
+        while (node != null && node !== EMPTY) {
+            reversed = Node(node.listener, reversed)
+            node = node.next
+        }
+        while (reversed != null) {
+            reversed.listener.run()
+            reversed = reversed.next
+        }
+        return true
+    }
+
+    private fun addListener(listener: () -> Unit) {
+        val runnable = Runnable { listener() }
+        while (true) {
+            val head = listeners.get()
+            if (head === DONE_LISTENERS) {
+                runnable.run()
+                return
+            }
+            if (listeners.compareAndSet(head, Node(runnable, head))) {
+                return
+            }
+        }
+    }
+
+    /**
+     * 成功时回调onSuccess，失败或取消时以同样的原因结束next，next被取消时不再回调
+     */
+    private fun <R> addListener(next: HiFuture<R>, onSuccess: (T) -> Unit) {
+        addListener {
+            @Suppress("UNCHECKED_CAST")
+            if (state.get() == SUCCESS) {
+                if (!next.isDone) {
+                    onSuccess(result as T)
+                }
+            } else {
+                next.fail(result as Throwable)
+            }
+        }
+    }
+
+    private class Node(val listener: Runnable, val next: Node?)
+
+    companion object {
+        private const val PENDING = 0
+        private const val SUCCESS = 1
+        private const val FAILED = 2
+        private const val CANCELLED = 3
+        private val EMPTY = Node(Runnable { }, null)
+        private val DONE_LISTENERS = Node(Runnable { }, null)
+        private val CURRENT = ThreadLocal<HiFuture<*>>()
+
+        /**
+         * 在[HiExecutor.submit]的任务中调用，future已经取消或超时时抛出CancellationException结束任务
+         */
+        @JvmStatic
+        fun ensureActive() {
+            val future = CURRENT.get() ?: return
+            if (future.isDone) {
+                throw CancellationException()
+            }
+        }
+
+        /**
+         * 两个都成功时以Pair结束，任意一个失败或取消时取消另一个
+         */
+        @JvmStatic
+        fun <A, B> zip(a: HiFuture<A>, b: HiFuture<B>): HiFuture<Pair<A, B>> {
+            val result = HiFuture<Pair<A, B>>()
+            @Suppress("UNCHECKED_CAST")
+            join(result, listOf(a, b)) { Pair(a.result as A, b.result as B) }
+            return result
+        }
+
+        /**
+         * 全部成功时以结果列表结束，顺序与参数相同，任意一个失败或取消时取消其它的
+         */
+        @JvmStatic
+        fun <T> allOf(futures: List<HiFuture<out T>>): HiFuture<List<T>> {
+            val result = HiFuture<List<T>>()
+            @Suppress("UNCHECKED_CAST")
+            join(result, futures) { futures.map { it.result as T } }
+            return result
+        }
+
+        private fun <R> join(result: HiFuture<R>, futures: List<HiFuture<*>>, combine: () -> R) {
+            if (futures.isEmpty()) {
+                result.complete(combine())
+                return
+            }
+            val remaining = AtomicInteger(futures.size)
+            for (future in futures) {
+                future.addListener {
+                    if (future.state.get() == SUCCESS) {
+                        if (remaining.decrementAndGet() == 0) {
+                            result.complete(combine())
+                        }
+                    } else {
+                        result.fail(future.result as Throwable)
+                    }
+                }
+            }
+            //结果失败、取消或超时时，取消还没结束的输入
+            result.addListener {
+                if (result.state.get() != SUCCESS) {
+                    for (future in futures) {
+                        future.cancel()
+                    }
+                }
+            }
+        }
+    }
+}
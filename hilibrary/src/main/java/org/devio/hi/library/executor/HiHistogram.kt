@@ -0,0 +1,104 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 无锁的对数直方图，记录耗时等非负数值，多线程记录时只有一次原子自增
+ * tips：
+ * 1、小于32的值每个值一个桶，之后每翻一倍分16个桶，相对误差不超过1/16，与HdrHistogram的思路相同；
+ * 2、最多记录到2^41(微秒约25天)，更大的值记到最后一个桶；
+ * 3、[snapshot]复制一份计数后再计算分位数，记录和读取互不阻塞，快照不保证与并发的记录严格一致。
+ */
+class HiHistogram {
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val count = AtomicLong()
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    fun record(value: Long) {
+        val v = if (value < 0) 0 else value
+        counts.incrementAndGet(bucketIndex(v))
+        count.incrementAndGet()
+        sum.addAndGet(v)
+        var current = max.get()
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get()
+        }
+    }
+
+    fun snapshot(): Snapshot {
+        val copy = LongArray(BUCKET_COUNT)
+        for (i in 0 until BUCKET_COUNT) {
+            copy[i] = counts.get(i)
+        }
+        return Snapshot(copy, count.get(), sum.get(), max.get())
+    }
+
+    class Snapshot internal constructor(
+        private val counts: LongArray,
+        val count: Long,
+        val sum: Long,
+        val max: Long
+    ) {
+        val mean: Long
+            get() = if (count == 0L) 0 else sum / count
+
+        /**
+         * @param percentile 0~100，如99.9
+         * @return 分位数所在桶的上界，不超过记录过的最大值
+         */
+        fun percentile(percentile: Double): Long {
+            var total = 0L
+            for (c in counts) {
+                total += c
+            }
+            if (total == 0L) {
+                return 0
+            }
+            val rank = Math.ceil(total * percentile.coerceIn(0.0, 100.0) / 100).toLong().coerceAtLeast(1)
+            var seen = 0L
+            for (i in counts.indices) {
+                seen += counts[i]
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max)
+                }
+            }
+            return max
+        }
+
+        override fun toString(): String {
+            return "n=$count p50=${percentile(50.0)} p90=${percentile(90.0)} p99=${percentile(99.0)} max=$max"
+        }
+    }
+
+    companion object {
+        private const val LINEAR = 32
+        private const val SUB_BITS = 4
+        private const val SUB_COUNT = 1 shl SUB_BITS
+        private const val MAX_EXPONENT = 41
+        private const val BUCKET_COUNT = LINEAR + (MAX_EXPONENT - 5) * SUB_COUNT
+
+        internal fun bucketIndex(value: Long): Int {
+            if (value < LINEAR) {
+                return value.toInt()
+            }
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            if (exponent >= MAX_EXPONENT) {
+                return BUCKET_COUNT - 1
+            }
+            val sub = ((value ushr (exponent - SUB_BITS)) and (SUB_COUNT - 1).toLong()).toInt()
+            return LINEAR + (exponent - 5) * SUB_COUNT + sub
+        }
+
+        internal fun bucketUpperBound(index: Int): Long {
+            if (index < LINEAR) {
+                return index.toLong()
+            }
+            val exponent = (index - LINEAR) / SUB_COUNT + 5
+            val sub = (index - LINEAR) % SUB_COUNT
+            val width = 1L shl (exponent - SUB_BITS)
+            return (SUB_COUNT + sub) * width + width - 1
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.devio.hi.library.executor
+
+import android.os.Handler
+import android.os.Looper
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 把回调批量交给主线程执行，[HiFuture]的主线程回调都经过这里
+ * tips：
+ * 1、后台线程只把回调放进无锁队列，同一时间最多只有一条消息在主线程的消息队列中，一条消息执行所有积攒的回调；
+ * 2、一条消息最多执行[FRAME_BUDGET_MS]，剩下的回调放到下一条消息，中间让出主线程给绘制；
+ * 3、每个回调是一个[Entry]，取消时只标记自己的Entry，不会影响别的任务的回调。
+ */
+internal object HiMainDispatcher {
+    private const val FRAME_BUDGET_MS = 4L
+    private val handler = Handler(Looper.getMainLooper())
+    private val pending = ConcurrentLinkedQueue<Entry>()
+    private val scheduled = AtomicBoolean()
+    private val drain = Runnable { drain() }
+
+    fun post(entry: Entry) {
+        pending.add(entry)
+        if (scheduled.compareAndSet(false, true)) {
+            handler.post(drain)
+        }
+    }
+
+    private fun drain() {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FRAME_BUDGET_MS)
+        while (true) {
+            val entry = pending.poll() ?: break
+            entry.run()
+            if (System.nanoTime() > deadline && !pending.isEmpty()) {
+                //超过预算，剩下的回调下一条消息再执行
+                handler.post(drain)
+                return
+            }
+        }
+        scheduled.set(false)
+        //清除标记和新回调入队同时发生时，由这里补发消息
+        if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            handler.post(drain)
+        }
+    }
+
+    class Entry(private val runnable: Runnable) {
+        @Volatile
+        var cancelled = false
+
+        fun run() {
+            if (!cancelled) {
+                runnable.run()
+            }
+        }
+    }
+}
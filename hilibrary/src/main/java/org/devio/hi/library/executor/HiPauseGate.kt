@@ -0,0 +1,70 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * 线程池的全局暂停开关，线程在取任务之前等待，暂停期间任务都留在优先级队列中
+ * tips：没有暂停时[await]只读一次volatile变量，不加锁。
+ */
+internal class HiPauseGate {
+    @Volatile
+    var isPaused = false
+        private set
+    private val lock = ReentrantLock()
+    private val resumed = lock.newCondition()
+
+    fun pause() {
+        lock.lock()
+        try {
+            isPaused = true
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    /**
+     * 恢复并一次唤醒所有等待的线程
+     */
+    fun resume() {
+        lock.lock()
+        try {
+            isPaused = false
+            resumed.signalAll()
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    fun await() {
+        if (!isPaused) {
+            return
+        }
+        lock.lock()
+        try {
+            while (isPaused) {
+                resumed.await()
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    /**
+     * @return 剩余的等待时间，<=0表示超时
+     */
+    fun await(nanos: Long): Long {
+        if (!isPaused) {
+            return nanos
+        }
+        lock.lock()
+        try {
+            var remaining = nanos
+            while (isPaused && remaining > 0) {
+                remaining = resumed.awaitNanos(remaining)
+            }
+            return remaining
+        } finally {
+            lock.unlock()
+        }
+    }
+}
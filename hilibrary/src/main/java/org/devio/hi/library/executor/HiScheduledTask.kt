@@ -0,0 +1,104 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * [HiExecutor.schedule]等方法返回的定时任务，可以通过[cancel]取消
+ * tips：
+ * 1、到期后按提交时的优先级放进对应线程池的优先级队列，与普通任务一起排队；
+ * 2、周期任务执行完一次后才计算下一次的时间，同一个任务不会并发执行；
+ * 3、周期任务抛出异常后不再执行，与ScheduledThreadPoolExecutor相同。
+ */
+class HiScheduledTask internal constructor(
+    private val wheel: HiTimingWheel,
+    internal val priority: Int,
+    private val runnable: Runnable,
+    internal val type: HiExecutor.PoolType,
+    /**
+     * 周期，单位纳秒，>0 固定频率，<0 固定延迟，0 只执行一次
+     */
+    private val period: Long,
+    /**
+     * 到期时间，相对于时间轮启动时间的纳秒数
+     */
+    internal var deadlineNanos: Long,
+    /**
+     * 到期后直接在时间轮线程中执行，只用于很短、不会阻塞的任务
+     */
+    internal val onTimerThread: Boolean = false
+) : Runnable {
+    private val state = AtomicInteger(PENDING)
+
+    /**
+     * 以下字段只在时间轮线程中访问
+     */
+    internal var deadlineTick = 0L
+    internal var bucket: HiTimingWheel.Bucket? = null
+    internal var prev: HiScheduledTask? = null
+    internal var next: HiScheduledTask? = null
+
+    val isCancelled: Boolean
+        get() = state.get() == CANCELLED
+
+    /**
+     * 一次性任务执行完或周期任务停止后为true
+     */
+    val isDone: Boolean
+        get() = state.get().let { it == DONE || it == CANCELLED }
+
+    /**
+     * 取消还没有执行的任务，周期任务取消后不再执行下一次，正在执行的那一次不会被中断
+     * @return false 任务已经执行、正在执行(一次性任务)或已经取消
+     */
+    fun cancel(): Boolean {
+        while (true) {
+            val current = state.get()
+            if (current == DONE || current == CANCELLED || (current == RUNNING && period == 0L)) {
+                return false
+            }
+            if (state.compareAndSet(current, CANCELLED)) {
+                if (current == PENDING) {
+                    wheel.cancel(this)
+                }
+                return true
+            }
+        }
+    }
+
+    /**
+     * 到期后由时间轮线程调用
+     * @return false 已经取消
+     */
+    internal fun expire(): Boolean {
+        return state.compareAndSet(PENDING, QUEUED)
+    }
+
+    override fun run() {
+        if (!state.compareAndSet(QUEUED, RUNNING)) {
+            return
+        }
+        var rescheduled = false
+        try {
+            runnable.run()
+            if (period != 0L) {
+                deadlineNanos = if (period > 0) deadlineNanos + period else wheel.elapsedNanos() - period
+                rescheduled = state.compareAndSet(RUNNING, PENDING)
+                if (rescheduled) {
+                    wheel.add(this)
+                }
+            }
+        } finally {
+            if (!rescheduled) {
+                state.compareAndSet(RUNNING, DONE)
+            }
+        }
+    }
+
+    companion object {
+        private const val PENDING = 0
+        private const val QUEUED = 1
+        private const val RUNNING = 2
+        private const val DONE = 3
+        private const val CANCELLED = 4
+    }
+}
@@ -0,0 +1,265 @@
+package org.devio.hi.library.executor
+
+import android.os.Looper
+import org.devio.hi.library.log.HiLog
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 按需扩容、有界的优先级线程池
+ * ThreadPoolExecutor只有在队列offer失败时才会创建非核心线程，无界的PriorityBlockingQueue永远不会offer失败，
+ * 线程数会一直停留在corePoolSize。这里任务总是直接放进优先级队列，保证按优先级出队，
+ * 再根据空闲线程数决定是否提交一个空任务让线程池新建线程，新线程执行完空任务后从队列中取优先级最高的任务
+ *
+ * tips：
+ * 1、队列中任务的数量通过信号量限制在capacity以内，任务出队时归还名额；
+ * 2、队列满时按[HiExecutor.RejectPolicy]处理，主线程提交时CALLER_RUNS和BLOCK会卡住界面，这时仍然放入队列；
+ * 线程池自己的线程以BLOCK提交时，等待的可能正是它自己要让出的名额，这时在当前线程直接执行，避免死锁；
+ * 3、[allowCoreThreadTimeOut]打开后空闲的核心线程也会在keepAlive后退出，应用在后台时不占用线程；
+ * 4、每个任务的等待时间、执行时间记录到无锁的[HiHistogram]中，见[snapshot]；
+ * 5、暂停在取任务时生效：全局暂停时线程在[HiPauseGate]上等待，不会拿着任务等待；
+ * 取到的任务所在的分组被暂停时，任务交给[HiExecutor]保存，分组恢复后重新放回队列。
+ */
+internal class HiThreadPool(
+    internal val name: String,
+    corePoolSize: Int,
+    maxPoolSize: Int,
+    keepAliveSeconds: Long,
+    private val capacity: Int,
+    private val gate: HiPauseGate
+) {
+    private val queue = WorkQueue()
+    private val slots = Semaphore(capacity)
+
+    /**
+     * 正在执行任务的线程数，线程数减去它就是空闲的线程数
+     */
+    private val running = AtomicInteger()
+    private val executor: ThreadPoolExecutor
+    private val waitHistogram = HiHistogram()
+    private val runHistogram = HiHistogram()
+    private val completed = AtomicLong()
+    private val failed = AtomicLong()
+    private val rejected = AtomicLong()
+    private val slow = AtomicLong()
+
+    init {
+        val seq = AtomicLong()
+        val pool = this
+        val threadFactory = ThreadFactory {
+            val thread = Thread {
+                currentPool.set(pool)
+                it.run()
+            }
+            //hi-io-0
+            thread.name = name + "-" + seq.getAndIncrement()
+            return@ThreadFactory thread
+        }
+        //只有SPAWN会走到这里：线程数已经到了最大值，任务已经在队列中，等现有的线程执行即可
+        val ignore = RejectedExecutionHandler { _, _ -> }
+
+        executor = object : ThreadPoolExecutor(
+            corePoolSize,
+            maxPoolSize,
+            keepAliveSeconds,
+            TimeUnit.SECONDS,
+            queue,
+            threadFactory,
+            ignore
+        ) {
+            override fun beforeExecute(t: Thread?, r: Runnable?) {
+                if (r !is HiExecutor.PriorityRunnable) {
+                    return
+                }
+                releaseSlot(r)
+                running.incrementAndGet()
+                val now = System.nanoTime()
+                waitHistogram.record((now - r.submitNanos) / 1000)
+                r.startNanos = now
+                r.thread = t
+                HiExecutorMonitor.onStart(r)
+            }
+
+            override fun afterExecute(r: Runnable?, t: Throwable?) {
+                if (r !is HiExecutor.PriorityRunnable) {
+                    return
+                }
+                val cost = System.nanoTime() - r.startNanos
+                HiExecutorMonitor.onFinish(r)
+                running.decrementAndGet()
+                runHistogram.record(cost / 1000)
+                completed.incrementAndGet()
+                if (t != null) {
+                    failed.incrementAndGet()
+                }
+                val threshold = HiExecutorMonitor.slowThresholdNanos
+                if (threshold > 0 && cost >= threshold) {
+                    slow.incrementAndGet()
+                }
+            }
+        }
+    }
+
+    val maxPoolSize: Int
+        get() = executor.maximumPoolSize
+
+    /**
+     * 队列满时按policy处理
+     */
+    fun execute(task: HiExecutor.PriorityRunnable, policy: HiExecutor.RejectPolicy) {
+        if (slots.tryAcquire()) {
+            enqueue(task, true)
+            return
+        }
+        rejected.incrementAndGet()
+        val onMainThread = Looper.myLooper() == Looper.getMainLooper()
+        when {
+            policy == HiExecutor.RejectPolicy.ABORT -> {
+                task.discard()
+                throw RejectedExecutionException("$name queue is full, capacity $capacity")
+            }
+            policy == HiExecutor.RejectPolicy.DISCARD -> {
+                task.discard()
+                HiLog.w("HiThreadPool", "$name queue is full, task discarded, priority " + task.priority)
+            }
+            onMainThread -> enqueue(task, false)
+            policy == HiExecutor.RejectPolicy.CALLER_RUNS || currentPool.get() === this -> task.run()
+            else -> {
+                slots.acquire()
+                enqueue(task, true)
+            }
+        }
+    }
+
+    /**
+     * 放入已经被接受的任务(如通道内排队的任务)，不受容量限制
+     */
+    fun force(task: HiExecutor.PriorityRunnable) {
+        enqueue(task, false)
+    }
+
+    /**
+     * 暂停恢复后按排队的任务数补充线程
+     */
+    fun wakeUp() {
+        while (executor.poolSize < executor.maximumPoolSize && queue.size > executor.poolSize - running.get()) {
+            val poolSize = executor.poolSize
+            executor.execute(SPAWN)
+            if (executor.poolSize == poolSize) {
+                break
+            }
+        }
+    }
+
+    fun allowCoreThreadTimeOut(allow: Boolean) {
+        executor.allowCoreThreadTimeOut(allow)
+    }
+
+    fun snapshot(): PoolSnapshot {
+        return PoolSnapshot(
+            name,
+            executor.poolSize,
+            executor.largestPoolSize,
+            executor.maximumPoolSize,
+            running.get(),
+            queue.size,
+            completed.get(),
+            failed.get(),
+            rejected.get(),
+            slow.get(),
+            waitHistogram.snapshot(),
+            runHistogram.snapshot()
+        )
+    }
+
+    private fun enqueue(task: HiExecutor.PriorityRunnable, holdsSlot: Boolean) {
+        task.holdsSlot = holdsSlot
+        task.pool = this
+        queue.offer(task)
+        val poolSize = executor.poolSize
+        if (poolSize < executor.corePoolSize) {
+            executor.prestartCoreThread()
+        } else if (!gate.isPaused && poolSize < executor.maximumPoolSize && queue.size > poolSize - running.get()) {
+            //排队的任务比空闲线程多，新建一个线程
+            executor.execute(SPAWN)
+        }
+    }
+
+    private fun releaseSlot(task: HiExecutor.PriorityRunnable) {
+        if (task.holdsSlot) {
+            task.holdsSlot = false
+            slots.release()
+        }
+    }
+
+    /**
+     * 拒绝SPAWN，让ThreadPoolExecutor为它新建线程；取任务时处理暂停
+     */
+    private inner class WorkQueue : PriorityBlockingQueue<Runnable>() {
+        override fun offer(e: Runnable): Boolean {
+            return e !== SPAWN && super.offer(e)
+        }
+
+        override fun take(): Runnable {
+            while (true) {
+                gate.await()
+                val r = super.take()
+                if (!shouldHold(r)) {
+                    return r
+                }
+            }
+        }
+
+        override fun poll(timeout: Long, unit: TimeUnit): Runnable? {
+            var nanos = unit.toNanos(timeout)
+            while (true) {
+                nanos = gate.await(nanos)
+                if (nanos <= 0) {
+                    return null
+                }
+                val start = System.nanoTime()
+                val r = super.poll(nanos, TimeUnit.NANOSECONDS) ?: return null
+                if (!shouldHold(r)) {
+                    return r
+                }
+                nanos -= System.nanoTime() - start
+            }
+        }
+
+        /**
+         * 取任务和暂停同时发生时，把任务放回队列；分组被暂停时交给HiExecutor保存
+         * @return true 任务不能执行
+         */
+        private fun shouldHold(r: Runnable): Boolean {
+            if (r !is HiExecutor.PriorityRunnable) {
+                return false
+            }
+            if (gate.isPaused) {
+                super.offer(r)
+                return true
+            }
+            val group = r.group
+            if (group == null || !HiExecutor.isPaused(group)) {
+                return false
+            }
+            releaseSlot(r)
+            return HiExecutor.hold(r)
+        }
+    }
+
+    companion object {
+        private val SPAWN = Runnable { }
+
+        /**
+         * 当前线程所属的线程池，不是线程池的线程时为null
+         */
+        private val currentPool = ThreadLocal<HiThreadPool>()
+    }
+}
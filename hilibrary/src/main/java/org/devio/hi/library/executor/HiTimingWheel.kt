@@ -0,0 +1,177 @@
+package org.devio.hi.library.executor
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 哈希时间轮，HiExecutor的定时任务由它计时，到期后交给线程池执行
+ * 时间被分成长度为tick的格子，wheelSize个格子组成一圈，任务按到期的格子数对wheelSize取余放进对应格子的双向链表，
+ * 时间轮线程每走一格处理一个格子，到期的任务交给线程池，没到期的(还要再转几圈)留在格子里
+ *
+ * tips：
+ * 1、添加和取消只是放进无锁队列，由时间轮线程在下一次处理时放进格子或从格子中摘除，都是O(1)；
+ * 2、格子和链表只在时间轮线程中访问，不需要加锁；
+ * 3、没有任务时线程一直休眠，有任务时直接休眠到下一个非空的格子，不会每个tick都唤醒，添加了更早到期的任务时再唤醒；
+ * 4、任务不会提前执行，最多比到期时间晚一个tick；
+ * 5、[HiScheduledTask.onTimerThread]的任务(如[HiFuture.timeout])直接在时间轮线程中执行，不受线程池暂停和排队的影响。
+ */
+internal class HiTimingWheel(private val tickNanos: Long, wheelSize: Int) {
+    private val wheel: Array<Bucket>
+    private val mask: Int
+    private val incoming = ConcurrentLinkedQueue<HiScheduledTask>()
+    private val cancelled = ConcurrentLinkedQueue<HiScheduledTask>()
+    private val startNanos = System.nanoTime()
+
+    /**
+     * 已经处理过的最后一个格子，只在时间轮线程中访问
+     */
+    private var processedTick = 0L
+
+    /**
+     * 时间轮线程计划醒来的时间，更早到期的任务加入时需要唤醒它
+     */
+    @Volatile
+    private var wakeNanos = Long.MAX_VALUE
+    private val worker = Thread(Runnable { loop() }, "hi-executor-timer")
+
+    init {
+        var size = 1
+        while (size < wheelSize) {
+            size = size shl 1
+        }
+        wheel = Array(size) { Bucket() }
+        mask = size - 1
+        worker.isDaemon = true
+        worker.start()
+    }
+
+    /**
+     * 时间轮启动后经过的纳秒数，任务的到期时间都是相对于启动时间的
+     */
+    fun elapsedNanos(): Long {
+        return System.nanoTime() - startNanos
+    }
+
+    fun add(task: HiScheduledTask) {
+        incoming.add(task)
+        if (task.deadlineNanos < wakeNanos) {
+            LockSupport.unpark(worker)
+        }
+    }
+
+    fun cancel(task: HiScheduledTask) {
+        cancelled.add(task)
+    }
+
+    private fun loop() {
+        while (true) {
+            val currentTick = elapsedNanos() / tickNanos
+            removeCancelled()
+            transferIncoming()
+            while (processedTick < currentTick) {
+                processedTick++
+                expire(wheel[(processedTick and mask.toLong()).toInt()], processedTick)
+            }
+
+            val nextTick = nextNonEmptyTick()
+            wakeNanos = if (nextTick < 0) Long.MAX_VALUE else nextTick * tickNanos
+            //先发布wakeNanos再检查incoming，与add中的顺序相反，保证新任务不会被错过
+            if (!incoming.isEmpty()) {
+                continue
+            }
+            if (nextTick < 0) {
+                LockSupport.park(this)
+            } else {
+                val wait = nextTick * tickNanos - elapsedNanos()
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait)
+                }
+            }
+        }
+    }
+
+    private fun transferIncoming() {
+        while (true) {
+            val task = incoming.poll() ?: return
+            if (task.isDone) {
+                continue
+            }
+            //向上取整，任务不会提前到期；已经过期的任务放进下一个格子
+            val ticks = (task.deadlineNanos + tickNanos - 1) / tickNanos
+            task.deadlineTick = Math.max(ticks, processedTick + 1)
+            wheel[(task.deadlineTick and mask.toLong()).toInt()].add(task)
+        }
+    }
+
+    private fun removeCancelled() {
+        while (true) {
+            val task = cancelled.poll() ?: return
+            task.bucket?.remove(task)
+        }
+    }
+
+    private fun expire(bucket: Bucket, tick: Long) {
+        var task = bucket.head
+        while (task != null) {
+            val next = task.next
+            if (task.deadlineTick <= tick) {
+                bucket.remove(task)
+                if (task.expire()) {
+                    if (task.onTimerThread) task.run() else HiExecutor.dispatch(task)
+                }
+            }
+            task = next
+        }
+    }
+
+    /**
+     * @return 下一圈内第一个非空格子，没有时返回-1
+     */
+    private fun nextNonEmptyTick(): Long {
+        for (i in 1..wheel.size) {
+            val tick = processedTick + i
+            if (wheel[(tick and mask.toLong()).toInt()].head != null) {
+                return tick
+            }
+        }
+        return -1
+    }
+
+    /**
+     * 一个格子中的任务，双向链表
+     */
+    internal class Bucket {
+        var head: HiScheduledTask? = null
+        private var tail: HiScheduledTask? = null
+
+        fun add(task: HiScheduledTask) {
+            task.bucket = this
+            task.prev = tail
+            task.next = null
+            if (tail == null) {
+                head = task
+            } else {
+                tail!!.next = task
+            }
+            tail = task
+        }
+
+        fun remove(task: HiScheduledTask) {
+            val prev = task.prev
+            val next = task.next
+            if (prev == null) {
+                head = next
+            } else {
+                prev.next = next
+            }
+            if (next == null) {
+                tail = prev
+            } else {
+                next.prev = prev
+            }
+            task.prev = null
+            task.next = null
+            task.bucket = null
+        }
+    }
+}
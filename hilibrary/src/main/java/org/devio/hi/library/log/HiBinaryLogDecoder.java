@@ -0,0 +1,312 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * {@link HiBinaryLogEncoder}写出的二进制log文件的解码器，可在JVM上直接运行，将log文件还原成文本格式：
+ * java -cp hilibrary-classes.jar org.devio.hi.library.log.HiBinaryLogDecoder 2020-10-01.hlb [2020-10-01.txt]
+ * 也支持滚动后压缩的.hlb.gz文件
+ */
+public class HiBinaryLogDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 解码回调，log对象会被复用，回调返回后不能再持有它
+     */
+    public interface Callback {
+        void onLog(@NonNull HiLogMo log);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: HiBinaryLogDecoder <input.hlb> [output.txt]");
+            System.exit(1);
+        }
+        InputStream in = new FileInputStream(args[0]);
+        if (args[0].endsWith(".gz")) {
+            //滚动后被压缩的log文件
+            in = new GZIPInputStream(in);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                args.length > 1 ? new FileOutputStream(args[1]) : System.out, UTF_8));
+        try {
+            decode(in, out);
+        } finally {
+            in.close();
+            out.flush();
+            if (args.length > 1) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 将二进制log还原成与{@link HiLogMo#flattenedLog()}一致的文本格式，时间按文件头中记录的设备时区格式化
+     */
+    public static void decode(@NonNull InputStream in, @NonNull final Writer out) throws IOException {
+        final StringBuilder sb = new StringBuilder(256);
+        final HiTimeFormatter[] formatter = new HiTimeFormatter[1];
+        final IOException[] error = new IOException[1];
+        decode(in, new HeaderCallback() {
+            @Override
+            public void onHeader(@NonNull TimeZone timeZone) {
+                formatter[0] = new HiTimeFormatter(false, ' ', ':', timeZone);
+            }
+
+            @Override
+            public void onLog(@NonNull HiLogMo log) {
+                if (error[0] != null) {
+                    return;
+                }
+                sb.setLength(0);
+                log.appendFlattenedLog(sb, formatter[0]);
+                sb.append('\n');
+                try {
+                    out.append(sb);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /**
+     * 逐条解码二进制log文件
+     */
+    public static void decode(@NonNull InputStream in, @NonNull Callback callback) throws IOException {
+        DataInputStream input = readHeader(in, callback);
+        Block block = new Block();
+        while (decodeNextBlock(input, block, callback)) {
+            //逐块解码直到文件末尾
+        }
+    }
+
+    /**
+     * 读取并校验文件头，之后通过{@link #decodeNextBlock}逐块解码
+     *
+     * @return 定位在第一个块的输入流
+     */
+    static DataInputStream readHeader(@NonNull InputStream in, @NonNull Callback callback) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[HiBinaryLogEncoder.MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, HiBinaryLogEncoder.MAGIC)) {
+            throw new IOException("not a HiLog binary file");
+        }
+        int version = input.readUnsignedByte();
+        if (version != HiBinaryLogEncoder.VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        byte[] zone = new byte[(int) readVarLong(input)];
+        input.readFully(zone);
+        if (callback instanceof HeaderCallback) {
+            ((HeaderCallback) callback).onHeader(TimeZone.getTimeZone(new String(zone, UTF_8)));
+        }
+        return input;
+    }
+
+    /**
+     * 从输入流中读出并解码一个块
+     *
+     * @return false 已经读到文件末尾
+     */
+    static boolean decodeNextBlock(@NonNull DataInputStream input, @NonNull Block block, @NonNull Callback callback) throws IOException {
+        int flags = input.read();
+        if (flags < 0) {
+            return false;
+        }
+        int rawSize = (int) readVarLong(input);
+        int storedSize = (int) readVarLong(input);
+        if (rawSize < 0 || storedSize < 0) {
+            throw new IOException("malformed block");
+        }
+        byte[] stored = new byte[storedSize];
+        input.readFully(stored);
+        decodeBlock(flags, stored, rawSize, block, callback);
+        return true;
+    }
+
+    /**
+     * 解码一个块
+     *
+     * @param flags  块的flags
+     * @param stored 块中存储的数据
+     */
+    static void decodeBlock(int flags, byte[] stored, int rawSize, Block block, Callback callback) throws IOException {
+        byte[] raw = stored;
+        if ((flags & HiBinaryLogEncoder.FLAG_DEFLATE) != 0) {
+            raw = new byte[rawSize];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                int size = 0;
+                while (size < rawSize && !inflater.finished()) {
+                    int n = inflater.inflate(raw, size, rawSize - size);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("truncated block");
+                    }
+                    size += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+        block.reset(raw, rawSize);
+        long time = block.readVarLong();
+        HiLogMo log = new HiLogMo(0, 0, null, null);
+        while (block.position < block.limit) {
+            long zigzag = block.readVarLong();
+            time += (zigzag >>> 1) ^ -(zigzag & 1);
+            log.timeMillis = time;
+            int level = block.readByte();
+            log.level = level & ~HiBinaryLogEncoder.LEVEL_FIELDS;
+            log.tag = block.readDictionaryString();
+            log.log = block.readString();
+            log.fields = (level & HiBinaryLogEncoder.LEVEL_FIELDS) != 0 ? readFields(block) : null;
+            callback.onLog(log);
+        }
+    }
+
+    private static HiLogFields readFields(Block block) throws IOException {
+        int size = (int) block.readVarLong();
+        if (size < 0 || size > block.limit - block.position) {
+            throw new IOException("malformed fields");
+        }
+        String[] keys = new String[size];
+        byte[] types = new byte[size];
+        long[] values = new long[size];
+        String[] strings = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = block.readDictionaryString();
+            int type = block.readByte();
+            types[i] = (byte) type;
+            switch (type) {
+                case HiLogFields.TYPE_LONG:
+                    long zigzag = block.readVarLong();
+                    values[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                    break;
+                case HiLogFields.TYPE_DOUBLE:
+                    long bits = 0;
+                    for (int j = 0; j < 8; j++) {
+                        bits = (bits << 8) | block.readByte();
+                    }
+                    values[i] = bits;
+                    break;
+                case HiLogFields.TYPE_BOOLEAN:
+                    values[i] = block.readByte();
+                    break;
+                case HiLogFields.TYPE_STRING:
+                    strings[i] = block.readString();
+                    break;
+                default:
+                    throw new IOException("unknown field type: " + type);
+            }
+        }
+        return new HiLogFields(size, keys, types, values, strings);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * 同时需要文件头信息的回调
+     */
+    interface HeaderCallback extends Callback {
+        void onHeader(@NonNull TimeZone timeZone);
+    }
+
+    /**
+     * 块的读取状态，包括块内的tag字典
+     */
+    static class Block {
+        final List<String> tags = new ArrayList<>();
+        byte[] data;
+        int position;
+        int limit;
+
+        void reset(byte[] data, int limit) {
+            this.data = data;
+            this.position = 0;
+            this.limit = limit;
+            tags.clear();
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new EOFException();
+            }
+            return data[position++] & 0xff;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        /**
+         * 读取块内字典中的字符串，tag和结构化字段的key共用一个字典
+         */
+        String readDictionaryString() throws IOException {
+            int index = (int) readVarLong();
+            if (index == 0) {
+                String s = readString();
+                tags.add(s);
+                return s;
+            }
+            if (index < 0 || index > tags.size()) {
+                throw new IOException("malformed dictionary index: " + index);
+            }
+            return tags.get(index - 1);
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > limit) {
+                throw new EOFException();
+            }
+            String s = new String(data, position, length, UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
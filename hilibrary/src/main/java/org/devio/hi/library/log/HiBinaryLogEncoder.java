@@ -0,0 +1,261 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+
+/**
+ * 紧凑的二进制格式编码器，相比文本格式省去了重复的tag和文本时间戳，可通过{@link HiBinaryLogDecoder}还原成文本格式
+ * 文件格式：
+ * #1.文件头：[magic "HLOG"][版本号][时区id]，时区用于解码时还原出与设备一致的时间
+ * #2.块：[flags][原始长度 varint][存储长度 varint][数据]，flags为1表示数据经过Deflate压缩，每次flush写入一个块
+ * #3.块内数据：[基准时间 varint]，之后是连续的log记录
+ * #4.log记录：[与上一条的时间差 zigzag varint][级别][tag][内容长度 varint][内容UTF-8]
+ * tag使用块内的字典，第一次出现时写入0和tag文本，之后只写入它在字典中的序号。字典不跨块，每个块都可以单独解码
+ * #5.结构化log的级别字节带{@link #LEVEL_FIELDS}标记，内容之后是[字段数 varint]和各字段：[key][类型][值]，
+ * key与tag共用字典，值按类型写入：long为zigzag varint，double为8字节，boolean为1字节，字符串为[长度 varint][UTF-8]。
+ * 普通log的记录格式不变，所以不需要修改版本号
+ */
+public class HiBinaryLogEncoder implements HiLogEncoder {
+    static final byte[] MAGIC = {'H', 'L', 'O', 'G'};
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATE = 1;
+    static final int LEVEL_FIELDS = 0x80;
+    static final String FILE_SUFFIX = ".hlb";
+
+    private final boolean deflate;
+    private final Deflater deflater;
+    private final HashMap<String, Integer> tags = new HashMap<>();
+    private byte[] raw = new byte[8192];
+    private int rawSize;
+    private byte[] compressed;
+    private final byte[] header = new byte[16];
+    private long lastTime;
+
+    /**
+     * 创建使用Deflate压缩的编码器
+     */
+    public HiBinaryLogEncoder() {
+        this(true);
+    }
+
+    /**
+     * @param deflate 是否对每个块进行Deflate压缩
+     */
+    public HiBinaryLogEncoder(boolean deflate) {
+        this.deflate = deflate;
+        this.deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.compressed = deflate ? new byte[8192] : null;
+    }
+
+    @NonNull
+    @Override
+    public String fileSuffix() {
+        return FILE_SUFFIX;
+    }
+
+    @Override
+    public void writeHeader(@NonNull OutputStream out) throws IOException {
+        rawSize = 0;
+        writeBytes(MAGIC, 0, MAGIC.length);
+        writeByte(VERSION);
+        writeString(TimeZone.getDefault().getID());
+        out.write(raw, 0, rawSize);
+        rawSize = 0;
+    }
+
+    @Override
+    public void encode(@NonNull HiLogMo log) {
+        if (rawSize == 0) {
+            writeVarLong(log.timeMillis);
+            lastTime = log.timeMillis;
+        }
+        //多线程写入时时间戳可能略微回退，所以使用zigzag编码
+        long delta = log.timeMillis - lastTime;
+        writeVarLong((delta << 1) ^ (delta >> 63));
+        lastTime = log.timeMillis;
+        HiLogFields fields = log.fields;
+        writeByte(fields == null ? log.level : log.level | LEVEL_FIELDS);
+        writeDictionaryString(String.valueOf(log.tag));
+        writeString(String.valueOf(log.log));
+        if (fields != null) {
+            writeFields(fields);
+        }
+    }
+
+    private void writeFields(HiLogFields fields) {
+        int size = fields.size();
+        writeVarLong(size);
+        for (int i = 0; i < size; i++) {
+            writeDictionaryString(fields.getKey(i));
+            int type = fields.getType(i);
+            writeByte(type);
+            switch (type) {
+                case HiLogFields.TYPE_LONG:
+                    long value = fields.getLong(i);
+                    writeVarLong((value << 1) ^ (value >> 63));
+                    break;
+                case HiLogFields.TYPE_DOUBLE:
+                    long bits = fields.getLong(i);
+                    ensureCapacity(8);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        raw[rawSize++] = (byte) (bits >>> shift);
+                    }
+                    break;
+                case HiLogFields.TYPE_BOOLEAN:
+                    writeByte(fields.getBoolean(i) ? 1 : 0);
+                    break;
+                default:
+                    writeString(String.valueOf(fields.getString(i)));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 写入块内字典中的字符串，第一次出现时写入0和文本，之后只写入序号
+     */
+    private void writeDictionaryString(String s) {
+        Integer index = tags.get(s);
+        if (index == null) {
+            writeVarLong(0);
+            writeString(s);
+            tags.put(s, tags.size() + 1);
+        } else {
+            writeVarLong(index);
+        }
+    }
+
+    @Override
+    public int pendingSize() {
+        return rawSize;
+    }
+
+    @Override
+    public void writeBlock(@NonNull OutputStream out) throws IOException {
+        if (rawSize == 0) {
+            return;
+        }
+        byte[] data = raw;
+        int size = rawSize;
+        int flags = 0;
+        if (deflate) {
+            int compressedSize = compress();
+            //压缩后反而更大时直接存储原始数据
+            if (compressedSize < rawSize) {
+                data = compressed;
+                size = compressedSize;
+                flags = FLAG_DEFLATE;
+            }
+        }
+        int headerSize = 0;
+        header[headerSize++] = (byte) flags;
+        headerSize = putVarLong(header, headerSize, rawSize);
+        headerSize = putVarLong(header, headerSize, size);
+        out.write(header, 0, headerSize);
+        out.write(data, 0, size);
+        rawSize = 0;
+        tags.clear();
+    }
+
+    private int compress() {
+        deflater.reset();
+        deflater.setInput(raw, 0, rawSize);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == compressed.length) {
+                compressed = grow(compressed, size + 1);
+            }
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+        return size;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        raw[rawSize++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, raw, rawSize, length);
+        rawSize += length;
+    }
+
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        rawSize = putVarLong(raw, rawSize, value);
+    }
+
+    /**
+     * 写入[长度 varint][UTF-8]，直接编码到缓冲区，不创建中间的byte[]
+     */
+    private void writeString(String s) {
+        int length = s.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarLong(utf8Length);
+        ensureCapacity(utf8Length);
+        byte[] b = raw;
+        int p = rawSize;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xf0 | (codePoint >> 18));
+                b[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                //落单的代理字符按3字节写入，解码时会被替换为U+FFFD
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        rawSize = p;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (rawSize + extra > raw.length) {
+            raw = grow(raw, rawSize + extra);
+        }
+    }
+
+    private static byte[] grow(byte[] array, int minCapacity) {
+        byte[] grown = new byte[Math.max(minCapacity, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    static int putVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
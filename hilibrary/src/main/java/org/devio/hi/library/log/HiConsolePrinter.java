@@ -7,29 +7,82 @@ import androidx.annotation.NonNull;
 
 /**
  * 控制台的打印器
+ * tips：
+ * 1、超过{@link HiLogConfig#MAX_LEN}的log分段打印，优先在换行处切分，不会把一个字符的代理对拆到两段中(否则两段都是乱码)；
+ * 2、切分点直接在原字符串上查找，不会为整个log复制一份；
+ * 3、续行的前缀预先写入每个线程复用的缓冲区，之后每段只复制自身的字符，每段只创建一个交给Log.println的String。
  */
 public class HiConsolePrinter implements HiLogPrinter {
+    /**
+     * 续行的前缀，表示该行接着上一行
+     */
+    private static final String CONTINUATION_HEADER = "... ";
+    private static final ThreadLocal<char[]> CHUNK_BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return newChunkBuffer(HiLogConfig.MAX_LEN);
+        }
+    };
 
     @Override
     public void print(@NonNull HiLogConfig config, int level, String tag, @NonNull String printString) {
         //获取要打印的printString的长度
         int len = printString.length();
-        //获取打印行数
-        int countOfSub = len/HiLogConfig.MAX_LEN;
-        if (countOfSub > 0) {
-            StringBuilder log = new StringBuilder();
-            int index = 0;
-            for (int i = 0; i < countOfSub; i++) {
-                Log.println(level, tag, printString.substring(index, index + HiLogConfig.MAX_LEN));
-                index += HiLogConfig.MAX_LEN;
-            }
-            //处理行数无法直接整除，则将剩余部分打印出来
-            if (index != len) {
-                Log.println(level, tag, printString.substring(index, len));
-            }
-        } else {
+        int maxLen = HiLogConfig.MAX_LEN;
+        if (len <= maxLen) {
             //Log.println：将日志输出到控制台的方法
             Log.println(level, tag, printString);
+            return;
+        }
+        char[] buffer = CHUNK_BUFFER.get();
+        if (buffer.length < CONTINUATION_HEADER.length() + maxLen) {
+            buffer = newChunkBuffer(maxLen);
+            CHUNK_BUFFER.set(buffer);
+        }
+        int start = 0;
+        //没有换行符时(如单行的json)不再查找切分点
+        boolean multiline = printString.indexOf('\n') >= 0;
+        while (start < len) {
+            int end = start + maxLen;
+            if (end >= len) {
+                end = len;
+            } else {
+                //优先在后半段中最后一个换行符处切分
+                int lastNewline = -1;
+                for (int i = end, min = start + maxLen / 2; multiline && i > min; i--) {
+                    if (printString.charAt(i) == '\n') {
+                        lastNewline = i;
+                        break;
+                    }
+                }
+                if (lastNewline > 0) {
+                    end = lastNewline;
+                } else if (end - 1 > start && Character.isHighSurrogate(printString.charAt(end - 1))
+                        && Character.isLowSurrogate(printString.charAt(end))) {
+                    //不在代理对中间切分
+                    end--;
+                }
+            }
+            if (start == 0) {
+                //第一段不加前缀
+                Log.println(level, tag, printString.substring(0, end));
+            } else {
+                //前缀已在缓冲区开头，只复制该段的字符
+                int headerLen = CONTINUATION_HEADER.length();
+                printString.getChars(start, end, buffer, headerLen);
+                Log.println(level, tag, new String(buffer, 0, headerLen + end - start));
+            }
+            start = end;
+            if (start < len && printString.charAt(start) == '\n') {
+                //在换行处切分时，换行符本身不再打印
+                start++;
+            }
         }
     }
+
+    private static char[] newChunkBuffer(int maxLen) {
+        char[] buffer = new char[CONTINUATION_HEADER.length() + maxLen];
+        CONTINUATION_HEADER.getChars(0, CONTINUATION_HEADER.length(), buffer, 0);
+        return buffer;
+    }
 }
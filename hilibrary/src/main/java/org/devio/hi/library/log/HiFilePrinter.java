@@ -1,31 +1,84 @@
 package org.devio.hi.library.log;
 
+import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
-import java.util.concurrent.BlockingQueue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * tips：
- * 1、BlockingQueue的使用，防止频繁的创建线程；
+ * 1、{@link HiLogRingBuffer}的使用，预分配slot的无锁队列，打印时不再创建HiLogMo，也不用加锁；
  * 2、线程同步；
- * 2、文件操作，BufferedWriter的应用；
+ * 2、文件操作，log由{@link HiLogEncoder}编码，默认为文本格式，也可使用紧凑的二进制格式；
+ * 3、批量提交(group commit)：工作线程一次取出队列中所有待写的log，编码到同一个块中，按{@link FlushPolicy}决定何时将块写入文件；
+ * 4、文件滚动：按{@link RollingPolicy}以天/小时、单文件大小切分log文件，关闭的文件在低优先级线程中gzip压缩；
+ * 5、过期log和超出目录总大小的log由低优先级线程定时清理，不阻塞打印线程；
+ * 6、开启{@link Builder#index(boolean)}后，每个块写入时在同名的.idx文件中记录块的位置、时间范围、级别和tag，供{@link HiLogQuery}快速查询。
  */
-public class HiFilePrinter implements HiLogPrinter {
+public class HiFilePrinter implements HiLogEventPrinter {
     private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    /**
+     * 压缩和清理log文件的线程，优先级最低，避免与打印线程和主线程争抢CPU
+     */
+    private static final ScheduledExecutorService ARCHIVER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "HiFilePrinter-archiver");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private static final long DEFAULT_CLEAN_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * 每批最多编码的log条数，避免单批过大
+     */
+    private static final int MAX_BATCH = 256;
+    /**
+     * 未写入的块超过该大小时提前写入，避免占用过多内存
+     */
+    private static final int MAX_PENDING_SIZE = 64 * 1024;
     private final String logPath;
     private final long retentionTime;
+    private final FlushPolicy flushPolicy;
+    private final RollingPolicy rollingPolicy;
+    private final HiLogEncoder encoder;
+    /**
+     * 块索引，未开启时为null，只在工作线程中使用
+     */
+    private final HiLogIndex blockIndex;
+    /**
+     * 匹配本打印器生成的log文件名，如2020-10-01、2020-10-01_13.2.hlb、2020-10-01.1.gz
+     */
+    private final Pattern fileNamePattern;
     private LogWriter writer;
+    /**
+     * 正在写入的log文件名，清理线程不会删除该文件，读写都需持有fileLock
+     */
+    private String activeFileName;
+    private final Object fileLock = new Object();
     private volatile PrintWorker worker;
     private static HiFilePrinter instance;
 
@@ -36,58 +89,307 @@ public class HiFilePrinter implements HiLogPrinter {
      * @param retentionTime log文件的有效时长，单位毫秒，<=0表示一直有效
      */
     public static synchronized HiFilePrinter getInstance(String logPath, long retentionTime) {
-        if (instance == null) {
-            instance = new HiFilePrinter(logPath, retentionTime);
-        }
-        return instance;
+        return new Builder(logPath).retentionTime(retentionTime).build();
+    }
+
+    /**
+     * 创建HiFilePrinter
+     *
+     * @param logPath       log保存路径，如果是外部路径需要确保已经有外部存储的读写权限
+     * @param retentionTime log文件的有效时长，单位毫秒，<=0表示一直有效
+     * @param flushPolicy   批量写入时的flush策略，{@link FlushPolicy#PER_LINE}表示每行都flush
+     */
+    public static synchronized HiFilePrinter getInstance(String logPath, long retentionTime, @NonNull FlushPolicy flushPolicy) {
+        return new Builder(logPath).retentionTime(retentionTime).flushPolicy(flushPolicy).build();
+    }
+
+    /**
+     * 创建HiFilePrinter
+     *
+     * @param logPath       log保存路径，如果是外部路径需要确保已经有外部存储的读写权限
+     * @param retentionTime log文件的有效时长，单位毫秒，<=0表示一直有效
+     * @param flushPolicy   批量写入时的flush策略，{@link FlushPolicy#PER_LINE}表示每行都flush
+     * @param ringBuffer    待写log的队列，可指定容量和队列满时的处理方式，并通过它获取丢弃的log条数
+     */
+    public static synchronized HiFilePrinter getInstance(String logPath, long retentionTime, @NonNull FlushPolicy flushPolicy,
+                                                         @NonNull HiLogRingBuffer ringBuffer) {
+        return new Builder(logPath).retentionTime(retentionTime).flushPolicy(flushPolicy).ringBuffer(ringBuffer).build();
     }
 
 
-    private HiFilePrinter(String logPath, long retentionTime) {
-        this.logPath = logPath;
-        this.retentionTime = retentionTime;
+    private HiFilePrinter(Builder builder) {
+        this.logPath = builder.logPath;
+        this.retentionTime = builder.retentionTime;
+        this.flushPolicy = builder.flushPolicy;
+        this.rollingPolicy = builder.rollingPolicy;
+        this.encoder = builder.encoder;
+        this.blockIndex = builder.index ? new HiLogIndex() : null;
+        this.fileNamePattern = Pattern.compile("\\d{4}-\\d{2}-\\d{2}(_\\d{2})?(\\.\\d+)?"
+                + Pattern.quote(encoder.fileSuffix()) + "(" + Pattern.quote(GZIP_SUFFIX) + ")?");
         this.writer = new LogWriter();
-        this.worker = new PrintWorker();
-        cleanExpiredLog();
+        this.worker = new PrintWorker(builder.ringBuffer);
+        ARCHIVER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cleanLog();
+            }
+        }, 0, builder.cleanInterval, TimeUnit.MILLISECONDS);
     }
 
 
     @Override
     public void print(@NonNull HiLogConfig config, int level, String tag, @NonNull String printString) {
-        long timeMillis = System.currentTimeMillis();
+        long timeMillis = HiLogDispatcher.logTimeMillis();
         if (!worker.isRunning()) {
             worker.start();
         }
-        worker.put(new HiLogMo(timeMillis, level, tag, printString));
+        worker.put(timeMillis, level, tag, printString, null);
     }
 
-    private void doPrint(HiLogMo logMo) {
-        String lastFileName = writer.getPreFileName();
-        if (lastFileName == null) {
-            String newFileName = genFileName();
+    /**
+     * 结构化log的字段直接交给编码器，文本格式直接追加到块中，二进制格式按字段类型写入
+     */
+    @Override
+    public void printEvent(@NonNull HiLogConfig config, int level, String tag, @NonNull String prefix, @NonNull HiLogFields fields) {
+        long timeMillis = HiLogDispatcher.logTimeMillis();
+        if (!worker.isRunning()) {
+            worker.start();
+        }
+        worker.put(timeMillis, level, tag, prefix, fields);
+    }
 
+    /**
+     * 从队列中取出一批log，编码到当前块中
+     *
+     * @return 本批次编码的log条数
+     */
+    private int doPrint() {
+        long timeMillis = System.currentTimeMillis();
+        if (writer.needRoll(timeMillis)) {
+            String lastFileName = writer.getPreFileName();
             if (writer.isReady()) {
                 writer.close();
             }
-            if (!writer.ready(newFileName)) {
-                return;
+            if (lastFileName != null) {
+                archive(lastFileName);
+            }
+            if (!writer.ready(timeMillis)) {
+                //文件不可写时丢弃本批log，避免队列被占满
+                return worker.discard();
             }
         }
 
-        writer.append(logMo.flattenedLog());
+        int count = worker.drain();
+        if (encoder.pendingSize() >= MAX_PENDING_SIZE) {
+            writer.writeBlock();
+        }
+        return count;
     }
 
-    private String genFileName() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.CHINA);
-        sdf.setTimeZone(TimeZone.getDefault());
-        return sdf.format(new Date(System.currentTimeMillis()));
+    static String genFileName() {
+        return HiTimeFormatter.LOG.formatDate(System.currentTimeMillis());
     }
 
     /**
-     * 清除过期log
+     * 生成log文件名：日期[_小时][.序号]后缀
+     *
+     * @param hour  按小时滚动时的小时，按天滚动时为-1
+     * @param index 同一时间段内按大小滚动的序号，第一个文件为0
      */
-    private void cleanExpiredLog() {
-        if (retentionTime <= 0) {
+    private String genFileName(String date, int hour, int index) {
+        StringBuilder sb = new StringBuilder(24).append(date);
+        if (hour >= 0) {
+            sb.append('_').append(hour < 10 ? "0" : "").append(hour);
+        }
+        if (index > 0) {
+            sb.append('.').append(index);
+        }
+        return sb.append(encoder.fileSuffix()).toString();
+    }
+
+    /**
+     * 在清理线程中处理已关闭的log文件：按需压缩，再清理超出保留策略的文件
+     */
+    private void archive(final String fileName) {
+        ARCHIVER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (rollingPolicy.compress) {
+                    gzip(new File(logPath, fileName));
+                }
+                cleanLog();
+            }
+        });
+    }
+
+    /**
+     * 压缩上一个进程遗留的未压缩log文件，正在写入的文件除外
+     */
+    private void archiveLeftovers(final String fileName) {
+        ARCHIVER.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = new File(logPath).listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (!name.endsWith(GZIP_SUFFIX) && !name.equals(fileName)
+                            && fileNamePattern.matcher(name).matches()) {
+                        gzip(file);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 将log文件压缩为.gz文件，压缩完成后才删除原文件，压缩后的文件保留原文件的修改时间以便按时长清理
+     */
+    private static void gzip(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        File gzFile = new File(file.getPath() + GZIP_SUFFIX);
+        File tmpFile = new File(gzFile.getPath() + ".tmp");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(file);
+            out = new GZIPOutputStream(new FileOutputStream(tmpFile), 8 * 1024);
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            tmpFile.setLastModified(file.lastModified());
+            if (tmpFile.renameTo(gzFile)) {
+                file.delete();
+                //压缩后块的偏移失效，索引随之删除
+                HiLogIndex.indexFile(file).delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * HiFilePrinter的构建器，HiFilePrinter是单例，只有第一次build时的配置生效
+     */
+    public static class Builder {
+        private final String logPath;
+        private long retentionTime;
+        private FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+        private RollingPolicy rollingPolicy = RollingPolicy.DEFAULT;
+        private long cleanInterval = DEFAULT_CLEAN_INTERVAL;
+        private HiLogRingBuffer ringBuffer;
+        private HiLogEncoder encoder;
+        private boolean index;
+
+        /**
+         * @param logPath log保存路径，如果是外部路径需要确保已经有外部存储的读写权限
+         */
+        public Builder(String logPath) {
+            this.logPath = logPath;
+        }
+
+        /**
+         * @param retentionTime log文件的有效时长，单位毫秒，<=0表示一直有效
+         */
+        public Builder retentionTime(long retentionTime) {
+            this.retentionTime = retentionTime;
+            return this;
+        }
+
+        /**
+         * @param flushPolicy 批量写入时的flush策略，{@link FlushPolicy#PER_LINE}表示每行都flush
+         */
+        public Builder flushPolicy(@NonNull FlushPolicy flushPolicy) {
+            this.flushPolicy = flushPolicy;
+            return this;
+        }
+
+        /**
+         * @param rollingPolicy log文件的滚动策略，默认每天一个文件
+         */
+        public Builder rollingPolicy(@NonNull RollingPolicy rollingPolicy) {
+            this.rollingPolicy = rollingPolicy;
+            return this;
+        }
+
+        /**
+         * @param cleanInterval 定时清理过期log的间隔，单位毫秒，默认1小时
+         */
+        public Builder cleanInterval(long cleanInterval) {
+            this.cleanInterval = Math.max(cleanInterval, 1000);
+            return this;
+        }
+
+        /**
+         * @param ringBuffer 待写log的队列，可指定容量和队列满时的处理方式，并通过它获取丢弃的log条数
+         */
+        public Builder ringBuffer(@NonNull HiLogRingBuffer ringBuffer) {
+            this.ringBuffer = ringBuffer;
+            return this;
+        }
+
+        /**
+         * @param encoder log文件的编码器，默认为{@link HiTextLogEncoder}
+         */
+        public Builder encoder(@NonNull HiLogEncoder encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        /**
+         * @param index 是否为每个log文件生成块索引，供{@link HiLogQuery}跳过不相关的块，默认为false
+         */
+        public Builder index(boolean index) {
+            this.index = index;
+            return this;
+        }
+
+        public HiFilePrinter build() {
+            synchronized (HiFilePrinter.class) {
+                if (instance == null) {
+                    if (ringBuffer == null) {
+                        ringBuffer = new HiLogRingBuffer(DEFAULT_CAPACITY, HiLogRingBuffer.BLOCK);
+                    }
+                    if (encoder == null) {
+                        encoder = new HiTextLogEncoder();
+                    }
+                    instance = new HiFilePrinter(this);
+                }
+                return instance;
+            }
+        }
+    }
+
+    /**
+     * 清除过期log，以及超出{@link RollingPolicy#maxTotalSize}的最早的log文件，在清理线程中执行
+     */
+    private void cleanLog() {
+        long maxTotalSize = rollingPolicy.maxTotalSize;
+        if (retentionTime <= 0 && maxTotalSize <= 0) {
             return;
         }
         long currentTimeMillis = System.currentTimeMillis();
@@ -96,30 +398,167 @@ public class HiFilePrinter implements HiLogPrinter {
         if (files == null) {
             return;
         }
+        long totalSize = 0;
+        List<LogFile> logFiles = new ArrayList<>();
         for (File file : files) {
-            if (currentTimeMillis - file.lastModified() > retentionTime) {
-                file.delete();
+            String name = file.getName();
+            if (retentionTime > 0 && currentTimeMillis - file.lastModified() > retentionTime && delete(file)) {
+                continue;
+            }
+            if (maxTotalSize > 0 && fileNamePattern.matcher(name).matches()) {
+                LogFile logFile = new LogFile(file);
+                totalSize += logFile.length;
+                logFiles.add(logFile);
+            }
+        }
+        if (maxTotalSize <= 0 || totalSize <= maxTotalSize) {
+            return;
+        }
+        //从最早的文件开始删除，直到总大小不超过预算
+        Collections.sort(logFiles, new Comparator<LogFile>() {
+            @Override
+            public int compare(LogFile o1, LogFile o2) {
+                return o1.lastModified < o2.lastModified ? -1 : (o1.lastModified == o2.lastModified ? 0 : 1);
+            }
+        });
+        for (LogFile logFile : logFiles) {
+            if (totalSize <= maxTotalSize) {
+                break;
             }
+            if (delete(logFile.file)) {
+                totalSize -= logFile.length;
+            }
+        }
+    }
+
+    /**
+     * 删除log文件，正在写入的文件除外
+     * 与{@link LogWriter#ready(long)}中选定文件互斥，避免工作线程打开一个随即被删除的文件
+     */
+    private boolean delete(File file) {
+        synchronized (fileLock) {
+            String name = file.getName();
+            if (activeFileName != null && (name.equals(activeFileName) || name.equals(activeFileName + HiLogIndex.SUFFIX))) {
+                return false;
+            }
+            if (!file.delete()) {
+                return false;
+            }
+            HiLogIndex.indexFile(file).delete();
+            return true;
+        }
+    }
+
+    /**
+     * 清理时记录下的文件大小和修改时间，排序过程中文件被修改也不影响结果
+     */
+    private static class LogFile {
+        final File file;
+        final long length;
+        final long lastModified;
+
+        LogFile(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    /**
+     * 批量写入时的flush策略，满足以下任一条件即flush：
+     * #1.未flush的log条数达到batchSize
+     * #2.最早一条未flush的log已等待超过maxLatencyMs
+     * #3.本批次中有级别>=flushLevel的log（如crash前的E级别log需要尽快落盘）
+     */
+    public static class FlushPolicy {
+        /**
+         * 每条log都flush，等同于批量写入之前的行为
+         */
+        public static final FlushPolicy PER_LINE = new FlushPolicy(1, 0, HiLogType.V);
+        public static final FlushPolicy DEFAULT = new FlushPolicy(64, 1000, HiLogType.E);
+
+        final int batchSize;
+        final long maxLatencyMs;
+        final int flushLevel;
+
+        /**
+         * @param batchSize    未flush的log条数达到该值时flush，<=1表示每批都flush
+         * @param maxLatencyMs log在缓冲区中的最长停留时间，单位毫秒，<=0表示每批都flush
+         * @param flushLevel   级别>=该值的log写入后立即flush，见{@link HiLogType}
+         */
+        public FlushPolicy(int batchSize, long maxLatencyMs, @HiLogType.TYPE int flushLevel) {
+            this.batchSize = batchSize;
+            this.maxLatencyMs = maxLatencyMs;
+            this.flushLevel = flushLevel;
         }
     }
 
-    private class PrintWorker implements Runnable {
+    /**
+     * log文件的滚动策略，满足以下任一条件即切换到新文件：
+     * #1.进入新的一天，或按小时滚动时进入新的小时
+     * #2.当前文件大小达到maxFileSize，同一时间段内的文件依次加上.1、.2...的序号
+     */
+    public static class RollingPolicy {
+        /**
+         * 每天一个文件
+         */
+        public static final int DAILY = 0;
+        /**
+         * 每小时一个文件
+         */
+        public static final int HOURLY = 1;
 
-        private BlockingQueue<HiLogMo> logs = new LinkedBlockingQueue<>();
+        @IntDef({DAILY, HOURLY})
+        @Retention(RetentionPolicy.SOURCE)
+        public @interface Period {
+        }
+
+        /**
+         * 每天一个文件，不限大小，不压缩，等同于之前的行为
+         */
+        public static final RollingPolicy DEFAULT = new RollingPolicy(DAILY, 0, 0, false);
+
+        final int period;
+        final long maxFileSize;
+        final long maxTotalSize;
+        final boolean compress;
+
+        /**
+         * @param period       按天或按小时滚动
+         * @param maxFileSize  单个文件的最大字节数，达到后滚动到新文件，按块写入所以实际大小会略超过该值，<=0表示不限
+         * @param maxTotalSize log目录中log文件的总字节数上限，超出时删除最早的文件，<=0表示不限
+         * @param compress     滚动后是否将关闭的文件gzip压缩
+         */
+        public RollingPolicy(@Period int period, long maxFileSize, long maxTotalSize, boolean compress) {
+            this.period = period;
+            this.maxFileSize = maxFileSize;
+            this.maxTotalSize = maxTotalSize;
+            this.compress = compress;
+        }
+    }
+
+    private class PrintWorker implements Runnable, HiLogRingBuffer.Handler {
+
+        private final HiLogRingBuffer logs;
+
+        private final AtomicBoolean started = new AtomicBoolean();
 
         private volatile boolean running;
 
+        /**
+         * 本批次中是否有达到{@link FlushPolicy#flushLevel}的log
+         */
+        private boolean urgent;
+
+        PrintWorker(HiLogRingBuffer logs) {
+            this.logs = logs;
+        }
+
         /**
          * 将log放入打印队列
-         *
-         * @param log 要被打印的log
          */
-        void put(HiLogMo log) {
-            try {
-                logs.put(log);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        void put(long timeMillis, int level, String tag, String log, HiLogFields fields) {
+            logs.put(timeMillis, level, tag, log, fields);
         }
 
         /**
@@ -128,63 +567,164 @@ public class HiFilePrinter implements HiLogPrinter {
          * @return true 在运行
          */
         boolean isRunning() {
-            synchronized (this) {
-                return running;
-            }
+            return running;
         }
 
         /**
-         * 启动工作线程
+         * 启动工作线程，多个线程同时调用时只会启动一次
          */
         void start() {
-            synchronized (this) {
-                EXECUTOR.execute(this);
+            if (started.compareAndSet(false, true)) {
                 running = true;
+                EXECUTOR.execute(this);
+            }
+        }
+
+        int drain() {
+            return logs.drain(this, MAX_BATCH);
+        }
+
+        int discard() {
+            return logs.drain(new HiLogRingBuffer.Handler() {
+                @Override
+                public void onLog(@NonNull HiLogMo slot) {
+                }
+            }, MAX_BATCH);
+        }
+
+        /**
+         * 在工作线程中将slot直接编码到当前块中
+         */
+        @Override
+        public void onLog(@NonNull HiLogMo slot) {
+            encoder.encode(slot);
+            if (blockIndex != null) {
+                blockIndex.onLog(slot);
+            }
+            if (slot.level >= flushPolicy.flushLevel) {
+                urgent = true;
             }
         }
 
         @Override
         public void run() {
-            HiLogMo log;
-            try {
-                while (true) {
-                    log = logs.take();
-                    doPrint(log);
+            //未flush的log条数，以及其中最早一条写入的时间
+            int unflushed = 0;
+            long firstUnflushedTime = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                long timeoutNanos = -1;
+                if (unflushed > 0) {
+                    //还有未flush的log时，最多等到maxLatencyMs到期
+                    long wait = flushPolicy.maxLatencyMs - (System.currentTimeMillis() - firstUnflushedTime);
+                    timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(wait, 0));
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                synchronized (this) {
-                    running = false;
+                urgent = false;
+                if (logs.await(timeoutNanos)) {
+                    int count = doPrint();
+                    if (unflushed == 0) {
+                        firstUnflushedTime = System.currentTimeMillis();
+                    }
+                    unflushed += count;
+                }
+                if (unflushed > 0 && (urgent || unflushed >= flushPolicy.batchSize
+                        || System.currentTimeMillis() - firstUnflushedTime >= flushPolicy.maxLatencyMs)) {
+                    writer.writeBlock();
+                    unflushed = 0;
                 }
             }
+            writer.writeBlock();
+            running = false;
+            started.set(false);
         }
     }
 
 
     /**
-     * 基于BufferedWriter将log写入文件
+     * 基于FileOutputStream将编码后的块写入文件，每个块只调用一次write
      */
     private class LogWriter {
 
         private String preFileName;
         private File logFile;
-        private BufferedWriter bufferedWriter;
+        private FileOutputStream outputStream;
+        /**
+         * 当前文件所属的日期、小时(按天滚动时为-1)和序号
+         */
+        private String date;
+        private int hour = -1;
+        private int index;
+        private long fileSize;
+        private boolean leftoversArchived;
 
         boolean isReady() {
-            return bufferedWriter != null;
+            return outputStream != null;
         }
 
         String getPreFileName() {
             return preFileName;
         }
 
+        /**
+         * 判断是否需要切换到新的log文件
+         */
+        boolean needRoll(long timeMillis) {
+            if (outputStream == null) {
+                return true;
+            }
+            //同一天内formatDate返回同一个String，这里的equals开销很小
+            if (!HiTimeFormatter.LOG.formatDate(timeMillis).equals(date)) {
+                return true;
+            }
+            if (rollingPolicy.period == RollingPolicy.HOURLY && HiTimeFormatter.LOG.getHourOfDay(timeMillis) != hour) {
+                return true;
+            }
+            return rollingPolicy.maxFileSize > 0 && fileSize >= rollingPolicy.maxFileSize;
+        }
+
+        /**
+         * log写入前的准备操作，根据{@link RollingPolicy}选择要写入的文件
+         *
+         * @return true 表示准备就绪
+         */
+        boolean ready(long timeMillis) {
+            String newDate = HiTimeFormatter.LOG.formatDate(timeMillis);
+            int newHour = rollingPolicy.period == RollingPolicy.HOURLY ? HiTimeFormatter.LOG.getHourOfDay(timeMillis) : -1;
+            //同一时间段内按大小滚动时序号递增，否则从0开始
+            int newIndex = newDate.equals(date) && newHour == hour ? index + 1 : 0;
+            String newFileName = genFileName(newDate, newHour, newIndex);
+            //跳过已写满或已压缩的文件，如进程重启后继续写当天未写满的文件
+            while (true) {
+                File file = new File(logPath, newFileName);
+                boolean full = file.exists() ? rollingPolicy.maxFileSize > 0 && file.length() >= rollingPolicy.maxFileSize
+                        : new File(logPath, newFileName + GZIP_SUFFIX).exists();
+                if (!full) {
+                    break;
+                }
+                newFileName = genFileName(newDate, newHour, ++newIndex);
+            }
+            synchronized (fileLock) {
+                activeFileName = newFileName;
+            }
+            if (!ready(newFileName)) {
+                return false;
+            }
+            date = newDate;
+            hour = newHour;
+            index = newIndex;
+            if (rollingPolicy.compress && !leftoversArchived) {
+                leftoversArchived = true;
+                archiveLeftovers(newFileName);
+            }
+            return true;
+        }
+
         /**
          * log写入前的准备操作
          *
          * @param newFileName 要保存log的文件名
          * @return true 表示准备就绪
          */
-        boolean ready(String newFileName) {
+        private boolean ready(String newFileName) {
             preFileName = newFileName;
             logFile = new File(logPath, newFileName);
 
@@ -205,48 +745,83 @@ public class HiFilePrinter implements HiLogPrinter {
             }
 
             try {
-                bufferedWriter = new BufferedWriter(new FileWriter(logFile, true));
+                boolean empty = logFile.length() == 0;
+                outputStream = new FileOutputStream(logFile, true);
+                if (empty) {
+                    encoder.writeHeader(outputStream);
+                }
+                fileSize = logFile.length();
             } catch (Exception e) {
                 e.printStackTrace();
+                close();
                 preFileName = null;
                 logFile = null;
                 return false;
             }
+            if (blockIndex != null) {
+                try {
+                    blockIndex.open(logFile);
+                } catch (IOException e) {
+                    //索引不可写时不影响log的写入，该文件之后的块不再记录
+                    e.printStackTrace();
+                    blockIndex.close();
+                }
+            }
             return true;
         }
 
         /**
-         * 关闭bufferedWriter
+         * 写入未写的块并关闭outputStream
          */
         boolean close() {
-            if (bufferedWriter != null) {
+            if (outputStream != null) {
                 try {
-                    bufferedWriter.close();
+                    writeBlock(outputStream);
+                    outputStream.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                     return false;
                 } finally {
-                    bufferedWriter = null;
+                    outputStream = null;
                     preFileName = null;
                     logFile = null;
+                    if (blockIndex != null) {
+                        blockIndex.close();
+                    }
                 }
             }
             return true;
         }
 
         /**
-         * 将log写入文件
-         *
-         * @param flattenedLog 格式化后的log
+         * 将当前块写入文件，何时写入由调用方根据{@link FlushPolicy}决定
          */
-        void append(String flattenedLog) {
+        void writeBlock() {
+            if (outputStream == null) {
+                return;
+            }
             try {
-                bufferedWriter.write(flattenedLog);
-                bufferedWriter.newLine();
-                bufferedWriter.flush();
+                writeBlock(outputStream);
+                if (rollingPolicy.maxFileSize > 0) {
+                    fileSize = logFile.length();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+
+        /**
+         * 写入当前块，开启索引时记录该块在文件中的位置
+         */
+        private void writeBlock(FileOutputStream out) throws IOException {
+            if (blockIndex == null) {
+                encoder.writeBlock(out);
+                return;
+            }
+            //追加模式下position为文件的当前大小
+            long offset = out.getChannel().position();
+            encoder.writeBlock(out);
+            blockIndex.onBlockWritten(offset, out.getChannel().position() - offset);
+        }
     }
 }
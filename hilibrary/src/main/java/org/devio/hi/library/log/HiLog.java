@@ -2,7 +2,6 @@ package com.imooc.hilibrary.log;
 
 import android.util.Log;
 
-import java.util.Arrays;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -15,6 +14,12 @@ import androidx.annotation.NonNull;
  * 3.支持日志可视化
  * 4.能够实现文件打印
  * 5.支持不同打印器的插拔
+ * 6.格式化之前先按打印器的过滤条件判断，没有打印器接收的log不产生任何格式化开销；
+ *   xt(tag, a)/xt(tag, a, b)等固定参数的重载不会创建可变参数数组
+ * 7、开启{@link HiLogConfig#asyncDispatch()}后，打印器在后台分发线程中执行，不阻塞调用方
+ * 8、限流和采样同样在格式化之前判断，见{@link HiLogConfig#rateLimiter()}
+ * 9、结构化log：HiLog.event("net").kv("url", url).kv("ms", cost).i()，字段值在有打印器接收时才求值，见{@link HiLogEvent}
+ * 10、配置在初始化时被编译成不可变快照，每次打印只读取一次快照，开关、最低级别和tag级别通过一次位运算判断，见{@link HiLogSnapshot}
  */
 public class HiLog {
 
@@ -40,6 +45,14 @@ public class HiLog {
         log(HiLogType.V, tag, contents);
     }
 
+    public static void vt(String tag, Object content) {
+        fixedLog(HiLogType.V, tag, content);
+    }
+
+    public static void vt(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.V, tag, content1, content2);
+    }
+
     public static void d(Object... contents) {
         log(HiLogType.D, contents);
     }
@@ -48,6 +61,14 @@ public class HiLog {
         log(HiLogType.D, tag, contents);
     }
 
+    public static void dt(String tag, Object content) {
+        fixedLog(HiLogType.D, tag, content);
+    }
+
+    public static void dt(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.D, tag, content1, content2);
+    }
+
     public static void i(Object... contents) {
         log(HiLogType.I, contents);
     }
@@ -56,6 +77,14 @@ public class HiLog {
         log(HiLogType.I, tag, contents);
     }
 
+    public static void it(String tag, Object content) {
+        fixedLog(HiLogType.I, tag, content);
+    }
+
+    public static void it(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.I, tag, content1, content2);
+    }
+
     public static void w(Object... contents) {
         log(HiLogType.W, contents);
     }
@@ -64,6 +93,14 @@ public class HiLog {
         log(HiLogType.W, tag, contents);
     }
 
+    public static void wt(String tag, Object content) {
+        fixedLog(HiLogType.W, tag, content);
+    }
+
+    public static void wt(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.W, tag, content1, content2);
+    }
+
     public static void e(Object... contents) {
         log(HiLogType.E, contents);
     }
@@ -72,6 +109,14 @@ public class HiLog {
         log(HiLogType.E, tag, contents);
     }
 
+    public static void et(String tag, Object content) {
+        fixedLog(HiLogType.E, tag, content);
+    }
+
+    public static void et(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.E, tag, content1, content2);
+    }
+
     public static void a(Object... contents) {
         log(HiLogType.A, contents);
     }
@@ -80,20 +125,142 @@ public class HiLog {
         log(HiLogType.A, tag, contents);
     }
 
+    public static void at(String tag, Object content) {
+        fixedLog(HiLogType.A, tag, content);
+    }
+
+    public static void at(String tag, Object content1, Object content2) {
+        fixedLog(HiLogType.A, tag, content1, content2);
+    }
+
+
+    /**
+     * 使用全局tag构建结构化log
+     */
+    public static HiLogEvent event() {
+        return event(HiLogManager.getInstance().getConfig().getGlobalTag());
+    }
+
+    /**
+     * 构建结构化log，构建器是复用的，调用其v()/d()/i()/w()/e()/a()打印之后不能再持有它
+     */
+    public static HiLogEvent event(@NonNull String tag) {
+        return HiLogEvent.obtain(tag);
+    }
+
+    /**
+     * 打印结构化log，先判断是否有打印器接收，再对字段求值
+     */
+    static void logEvent(@NonNull HiLogEvent event, @HiLogType.TYPE int type) {
+        HiLogSnapshot config = HiLogManager.getInstance().getSnapshot();
+        if (isLoggable(config, type, event.tag)) {
+            HiLogFields fields = event.toFields(config);
+            String prefix = appendPrefix(config, new StringBuilder()).toString();
+            HiLogManager.getInstance().dispatch(config, type, event.tag, prefix, fields);
+        }
+    }
 
     public static void log(@HiLogType.TYPE int type, Object... contents) {
         log(type, HiLogManager.getInstance().getConfig().getGlobalTag(), contents);
     }
 
     public static void log(@HiLogType.TYPE int type, @NonNull String tag, Object... contents) {
-        log(HiLogManager.getInstance().getConfig(), type, tag, contents);
+        HiLogSnapshot config = HiLogManager.getInstance().getSnapshot();
+        if (isLoggable(config, type, tag)) {
+            print(config, type, tag, contents);
+        }
+    }
+
+    /**
+     * 固定一个参数的打印，只有在有打印器接收时才创建参数数组
+     */
+    private static void fixedLog(@HiLogType.TYPE int type, @NonNull String tag, Object content) {
+        HiLogSnapshot config = HiLogManager.getInstance().getSnapshot();
+        if (isLoggable(config, type, tag)) {
+            print(config, type, tag, new Object[]{content});
+        }
+    }
+
+    /**
+     * 固定两个参数的打印，只有在有打印器接收时才创建参数数组
+     */
+    private static void fixedLog(@HiLogType.TYPE int type, @NonNull String tag, Object content1, Object content2) {
+        HiLogSnapshot config = HiLogManager.getInstance().getSnapshot();
+        if (isLoggable(config, type, tag)) {
+            print(config, type, tag, new Object[]{content1, content2});
+        }
     }
 
+    /**
+     * 使用指定的配置打印，配置会被编译成快照，连续使用同一个配置时只编译一次
+     */
     public static void log(@NonNull HiLogConfig config, @HiLogType.TYPE int type, @NonNull String tag, Object... contents) {
-        if (!config.enable()) {
-            return;
+        HiLogSnapshot snapshot = HiLogSnapshot.of(config);
+        if (isLoggable(snapshot, type, tag)) {
+            print(snapshot, type, tag, contents);
         }
-        StringBuilder sb = new StringBuilder();
+    }
+
+    /**
+     * 在格式化之前判断级别和tag是否允许打印、是否有打印器接收该log，以及是否被限流
+     */
+    private static boolean isLoggable(@NonNull HiLogSnapshot config, int type, @NonNull String tag) {
+        if (!config.isLoggable(type, tag) || !hasLoggablePrinter(config, type, tag)) {
+            return false;
+        }
+        HiLogRateLimiter limiter = config.rateLimiter();
+        if (limiter == null) {
+            return true;
+        }
+        StackTraceElement callSite = null;
+        if (limiter.needCallSite()) {
+            StackTraceElement[] stackTrace = HiStackTraceUtil.getCallerStackTrace(HI_LOG_IGNORE_PACKAGE, 1);
+            callSite = stackTrace.length > 0 ? stackTrace[0] : null;
+        }
+        return limiter.tryAcquire(config, type, tag, callSite);
+    }
+
+    /**
+     * 判断是否有打印器接收该log，除遍历打印器快照的迭代器外不创建任何对象
+     */
+    private static boolean hasLoggablePrinter(@NonNull HiLogSnapshot config, int type, @NonNull String tag) {
+        HiLogManager manager = HiLogManager.getInstance();
+        HiLogPrinter[] configPrinters = config.printers();
+        if (configPrinters != null) {
+            for (HiLogPrinter printer : configPrinters) {
+                if (manager.isLoggable(printer, type, tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        List<HiLogPrinter> printers = manager.getPrinters();
+        if (printers == null) {
+            return false;
+        }
+        //打印器列表是写时复制的，遍历期间可能有打印器被删除，不能按下标遍历
+        for (HiLogPrinter printer : printers) {
+            if (manager.isLoggable(printer, type, tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void print(@NonNull HiLogSnapshot config, @HiLogType.TYPE int type, @NonNull String tag, Object... contents) {
+        StringBuilder sb = appendPrefix(config, new StringBuilder());
+        //这里传入内容以及config对象
+        String body = parseBody(config, contents);
+        sb.append(body);
+        String log = sb.toString();
+        //线程和堆栈信息必须在调用方线程中获取，格式化好的log再交给manager分发给打印器
+        HiLogManager.getInstance().dispatch(config, type, tag, log);
+    }
+
+    /**
+     * 根据config追加线程信息和堆栈信息
+     */
+    private static StringBuilder appendPrefix(@NonNull HiLogSnapshot config, @NonNull StringBuilder sb) {
         //通过config来判断，打印是否添加线程信息
         if (config.includeThread()) {
             String threadInfo = HiLogConfig.HI_THREAD_FORMATTER.format(Thread.currentThread());
@@ -101,27 +268,14 @@ public class HiLog {
         }
         //通过config来判断，打印是否添加堆栈信息
         if (config.stackTraceDepth() > 0) {
-            String stackTrace = HiLogConfig.HI_STACK_FORMATTER.format(HiStackTraceUtil.getCroppedRealStackTrace(new Throwable().getStackTrace(), HI_LOG_IGNORE_PACKAGE, config.stackTraceDepth()));
+            String stackTrace = HiLogConfig.HI_STACK_FORMATTER.format(HiStackTraceUtil.getCallerStackTrace(HI_LOG_IGNORE_PACKAGE, config.stackTraceDepth()));
             sb.append(stackTrace).append("\n");
         }
-        //这里传入内容以及config对象
-        String body = parseBody(config, contents);
-        sb.append(body);
-        //从config中获取打印器，如果config中的打印器不为空，则直接获取
-        //如果等于空，则从manager中获取
-        List<HiLogPrinter> printers = config.printers() != null ? Arrays.asList(config.printers()) : HiLogManager.getInstance().getPrinters();
-        //如果打印器为空，直接返回
-        if (printers == null) {
-            return;
-        }
-        //打印器不为空，则遍历打印器直接打印
-        for (HiLogPrinter printer : printers) {
-            printer.print(config, type, tag, sb.toString());
-        }
+        return sb;
     }
 
     //添加一个额外的入参，HiLogConfig
-    private static String parseBody(@NonNull HiLogConfig config, @NonNull Object... contents) {
+    private static String parseBody(@NonNull HiLogSnapshot config, @NonNull Object... contents) {
         //判断配置文件中，json注入是否为空
         if (config.injectJsonParser() != null) {
             return config.injectJsonParser().toJson(contents);
@@ -1,5 +1,7 @@
 package com.imooc.hilibrary.log;
 
+import java.util.Map;
+
 /**
  * HiLog日志库的配置类，负责HiLog打印的相关配置，具有以下作用：
  * #1.是否启用配置
@@ -7,6 +9,13 @@ package com.imooc.hilibrary.log;
  * #3.对打印内容是否包含堆栈信息，以及堆栈信息的深度进行配置（深度为0表示不包含堆栈信息）
  * #4.对全局的TAG进行配置
  * #5.序列化服务
+ * #6.是否异步分发log给打印器
+ * #7.限流和采样
+ * #8.最低打印级别，以及按tag前缀设置的级别
+ *
+ * tips：配置在{@link HiLogManager#init}或{@link HiLogManager#setConfig}时被编译成不可变的快照({@link HiLogSnapshot})，
+ * 之后打印时只读取快照，不再调用这里的方法，所以各方法要返回固定的值，需要修改配置时重新setConfig，
+ * 也可以通过{@link HiLogConfigWatcher}从文件中热更新。
  */
 public abstract class HiLogConfig {
 
@@ -32,6 +41,41 @@ public abstract class HiLogConfig {
         return false;
     }
 
+    /**
+     * 是否异步分发，默认为false。
+     * 开启后log在调用方线程中格式化，然后交给后台分发线程按时间顺序调用打印器，调用方不再等待打印器执行，
+     * 此时打印器会在非主线程中被调用，需要是线程安全的。
+     */
+    public boolean asyncDispatch() {
+        return false;
+    }
+
+    /**
+     * log的限流和采样，默认为null表示不限流。
+     * 限流在格式化log之前判断，被丢弃的log不产生任何格式化开销，后台会定期为每个被限流的tag打印一条汇总。
+     * 需要返回同一个实例，如：
+     * private final HiLogRateLimiter limiter = new HiLogRateLimiter(20, 40).sample(HiLogType.D, 0.1);
+     */
+    public HiLogRateLimiter rateLimiter() {
+        return null;
+    }
+
+    /**
+     * 最低打印级别，默认为{@link HiLogType#V}，低于该级别的log在格式化之前被丢弃
+     */
+    @HiLogType.TYPE
+    public int minLevel() {
+        return HiLogType.V;
+    }
+
+    /**
+     * 按tag前缀设置最低打印级别，优先于{@link #minLevel()}，有多个前缀匹配时取最长的一个，默认为null
+     * 如{"net": HiLogType.W, "net.http": HiLogType.D}，则tag为"net.dns"的log只打印W及以上，"net.http"打印D及以上
+     */
+    public Map<String, Integer> tagLevels() {
+        return null;
+    }
+
     /**
        堆栈信息的深度，
        初始定位5，筛选出前几条最关键的堆栈信息
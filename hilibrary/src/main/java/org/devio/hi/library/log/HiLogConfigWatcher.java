@@ -0,0 +1,213 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听配置文件，文件修改后重新编译配置并通过{@link HiLogManager#setConfig}替换，无需重启即可调整log的级别等
+ * 如：new HiLogConfigWatcher(new File(context.getCacheDir(), "hilog.properties"), config).start(2000);
+ * 文件为properties格式，没有的项使用base中的值，文件被删除后恢复为base：
+ * enable=true
+ * includeThread=false
+ * stackTraceDepth=0
+ * asyncDispatch=true
+ * minLevel=I
+ * tag.net=W
+ * tag.net.http=D
+ * 级别可以是V/D/I/W/E/A或对应的数值，tag.后面是tag的前缀，见{@link HiLogConfig#tagLevels()}
+ * tips：后台线程定期检查文件的修改时间和大小，文件没有变化时不读取文件。
+ */
+public class HiLogConfigWatcher {
+    private static final String TAG_PREFIX = "tag.";
+    private static final String LEVELS = "VDIWEA";
+    private static final ScheduledExecutorService WATCH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "HiLog-config-watcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final HiLogConfig base;
+    private long lastModified = -1;
+    private long lastLength = -1;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param file 配置文件，可以还不存在
+     * @param base 文件中没有的项使用的配置，通常为{@link HiLogManager#init}时的配置
+     */
+    public HiLogConfigWatcher(@NonNull File file, @NonNull HiLogConfig base) {
+        this.file = file;
+        this.base = base;
+    }
+
+    /**
+     * 开始监听，立即检查一次文件
+     *
+     * @param intervalMillis 检查文件的间隔，单位毫秒
+     */
+    public synchronized void start(long intervalMillis) {
+        if (future != null) {
+            return;
+        }
+        future = WATCH_EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, 0, Math.max(intervalMillis, 100), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * 文件有变化时重新加载，只在监听线程中调用
+     */
+    private void check() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == lastModified && length == lastLength) {
+            return;
+        }
+        lastModified = modified;
+        lastLength = length;
+        HiLogManager manager = HiLogManager.getInstance();
+        if (manager == null) {
+            return;
+        }
+        try {
+            manager.setConfig(file.isFile() ? load() : base);
+        } catch (IOException | RuntimeException e) {
+            //文件有误时保留当前配置，文件修改后再次尝试
+            e.printStackTrace();
+        }
+    }
+
+    private HiLogConfig load() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new FileConfig(base, properties);
+    }
+
+    /**
+     * @param value V/D/I/W/E/A或对应的数值
+     */
+    private static int parseLevel(String value) {
+        value = value.trim();
+        int index = value.length() == 1 ? LEVELS.indexOf(Character.toUpperCase(value.charAt(0))) : -1;
+        return index >= 0 ? HiLogType.V + index : Integer.parseInt(value);
+    }
+
+    /**
+     * 文件中的配置，没有的项使用base中的值，创建时解析完所有值
+     */
+    private static class FileConfig extends HiLogConfig {
+        private final HiLogConfig base;
+        private final boolean enable;
+        private final boolean includeThread;
+        private final int stackTraceDepth;
+        private final boolean asyncDispatch;
+        private final int minLevel;
+        private final Map<String, Integer> tagLevels;
+
+        FileConfig(HiLogConfig base, Properties properties) {
+            this.base = base;
+            String value = properties.getProperty("enable");
+            this.enable = value != null ? Boolean.parseBoolean(value.trim()) : base.enable();
+            value = properties.getProperty("includeThread");
+            this.includeThread = value != null ? Boolean.parseBoolean(value.trim()) : base.includeThread();
+            value = properties.getProperty("stackTraceDepth");
+            this.stackTraceDepth = value != null ? Integer.parseInt(value.trim()) : base.stackTraceDepth();
+            value = properties.getProperty("asyncDispatch");
+            this.asyncDispatch = value != null ? Boolean.parseBoolean(value.trim()) : base.asyncDispatch();
+            value = properties.getProperty("minLevel");
+            this.minLevel = value != null ? parseLevel(value) : base.minLevel();
+            Map<String, Integer> tagLevels = new HashMap<>();
+            if (base.tagLevels() != null) {
+                tagLevels.putAll(base.tagLevels());
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(TAG_PREFIX)) {
+                    tagLevels.put(name.substring(TAG_PREFIX.length()), parseLevel(properties.getProperty(name)));
+                }
+            }
+            this.tagLevels = tagLevels;
+        }
+
+        @Override
+        public boolean enable() {
+            return enable;
+        }
+
+        @Override
+        public boolean includeThread() {
+            return includeThread;
+        }
+
+        @Override
+        public boolean asyncDispatch() {
+            return asyncDispatch;
+        }
+
+        @Override
+        public HiLogRateLimiter rateLimiter() {
+            return base.rateLimiter();
+        }
+
+        @Override
+        public int minLevel() {
+            return minLevel;
+        }
+
+        @Override
+        public Map<String, Integer> tagLevels() {
+            return tagLevels;
+        }
+
+        @Override
+        public int stackTraceDepth() {
+            return stackTraceDepth;
+        }
+
+        @Override
+        public String getGlobalTag() {
+            return base.getGlobalTag();
+        }
+
+        @Override
+        public HiLogPrinter[] printers() {
+            return base.printers();
+        }
+
+        @Override
+        public JsonParser injectJsonParser() {
+            return base.injectJsonParser();
+        }
+    }
+}
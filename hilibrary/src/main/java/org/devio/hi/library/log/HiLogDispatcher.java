@@ -0,0 +1,255 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HiLog的异步分发器，开启{@link HiLogConfig#asyncDispatch()}后，打印器不再在调用方线程中执行
+ * tips：
+ * 1、每个打印线程有自己的ThreadLocal缓冲区(单生产者单消费者的环形数组)，打印线程之间不竞争同一个队列；
+ * 2、唯一的分发线程按时间戳对各缓冲区做k路归并，再依次交给打印器，所有打印器都只在分发线程中被调用；
+ * 3、缓冲区满时打印线程唤醒分发线程并短暂park，直到有空位，不会丢log；
+ * 4、线程结束后，其缓冲区被取空后移除；
+ * 5、打印器在分发线程中再打印log时直接同步分发，避免等待自己造成死锁。
+ */
+class HiLogDispatcher implements Runnable {
+    private static final int BUFFER_CAPACITY = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long PRODUCER_PARK_NANOS = 50_000L;
+
+    private final HiLogManager manager;
+    private final CopyOnWriteArrayList<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Buffer> localBuffer = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            Buffer buffer = new Buffer(Thread.currentThread());
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+    private final DispatchThread thread;
+    private volatile boolean parked;
+    /**
+     * 以下数组只在分发线程中使用，每轮归并时复用
+     */
+    private Buffer[] merging = new Buffer[8];
+    private long[] limits = new long[8];
+
+    HiLogDispatcher(@NonNull HiLogManager manager) {
+        this.manager = manager;
+        this.thread = new DispatchThread(this);
+        thread.start();
+    }
+
+    /**
+     * 分发线程中返回正在分发的log被打印时的时间，其他线程中返回当前时间，供打印器记录log的时间
+     */
+    static long logTimeMillis() {
+        Thread current = Thread.currentThread();
+        if (current instanceof DispatchThread) {
+            return ((DispatchThread) current).logTimeMillis;
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 将格式化好的log放入当前线程的缓冲区
+     */
+    void dispatch(@NonNull HiLogConfig config, int level, String tag, @NonNull String log, HiLogFields fields) {
+        if (Thread.currentThread() == thread) {
+            manager.print(config, level, tag, log, fields);
+            return;
+        }
+        Buffer buffer = localBuffer.get();
+        long tail = buffer.tail.get();
+        while (tail - buffer.head.get() >= BUFFER_CAPACITY) {
+            //缓冲区满，等待分发线程取走
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+        }
+        int index = (int) tail & (BUFFER_CAPACITY - 1);
+        buffer.nanoTimes[index] = System.nanoTime();
+        buffer.timeMillis[index] = System.currentTimeMillis();
+        buffer.configs[index] = config;
+        buffer.levels[index] = level;
+        buffer.tags[index] = tag;
+        buffer.logs[index] = log;
+        buffer.fields[index] = fields;
+        //volatile写发布该条log，之后再读parked，保证分发线程不会错过唤醒
+        buffer.tail.set(tail + 1);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 等待调用之前放入缓冲区的log分发完成，如crash时确保log已交给打印器
+     *
+     * @param timeoutMillis 最长等待时间，单位毫秒
+     * @return true 表示已全部分发
+     */
+    boolean flush(long timeoutMillis) {
+        if (Thread.currentThread() == thread) {
+            return false;
+        }
+        int size = buffers.size();
+        Buffer[] targets = new Buffer[size];
+        long[] tails = new long[size];
+        for (int i = 0; i < size; i++) {
+            targets[i] = buffers.get(i);
+            tails[i] = targets[i].tail.get();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < size; i++) {
+            while (targets[i].head.get() < tails[i]) {
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                }
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (drain() == 0) {
+                parked = true;
+                //设置parked后再检查一次，避免错过打印线程的唤醒
+                if (isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+                removeDeadBuffers();
+            }
+        }
+    }
+
+    /**
+     * 按时间戳归并当前所有缓冲区中的log并分发，本轮只处理开始时已发布的log
+     *
+     * @return 分发的条数
+     */
+    private int drain() {
+        int size = buffers.size();
+        if (merging.length < size) {
+            merging = new Buffer[size * 2];
+            limits = new long[size * 2];
+        }
+        for (int i = 0; i < size; i++) {
+            merging[i] = buffers.get(i);
+            limits[i] = merging[i].tail.get();
+        }
+        int count = 0;
+        while (true) {
+            //每个缓冲区内部已按时间有序，取各缓冲区头部中最早的一条
+            Buffer earliest = null;
+            long earliestTime = 0;
+            for (int i = 0; i < size; i++) {
+                Buffer buffer = merging[i];
+                long head = buffer.head.get();
+                if (head < limits[i]) {
+                    long time = buffer.nanoTimes[(int) head & (BUFFER_CAPACITY - 1)];
+                    if (earliest == null || time - earliestTime < 0) {
+                        earliest = buffer;
+                        earliestTime = time;
+                    }
+                }
+            }
+            if (earliest == null) {
+                break;
+            }
+            dispatchHead(earliest);
+            count++;
+        }
+        for (int i = 0; i < size; i++) {
+            merging[i] = null;
+        }
+        return count;
+    }
+
+    private void dispatchHead(Buffer buffer) {
+        long head = buffer.head.get();
+        int index = (int) head & (BUFFER_CAPACITY - 1);
+        HiLogConfig config = buffer.configs[index];
+        int level = buffer.levels[index];
+        String tag = buffer.tags[index];
+        String log = buffer.logs[index];
+        HiLogFields fields = buffer.fields[index];
+        thread.logTimeMillis = buffer.timeMillis[index];
+        buffer.configs[index] = null;
+        buffer.tags[index] = null;
+        buffer.logs[index] = null;
+        buffer.fields[index] = null;
+        //释放slot，供打印线程复用
+        buffer.head.set(head + 1);
+        try {
+            manager.print(config, level, tag, log, fields);
+        } catch (RuntimeException e) {
+            //单个打印器出错不能让分发线程退出
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isEmpty() {
+        for (int i = 0, size = buffers.size(); i < size; i++) {
+            Buffer buffer = buffers.get(i);
+            if (buffer.head.get() != buffer.tail.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 移除已结束线程的空缓冲区，只有分发线程会移除
+     */
+    private void removeDeadBuffers() {
+        for (int i = buffers.size() - 1; i >= 0; i--) {
+            Buffer buffer = buffers.get(i);
+            Thread owner = buffer.owner.get();
+            if ((owner == null || !owner.isAlive()) && buffer.head.get() == buffer.tail.get()) {
+                buffers.remove(i);
+            }
+        }
+    }
+
+    private static class DispatchThread extends Thread {
+        /**
+         * 正在分发的log被打印时的时间
+         */
+        long logTimeMillis;
+
+        DispatchThread(Runnable target) {
+            super(target, "HiLog-dispatcher");
+            setDaemon(true);
+        }
+    }
+
+    /**
+     * 单个打印线程的缓冲区，只有所属线程写tail，只有分发线程写head
+     */
+    private static class Buffer {
+        final WeakReference<Thread> owner;
+        final long[] nanoTimes = new long[BUFFER_CAPACITY];
+        final long[] timeMillis = new long[BUFFER_CAPACITY];
+        final HiLogConfig[] configs = new HiLogConfig[BUFFER_CAPACITY];
+        final int[] levels = new int[BUFFER_CAPACITY];
+        final String[] tags = new String[BUFFER_CAPACITY];
+        final String[] logs = new String[BUFFER_CAPACITY];
+        final HiLogFields[] fields = new HiLogFields[BUFFER_CAPACITY];
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong();
+
+        Buffer(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link HiFilePrinter}写文件时使用的编码器，与{@link HiLogFormatter}类似，基于该接口可以自定义log文件的格式
+ * 编码器只会在文件打印器的工作线程中被调用，实现无需考虑线程安全。
+ * 本项目中包含以下两种编码器：
+ * #1.HiTextLogEncoder:文本格式，与{@link HiLogMo#flattenedLog()}一致，默认使用
+ * #2.HiBinaryLogEncoder:紧凑的二进制格式，可通过HiBinaryLogDecoder还原成文本格式
+ */
+public interface HiLogEncoder {
+
+    /**
+     * 文件名后缀，不同格式的log写入不同的文件
+     */
+    @NonNull
+    String fileSuffix();
+
+    /**
+     * 新建文件时写入的文件头
+     */
+    void writeHeader(@NonNull OutputStream out) throws IOException;
+
+    /**
+     * 将一条log编码到当前块中
+     */
+    void encode(@NonNull HiLogMo log);
+
+    /**
+     * @return 当前块中已编码的字节数(或字符数)
+     */
+    int pendingSize();
+
+    /**
+     * 将当前块写入out，并开始一个新的块
+     */
+    void writeBlock(@NonNull OutputStream out) throws IOException;
+}
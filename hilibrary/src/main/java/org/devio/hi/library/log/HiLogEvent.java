@@ -0,0 +1,185 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 结构化log的构建器，通过{@link HiLog#event(String)}获取：
+ * HiLog.event("net").kv("url", url).kv("ms", cost).i();
+ * tips：
+ * 1、每个线程复用同一个构建器，打印后自动回收，所以调用v()/d()/i()/w()/e()/a()之后不能再使用它；
+ * 2、数值和boolean按原始类型保存，不会装箱；
+ * 3、值为{@link HiLogSupplier}时，只有在有打印器接收该条log时才求值，对象的toString也推迟到这时调用。
+ */
+public final class HiLogEvent {
+    private static final ThreadLocal<HiLogEvent> POOL = new ThreadLocal<HiLogEvent>() {
+        @Override
+        protected HiLogEvent initialValue() {
+            return new HiLogEvent();
+        }
+    };
+    private static final byte TYPE_OBJECT = -1;
+
+    String tag;
+    private boolean inUse;
+    private int size;
+    private String[] keys = new String[8];
+    private byte[] types = new byte[8];
+    private long[] values = new long[8];
+    private Object[] objects = new Object[8];
+
+    private HiLogEvent() {
+    }
+
+    /**
+     * 获取当前线程的构建器，构建过程中嵌套打印其他event时创建新的构建器
+     */
+    static HiLogEvent obtain(@NonNull String tag) {
+        HiLogEvent event = POOL.get();
+        if (event.inUse) {
+            event = new HiLogEvent();
+        }
+        event.inUse = true;
+        event.tag = tag;
+        return event;
+    }
+
+    public HiLogEvent kv(@NonNull String key, long value) {
+        return add(key, HiLogFields.TYPE_LONG, value, null);
+    }
+
+    public HiLogEvent kv(@NonNull String key, double value) {
+        return add(key, HiLogFields.TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public HiLogEvent kv(@NonNull String key, boolean value) {
+        return add(key, HiLogFields.TYPE_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * 对象的值在有打印器接收时才转换：数值和boolean保持原始类型，注入了{@link HiLogConfig.JsonParser}时其他对象转为json，否则调用toString
+     */
+    public HiLogEvent kv(@NonNull String key, Object value) {
+        return add(key, TYPE_OBJECT, 0, value);
+    }
+
+    /**
+     * @param value 只有在有打印器接收时才会调用get
+     */
+    public HiLogEvent kv(@NonNull String key, @NonNull HiLogSupplier<?> value) {
+        return add(key, TYPE_OBJECT, 0, value);
+    }
+
+    public void v() {
+        log(HiLogType.V);
+    }
+
+    public void d() {
+        log(HiLogType.D);
+    }
+
+    public void i() {
+        log(HiLogType.I);
+    }
+
+    public void w() {
+        log(HiLogType.W);
+    }
+
+    public void e() {
+        log(HiLogType.E);
+    }
+
+    public void a() {
+        log(HiLogType.A);
+    }
+
+    public void log(@HiLogType.TYPE int level) {
+        try {
+            HiLog.logEvent(this, level);
+        } finally {
+            recycle();
+        }
+    }
+
+    /**
+     * 求值并生成不可变的字段，只在有打印器接收时调用
+     */
+    HiLogFields toFields(@NonNull HiLogConfig config) {
+        String[] fieldKeys = new String[size];
+        byte[] fieldTypes = new byte[size];
+        long[] fieldValues = new long[size];
+        String[] fieldStrings = null;
+        for (int i = 0; i < size; i++) {
+            fieldKeys[i] = keys[i];
+            byte type = types[i];
+            long value = values[i];
+            String string = null;
+            if (type == TYPE_OBJECT) {
+                Object object = objects[i];
+                if (object instanceof HiLogSupplier) {
+                    object = ((HiLogSupplier<?>) object).get();
+                }
+                if (object instanceof Long || object instanceof Integer || object instanceof Short || object instanceof Byte) {
+                    type = HiLogFields.TYPE_LONG;
+                    value = ((Number) object).longValue();
+                } else if (object instanceof Double || object instanceof Float) {
+                    type = HiLogFields.TYPE_DOUBLE;
+                    value = Double.doubleToRawLongBits(((Number) object).doubleValue());
+                } else if (object instanceof Boolean) {
+                    type = HiLogFields.TYPE_BOOLEAN;
+                    value = (Boolean) object ? 1 : 0;
+                } else {
+                    type = HiLogFields.TYPE_STRING;
+                    if (object == null || object instanceof CharSequence || config.injectJsonParser() == null) {
+                        string = String.valueOf(object);
+                    } else {
+                        string = config.injectJsonParser().toJson(object);
+                    }
+                }
+            }
+            fieldTypes[i] = type;
+            fieldValues[i] = value;
+            if (string != null) {
+                if (fieldStrings == null) {
+                    fieldStrings = new String[size];
+                }
+                fieldStrings[i] = string;
+            }
+        }
+        return new HiLogFields(size, fieldKeys, fieldTypes, fieldValues, fieldStrings);
+    }
+
+    private HiLogEvent add(String key, int type, long value, Object object) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            String[] newKeys = new String[capacity];
+            byte[] newTypes = new byte[capacity];
+            long[] newValues = new long[capacity];
+            Object[] newObjects = new Object[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            System.arraycopy(objects, 0, newObjects, 0, size);
+            keys = newKeys;
+            types = newTypes;
+            values = newValues;
+            objects = newObjects;
+        }
+        keys[size] = key;
+        types[size] = (byte) type;
+        values[size] = value;
+        objects[size] = object;
+        size++;
+        return this;
+    }
+
+    private void recycle() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            objects[i] = null;
+        }
+        size = 0;
+        tag = null;
+        inUse = false;
+    }
+}
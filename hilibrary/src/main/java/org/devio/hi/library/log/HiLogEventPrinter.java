@@ -0,0 +1,16 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 能直接接收结构化字段的打印器，通过{@link HiLog#event(String)}打印的log会调用{@link #printEvent}，
+ * 打印器可以按字段类型写入，不需要先拼接成字符串；其他log仍然调用{@link #print}
+ */
+public interface HiLogEventPrinter extends HiLogPrinter {
+
+    /**
+     * @param prefix 线程、堆栈等信息，没有时为空字符串，完整的文本为prefix + fields
+     * @param fields 结构化字段
+     */
+    void printEvent(@NonNull HiLogConfig config, int level, String tag, @NonNull String prefix, @NonNull HiLogFields fields);
+}
@@ -0,0 +1,95 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 结构化log的字段，创建后不可变，可以安全地交给异步分发线程和打印器
+ * 每个字段有一个类型，数值按原始类型保存，文本格式为：key1=value1, key2=value2
+ */
+public final class HiLogFields {
+    public static final int TYPE_LONG = 0;
+    public static final int TYPE_DOUBLE = 1;
+    public static final int TYPE_BOOLEAN = 2;
+    public static final int TYPE_STRING = 3;
+
+    private final int size;
+    private final String[] keys;
+    private final byte[] types;
+    /**
+     * long和boolean(0/1)直接保存，double保存为Double.doubleToRawLongBits
+     */
+    private final long[] values;
+    private final String[] strings;
+
+    HiLogFields(int size, String[] keys, byte[] types, long[] values, String[] strings) {
+        this.size = size;
+        this.keys = keys;
+        this.types = types;
+        this.values = values;
+        this.strings = strings;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return {@link #TYPE_LONG}、{@link #TYPE_DOUBLE}、{@link #TYPE_BOOLEAN}或{@link #TYPE_STRING}
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public long getLong(int index) {
+        return values[index];
+    }
+
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    public boolean getBoolean(int index) {
+        return values[index] != 0;
+    }
+
+    public String getString(int index) {
+        return strings[index];
+    }
+
+    /**
+     * 将文本格式直接追加到out中
+     */
+    public StringBuilder appendTo(@NonNull StringBuilder out) {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(keys[i]).append('=');
+            switch (types[i]) {
+                case TYPE_LONG:
+                    out.append(values[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    out.append(getDouble(i));
+                    break;
+                case TYPE_BOOLEAN:
+                    out.append(values[i] != 0);
+                    break;
+                default:
+                    out.append(strings[i]);
+                    break;
+            }
+        }
+        return out;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(16 * size)).toString();
+    }
+}
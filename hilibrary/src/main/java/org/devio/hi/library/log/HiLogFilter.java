@@ -0,0 +1,32 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 打印器的过滤条件，在格式化log之前判断，被过滤掉的log不会产生任何格式化开销
+ * #1.最低打印级别，低于该级别的log不打印
+ * #2.tag白名单，为空表示不限制tag
+ *
+ * 通过{@link HiLogManager#addPrinter(HiLogPrinter, HiLogFilter)}为打印器设置过滤条件
+ */
+public class HiLogFilter {
+    private final int minLevel;
+    private final Set<String> tags;
+
+    /**
+     * @param minLevel 最低打印级别，见{@link HiLogType}
+     * @param tags     只打印这些tag的log，不传表示不限制tag
+     */
+    public HiLogFilter(@HiLogType.TYPE int minLevel, String... tags) {
+        this.minLevel = minLevel;
+        this.tags = tags == null || tags.length == 0 ? null : new HashSet<>(Arrays.asList(tags));
+    }
+
+    public boolean isLoggable(int level, @NonNull String tag) {
+        return level >= minLevel && (tags == null || tags.contains(tag));
+    }
+}
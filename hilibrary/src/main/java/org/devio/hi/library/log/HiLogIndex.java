@@ -0,0 +1,244 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * log文件的索引，与log文件同名加.idx后缀，由{@link HiFilePrinter}的工作线程在每个块写入后追加一条记录，供{@link HiLogQuery}跳过不相关的块
+ * 文件格式：文件头[HIDX][版本]，之后每个块一条记录：
+ * [块偏移][块长度][最早时间][最晚时间-最早时间][级别掩码][tag数量]{[tag]}，数值为varint，字符串为[长度][UTF-8]
+ * tips：
+ * 1、块内不同的tag超过{@link #MAX_TAGS}个时tag数量记为0，表示不按tag过滤该块；
+ * 2、记录在块写入log文件之后才追加，进程被杀时log文件末尾可能有块没有记录，查询时会顺序扫描没有记录覆盖的区域；
+ * 3、log文件被gzip压缩后偏移失效，索引随之删除。
+ */
+final class HiLogIndex {
+    static final String SUFFIX = ".idx";
+    private static final byte[] MAGIC = {'H', 'I', 'D', 'X'};
+    private static final int VERSION = 1;
+    private static final int MAX_TAGS = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FileOutputStream out;
+    private byte[] buffer = new byte[256];
+    private int size;
+    /**
+     * 当前块的统计，写入记录后重置
+     */
+    private int count;
+    private long minTime;
+    private long maxTime;
+    private int levelMask;
+    private final Set<String> tags = new LinkedHashSet<>();
+    private boolean tooManyTags;
+
+    static File indexFile(@NonNull File logFile) {
+        return new File(logFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * 打开log文件对应的索引，之后的记录追加到其末尾
+     */
+    void open(@NonNull File logFile) throws IOException {
+        close();
+        File file = indexFile(logFile);
+        boolean empty = file.length() == 0;
+        out = new FileOutputStream(file, true);
+        if (empty) {
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+        reset();
+    }
+
+    void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * 统计编码到当前块中的log
+     */
+    void onLog(@NonNull HiLogMo log) {
+        if (count == 0 || log.timeMillis < minTime) {
+            minTime = log.timeMillis;
+        }
+        if (count == 0 || log.timeMillis > maxTime) {
+            maxTime = log.timeMillis;
+        }
+        count++;
+        levelMask |= 1 << log.level;
+        if (!tooManyTags && log.tag != null && tags.add(log.tag) && tags.size() > MAX_TAGS) {
+            tooManyTags = true;
+            tags.clear();
+        }
+    }
+
+    /**
+     * 块写入log文件后追加一条记录
+     *
+     * @param offset 块在log文件中的偏移
+     * @param length 块的长度
+     */
+    void onBlockWritten(long offset, long length) {
+        if (out == null || count == 0 || length <= 0) {
+            reset();
+            return;
+        }
+        size = 0;
+        putVarLong(offset);
+        putVarLong(length);
+        putVarLong(minTime);
+        putVarLong(maxTime - minTime);
+        putVarLong(levelMask);
+        putVarLong(tags.size());
+        for (String tag : tags) {
+            byte[] bytes = tag.getBytes(UTF_8);
+            putVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+        try {
+            //一条记录只调用一次write，进程被杀时最多留下一条不完整的记录
+            out.write(buffer, 0, size);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        reset();
+    }
+
+    private void reset() {
+        count = 0;
+        levelMask = 0;
+        tags.clear();
+        tooManyTags = false;
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(10);
+        size = HiBinaryLogEncoder.putVarLong(buffer, size, value);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    /**
+     * 读取log文件的索引，没有索引时返回null，末尾不完整的记录被忽略
+     */
+    static List<Entry> read(@NonNull File logFile) throws IOException {
+        File file = indexFile(logFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        if (data.length < MAGIC.length + 1 || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)
+                || data[MAGIC.length] != VERSION) {
+            return null;
+        }
+        HiBinaryLogDecoder.Block block = new HiBinaryLogDecoder.Block();
+        block.reset(data, data.length);
+        block.position = MAGIC.length + 1;
+        List<Entry> entries = new ArrayList<>();
+        try {
+            while (block.position < block.limit) {
+                long offset = block.readVarLong();
+                long length = block.readVarLong();
+                long minTime = block.readVarLong();
+                long maxTime = minTime + block.readVarLong();
+                int levelMask = (int) block.readVarLong();
+                int tagCount = (int) block.readVarLong();
+                if (tagCount < 0 || tagCount > MAX_TAGS) {
+                    break;
+                }
+                String[] tags = new String[tagCount];
+                for (int i = 0; i < tagCount; i++) {
+                    tags[i] = block.readString();
+                }
+                entries.add(new Entry(offset, length, minTime, maxTime, levelMask, tags));
+            }
+        } catch (EOFException e) {
+            //进程被杀时最后一条记录可能不完整
+        }
+        return entries;
+    }
+
+    /**
+     * 一个块的索引记录
+     */
+    static final class Entry {
+        final long offset;
+        final long length;
+        final long minTime;
+        final long maxTime;
+        final int levelMask;
+        /**
+         * 块中所有的tag，为空表示不确定
+         */
+        final String[] tags;
+
+        Entry(long offset, long length, long minTime, long maxTime, int levelMask, String[] tags) {
+            this.offset = offset;
+            this.length = length;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.levelMask = levelMask;
+            this.tags = tags;
+        }
+
+        /**
+         * 判断块中是否可能有满足条件的log
+         *
+         * @param levelMask 要查询的级别掩码
+         * @param tags      要查询的tag，为null表示不限
+         */
+        boolean mayMatch(long startTime, long endTime, int levelMask, Set<String> tags) {
+            if (maxTime < startTime || minTime >= endTime || (this.levelMask & levelMask) == 0) {
+                return false;
+            }
+            if (tags == null || this.tags.length == 0) {
+                return true;
+            }
+            for (String tag : this.tags) {
+                if (tags.contains(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
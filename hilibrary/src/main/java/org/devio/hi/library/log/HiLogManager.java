@@ -1,8 +1,10 @@
 package com.imooc.hilibrary.log;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import androidx.annotation.NonNull;
 
@@ -11,15 +13,21 @@ import androidx.annotation.NonNull;
  * #1.对日志格式的配置进行管理（设置/获取config）
  * #2.管理日志打印终端的printer（添加/删除printer）
  * #3.日志服务的初始化工作
+ * #4.将log分发给打印器，开启{@link HiLogConfig#asyncDispatch()}时由{@link HiLogDispatcher}在后台线程中分发
+ * tips：打印器列表和过滤条件都是写时复制的，打印过程中添加/删除打印器是安全的，打印时也不需要加锁；
+ * 配置被编译成不可变的快照，通过volatile引用发布，运行中可以通过{@link #setConfig}整体替换，打印时只读取一次快照
  */
 public class HiLogManager {
-    private HiLogConfig config;
-    private static HiLogManager instance;
-    //创建数组，来保存所有打印器
-    private List<HiLogPrinter> printers = new ArrayList<>();
+    private volatile HiLogSnapshot config;
+    private static volatile HiLogManager instance;
+    //创建数组，来保存所有打印器，写时复制，遍历时不会抛出ConcurrentModificationException
+    private List<HiLogPrinter> printers = new CopyOnWriteArrayList<>();
+    //打印器的过滤条件，没有设置过滤条件的打印器接收所有log，修改时整体替换
+    private volatile Map<HiLogPrinter, HiLogFilter> filters = new HashMap<>();
+    private volatile HiLogDispatcher dispatcher;
 
     private HiLogManager(HiLogConfig config, HiLogPrinter[] printers) {
-        this.config = config;
+        this.config = HiLogSnapshot.compile(config);
         //将传进来的printers数组，转为list，并添加到printers这个ArrayList中
         //ArrayList的实现就是基于数组，可以将它想象成可以动态扩容的数组
         //可通过Arrays.asList将数组转为ArrayList
@@ -35,10 +43,24 @@ public class HiLogManager {
         instance = new HiLogManager(config, printers);
     }
 
+    /**
+     * @return 当前配置的快照
+     */
     public HiLogConfig getConfig() {
         return config;
     }
 
+    HiLogSnapshot getSnapshot() {
+        return config;
+    }
+
+    /**
+     * 运行中替换配置，编译成快照后整体发布，正在打印的log仍使用旧的快照
+     */
+    public void setConfig(@NonNull HiLogConfig config) {
+        this.config = HiLogSnapshot.compile(config);
+    }
+
     public List<HiLogPrinter> getPrinters() {
         return printers;
     }
@@ -47,9 +69,113 @@ public class HiLogManager {
         printers.add(printer);
     }
 
+    /**
+     * 添加打印器，并设置该打印器的最低级别和tag过滤条件
+     */
+    public void addPrinter(HiLogPrinter printer, @NonNull HiLogFilter filter) {
+        setFilter(printer, filter);
+        printers.add(printer);
+    }
+
+    /**
+     * 设置打印器的过滤条件，对{@link HiLogConfig#printers()}中的打印器同样有效
+     *
+     * @param filter 为null表示不过滤
+     */
+    public synchronized void setFilter(HiLogPrinter printer, HiLogFilter filter) {
+        Map<HiLogPrinter, HiLogFilter> newFilters = new HashMap<>(filters);
+        if (filter == null) {
+            newFilters.remove(printer);
+        } else {
+            newFilters.put(printer, filter);
+        }
+        filters = newFilters;
+    }
+
+    /**
+     * 判断打印器是否接收该log，在格式化log之前调用
+     */
+    public boolean isLoggable(HiLogPrinter printer, int level, @NonNull String tag) {
+        Map<HiLogPrinter, HiLogFilter> filters = this.filters;
+        if (filters.isEmpty()) {
+            return true;
+        }
+        HiLogFilter filter = filters.get(printer);
+        return filter == null || filter.isLoggable(level, tag);
+    }
+
     public void removePrinters(HiLogPrinter printer) {
         if (printers != null) {
             printers.remove(printer);
         }
+        setFilter(printer, null);
+    }
+
+    /**
+     * 分发格式化好的log，根据{@link HiLogConfig#asyncDispatch()}在当前线程或分发线程中交给打印器
+     */
+    void dispatch(@NonNull HiLogConfig config, int level, @NonNull String tag, @NonNull String log) {
+        dispatch(config, level, tag, log, null);
+    }
+
+    /**
+     * @param fields 结构化log的字段，此时log只包含线程、堆栈等前缀信息
+     */
+    void dispatch(@NonNull HiLogConfig config, int level, @NonNull String tag, @NonNull String log, HiLogFields fields) {
+        if (config.asyncDispatch()) {
+            getDispatcher().dispatch(config, level, tag, log, fields);
+        } else {
+            print(config, level, tag, log, fields);
+        }
+    }
+
+    /**
+     * 等待已异步分发的log交给打印器，如crash时在进程退出前调用
+     *
+     * @param timeoutMillis 最长等待时间，单位毫秒
+     * @return true 表示已全部交给打印器
+     */
+    public boolean flush(long timeoutMillis) {
+        HiLogDispatcher dispatcher = this.dispatcher;
+        return dispatcher == null || dispatcher.flush(timeoutMillis);
+    }
+
+    /**
+     * 将log交给接收它的打印器
+     * 从config中获取打印器，如果config中的打印器不为空，则直接获取，如果等于空，则从manager中获取
+     * 结构化log直接把字段交给{@link HiLogEventPrinter}，只有其他打印器接收时才拼接成文本，且只拼接一次
+     */
+    void print(@NonNull HiLogConfig config, int level, @NonNull String tag, @NonNull String log, HiLogFields fields) {
+        HiLogPrinter[] configPrinters = config.printers();
+        //CopyOnWriteArrayList的迭代器遍历的是迭代开始时的快照
+        Iterable<HiLogPrinter> targets = configPrinters != null ? Arrays.asList(configPrinters) : printers;
+        String text = fields == null ? log : null;
+        for (HiLogPrinter printer : targets) {
+            if (!isLoggable(printer, level, tag)) {
+                continue;
+            }
+            if (fields != null && printer instanceof HiLogEventPrinter) {
+                ((HiLogEventPrinter) printer).printEvent(config, level, tag, log, fields);
+            } else {
+                if (text == null) {
+                    text = fields.appendTo(new StringBuilder(log)).toString();
+                }
+                printer.print(config, level, tag, text);
+            }
+        }
+    }
+
+    private HiLogDispatcher getDispatcher() {
+        HiLogDispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            synchronized (this) {
+                dispatcher = this.dispatcher;
+                if (dispatcher == null) {
+                    dispatcher = new HiLogDispatcher(this);
+                    this.dispatcher = dispatcher;
+                }
+            }
+        }
+        return dispatcher;
     }
 }
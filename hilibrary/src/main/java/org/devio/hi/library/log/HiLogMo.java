@@ -1,14 +1,14 @@
 package org.devio.hi.library.log;
 
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-
 public class HiLogMo {
-    private static SimpleDateFormat sdf = new SimpleDateFormat("yy-MM-dd HH:mm:ss", Locale.CHINA);
     public long timeMillis;
     public int level;
     public String tag;
     public String log;
+    /**
+     * 结构化log的字段，此时log只包含线程、堆栈等前缀信息，普通log为null
+     */
+    public HiLogFields fields;
 
     public HiLogMo(long timeMillis, int level, String tag, String log) {
         this.timeMillis = timeMillis;
@@ -18,14 +18,37 @@ public class HiLogMo {
     }
 
     public String flattenedLog() {
-        return getFlattened() + "\n" + log;
+        StringBuilder sb = new StringBuilder(32 + (log == null ? 4 : log.length()));
+        appendFlattenedLog(sb);
+        return sb.toString();
     }
 
     public String getFlattened() {
-        return format(timeMillis) + '|' + level + '|' + tag + "|:";
+        StringBuilder sb = new StringBuilder(32);
+        appendFlattened(sb, HiTimeFormatter.LOG);
+        return sb.toString();
+    }
+
+    /**
+     * 将{@link #flattenedLog()}的内容直接追加到out中，避免生成中间字符串
+     */
+    public void appendFlattenedLog(StringBuilder out) {
+        appendFlattenedLog(out, HiTimeFormatter.LOG);
+    }
+
+    /**
+     * @param formatter 时间戳格式化器，如解码其他设备的log时使用该设备的时区
+     */
+    public void appendFlattenedLog(StringBuilder out, HiTimeFormatter formatter) {
+        appendFlattened(out, formatter);
+        out.append('\n').append(log);
+        if (fields != null) {
+            fields.appendTo(out);
+        }
     }
 
-    private String format(long timeMillis) {
-        return sdf.format(timeMillis);
+    private void appendFlattened(StringBuilder out, HiTimeFormatter formatter) {
+        formatter.format(timeMillis, out);
+        out.append('|').append(level).append('|').append(tag).append("|:");
     }
 }
@@ -0,0 +1,520 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 查询{@link HiFilePrinter}写入的log文件，如：
+ * HiLogQuery.Cursor cursor = HiLogQuery.from(logPath).level(HiLogType.E).tag("net").between(t1, t2).open();
+ * while (cursor.hasNextPage()) { List<HiLogMo> page = cursor.nextPage(); ... }
+ * cursor.close();
+ * tips：
+ * 1、按文件名中的日期跳过时间范围以外的文件，有索引的文件(见{@link HiFilePrinter.Builder#index(boolean)})按索引跳过不相关的块，
+ * 只通过FileChannel的定位读取读出可能匹配的块，不读整个文件；
+ * 2、结果按页懒加载，每次只解码填满一页所需的块，文本格式通过有界的BufferedReader逐条读取，填满一页就停下，
+ * 已压缩的.gz文件同样保持解压流打开，每次只解码一个块；
+ * 3、没有索引覆盖的区域(开启索引之前写入的文件、进程被杀时末尾未记录的块)和已压缩的.gz文件按顺序扫描；
+ * 4、支持文本和二进制两种格式，文本格式的时间只精确到秒；
+ * 5、查询在调用线程中读文件，不要在主线程中使用。
+ */
+public class HiLogQuery {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * log文件名：日期[_小时][.序号][.hlb][.gz]
+     */
+    private static final Pattern FILE_NAME = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})(?:_(\\d{2}))?(?:\\.(\\d+))?("
+            + Pattern.quote(HiBinaryLogEncoder.FILE_SUFFIX) + ")?(\\.gz)?");
+    /**
+     * 文本格式每条log的首行，见{@link HiLogMo#appendFlattenedLog(StringBuilder)}
+     */
+    private static final Pattern TEXT_HEADER = Pattern.compile("(\\d{2}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2})\\|(\\d+)\\|(.*)\\|:");
+
+    private final File dir;
+    private int levelMask = HiLogSnapshot.levelMask(HiLogType.V);
+    private Set<String> tags;
+    private long startTime = Long.MIN_VALUE;
+    private long endTime = Long.MAX_VALUE;
+    private int pageSize = 100;
+
+    private HiLogQuery(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param logPath {@link HiFilePrinter}的log保存路径
+     */
+    public static HiLogQuery from(@NonNull String logPath) {
+        return new HiLogQuery(new File(logPath));
+    }
+
+    /**
+     * @param minLevel 只查询级别>=minLevel的log
+     */
+    public HiLogQuery level(@HiLogType.TYPE int minLevel) {
+        this.levelMask = HiLogSnapshot.levelMask(minLevel);
+        return this;
+    }
+
+    /**
+     * @param tags 只查询这些tag的log
+     */
+    public HiLogQuery tag(@NonNull String... tags) {
+        this.tags = new HashSet<>(Arrays.asList(tags));
+        return this;
+    }
+
+    /**
+     * @param startTime 开始时间(包含)，单位毫秒
+     * @param endTime   结束时间(不包含)，单位毫秒
+     */
+    public HiLogQuery between(long startTime, long endTime) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        return this;
+    }
+
+    /**
+     * @param pageSize 每页的条数，默认100
+     */
+    public HiLogQuery pageSize(int pageSize) {
+        this.pageSize = Math.max(pageSize, 1);
+        return this;
+    }
+
+    /**
+     * 开始查询，此时只列出可能包含结果的文件，log在获取每页时才读取
+     */
+    public Cursor open() {
+        List<LogFile> files = new ArrayList<>();
+        File[] list = dir.listFiles();
+        if (list != null) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+            for (File file : list) {
+                Matcher matcher = FILE_NAME.matcher(file.getName());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                long dayStart;
+                try {
+                    dayStart = dateFormat.parse(matcher.group(1)).getTime();
+                } catch (ParseException e) {
+                    continue;
+                }
+                //log的时间与写入文件的时间可能略有差别，前后各多留一天
+                if (dayStart + 2 * DAY_MILLIS <= startTime || dayStart - DAY_MILLIS >= endTime) {
+                    continue;
+                }
+                files.add(new LogFile(file, matcher.group(1), matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : -1,
+                        matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 0,
+                        matcher.group(4) != null, matcher.group(5) != null));
+            }
+        }
+        Collections.sort(files, new Comparator<LogFile>() {
+            @Override
+            public int compare(LogFile o1, LogFile o2) {
+                int result = o1.date.compareTo(o2.date);
+                if (result == 0) {
+                    result = o1.hour - o2.hour;
+                }
+                return result != 0 ? result : o1.index - o2.index;
+            }
+        });
+        return new Cursor(files);
+    }
+
+    private boolean matches(int level, String tag, long timeMillis) {
+        return (levelMask & (1 << level)) != 0 && (tags == null || tags.contains(tag))
+                && timeMillis >= startTime && timeMillis < endTime;
+    }
+
+    /**
+     * 查询结果，按页获取，用完后需要close
+     * 非线程安全，只在一个线程中使用
+     */
+    public final class Cursor implements Closeable {
+        private final List<LogFile> files;
+        private int fileIndex;
+        private final ArrayDeque<HiLogMo> results = new ArrayDeque<>();
+        /**
+         * 当前文件中待读取的区域
+         */
+        private final ArrayDeque<Region> regions = new ArrayDeque<>();
+        private LogFile current;
+        private RandomAccessFile randomAccessFile;
+        private FileChannel channel;
+        private SimpleDateFormat textTimeFormat;
+        /**
+         * 正在读取的文本区域，跨页保留读取位置和读了一半的log
+         */
+        private BufferedReader textReader;
+        /**
+         * 正在读取的.hlb.gz文件，跨页保留解压流
+         */
+        private DataInputStream gzipInput;
+        private HiLogMo textLog;
+        private final StringBuilder textBody = new StringBuilder();
+        private final HiBinaryLogDecoder.Block block = new HiBinaryLogDecoder.Block();
+        private final HiBinaryLogDecoder.Callback collector = new HiBinaryLogDecoder.Callback() {
+            @Override
+            public void onLog(@NonNull HiLogMo log) {
+                if (matches(log.level, log.tag, log.timeMillis)) {
+                    //解码器会复用log对象
+                    HiLogMo copy = new HiLogMo(log.timeMillis, log.level, log.tag, log.log);
+                    copy.fields = log.fields;
+                    results.add(copy);
+                }
+            }
+        };
+
+        private Cursor(List<LogFile> files) {
+            this.files = files;
+        }
+
+        public boolean hasNextPage() {
+            fill(1);
+            return !results.isEmpty();
+        }
+
+        /**
+         * @return 下一页的log，按写入的顺序排列，没有更多结果时为空
+         */
+        @NonNull
+        public List<HiLogMo> nextPage() {
+            fill(pageSize);
+            List<HiLogMo> page = new ArrayList<>(Math.min(results.size(), pageSize));
+            while (page.size() < pageSize && !results.isEmpty()) {
+                page.add(results.poll());
+            }
+            return page;
+        }
+
+        @Override
+        public void close() {
+            closeFile();
+            fileIndex = files.size();
+            regions.clear();
+            results.clear();
+        }
+
+        private void fill(int count) {
+            while (results.size() < count) {
+                if (!regions.isEmpty()) {
+                    try {
+                        readRegion(regions.peek());
+                    } catch (IOException e) {
+                        //文件损坏时跳过该文件剩余的部分
+                        e.printStackTrace();
+                        regions.clear();
+                    }
+                } else {
+                    closeFile();
+                    if (fileIndex >= files.size()) {
+                        return;
+                    }
+                    try {
+                        openFile(files.get(fileIndex++));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        regions.clear();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 打开文件，根据索引确定需要读取的区域
+         */
+        private void openFile(LogFile logFile) throws IOException {
+            current = logFile;
+            if (logFile.gzip) {
+                regions.add(new Region(0, Long.MAX_VALUE));
+                return;
+            }
+            randomAccessFile = new RandomAccessFile(logFile.file, "r");
+            channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            long position = logFile.binary ? readBinaryHeaderSize() : 0;
+            List<HiLogIndex.Entry> entries = HiLogIndex.read(logFile.file);
+            //文本格式的时间只精确到秒，块的时间范围按秒放宽，与顺序扫描的结果一致
+            long blockStartTime = logFile.binary || startTime == Long.MIN_VALUE ? startTime : startTime - 999;
+            long blockEndTime = logFile.binary || endTime == Long.MAX_VALUE ? endTime : endTime + 999;
+            if (entries != null) {
+                for (HiLogIndex.Entry entry : entries) {
+                    if (entry.offset < position || entry.offset + entry.length > size) {
+                        continue;
+                    }
+                    if (entry.offset > position) {
+                        //索引没有覆盖的区域
+                        regions.add(new Region(position, entry.offset));
+                    }
+                    if (entry.mayMatch(blockStartTime, blockEndTime, levelMask, tags)) {
+                        regions.add(new Region(entry.offset, entry.offset + entry.length));
+                    }
+                    position = entry.offset + entry.length;
+                }
+            }
+            if (position < size) {
+                regions.add(new Region(position, size));
+            }
+        }
+
+        private void closeFile() {
+            closeTextReader();
+            closeGzipInput();
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                randomAccessFile = null;
+                channel = null;
+            }
+            current = null;
+        }
+
+        /**
+         * 读取区域中的一部分：二进制格式每次只读一个块，文本格式每次只读一条log，读完后移除该区域
+         */
+        private void readRegion(Region region) throws IOException {
+            if (current.gzip && current.binary) {
+                if (gzipInput == null) {
+                    InputStream in = new FileInputStream(current.file);
+                    try {
+                        gzipInput = HiBinaryLogDecoder.readHeader(new GZIPInputStream(in), collector);
+                    } finally {
+                        if (gzipInput == null) {
+                            in.close();
+                        }
+                    }
+                }
+                if (!HiBinaryLogDecoder.decodeNextBlock(gzipInput, block, collector)) {
+                    closeGzipInput();
+                    regions.poll();
+                }
+                return;
+            }
+            if (!current.binary) {
+                if (textReader == null) {
+                    InputStream in = current.gzip ? new GZIPInputStream(new FileInputStream(current.file))
+                            : new RegionInputStream(channel, region.start, region.end);
+                    textReader = new BufferedReader(new InputStreamReader(in, UTF_8), 8 * 1024);
+                }
+                if (!readTextLog()) {
+                    closeTextReader();
+                    regions.poll();
+                }
+                return;
+            }
+            //块的格式：[flags][原始长度][存储长度][数据]，先读出块头
+            byte[] header = read(region.start, (int) Math.min(21, region.end - region.start));
+            block.reset(header, header.length);
+            int flags = block.readByte();
+            int rawSize = (int) block.readVarLong();
+            int storedSize = (int) block.readVarLong();
+            long dataStart = region.start + block.position;
+            if (rawSize < 0 || storedSize < 0 || dataStart + storedSize > region.end) {
+                throw new EOFException("truncated block in " + current.file);
+            }
+            byte[] stored = read(dataStart, storedSize);
+            region.start = dataStart + storedSize;
+            if (region.start >= region.end) {
+                regions.poll();
+            }
+            HiBinaryLogDecoder.decodeBlock(flags, stored, rawSize, block, collector);
+        }
+
+        /**
+         * 二进制文件头的长度：[HLOG][版本][时区]
+         */
+        private long readBinaryHeaderSize() throws IOException {
+            int magicSize = HiBinaryLogEncoder.MAGIC.length + 1;
+            long size = channel.size();
+            if (size < magicSize) {
+                return size;
+            }
+            byte[] header = read(0, (int) Math.min(magicSize + 64, size));
+            block.reset(header, header.length);
+            block.position = magicSize;
+            long zoneLength = block.readVarLong();
+            return block.position + zoneLength;
+        }
+
+        /**
+         * 通过FileChannel的定位读取读出一段数据，不改变channel的position
+         */
+        private byte[] read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("unexpected end of " + current.file);
+                }
+            }
+            return buffer.array();
+        }
+
+        /**
+         * 读取一条文本格式的log：首行为"时间|级别|tag|:"，之后到下一个首行之前为log内容
+         *
+         * @return false 区域已经读完，最后一条log已经处理
+         */
+        private boolean readTextLog() throws IOException {
+            if (textTimeFormat == null) {
+                textTimeFormat = new SimpleDateFormat("yy-MM-dd HH:mm:ss", Locale.US);
+            }
+            String line;
+            while ((line = textReader.readLine()) != null) {
+                Matcher matcher = TEXT_HEADER.matcher(line);
+                if (matcher.matches()) {
+                    //读到下一个首行时，上一条log才完整
+                    HiLogMo previous = textLog;
+                    addText(previous, textBody);
+                    textLog = null;
+                    textBody.setLength(0);
+                    try {
+                        long time = textTimeFormat.parse(matcher.group(1)).getTime();
+                        textLog = new HiLogMo(time, Integer.parseInt(matcher.group(2)), matcher.group(3), null);
+                    } catch (ParseException | NumberFormatException e) {
+                        //不是完整的首行，忽略到下一个首行为止的内容
+                    }
+                    if (previous != null) {
+                        return true;
+                    }
+                } else if (textLog != null) {
+                    if (textBody.length() > 0) {
+                        textBody.append('\n');
+                    }
+                    textBody.append(line);
+                }
+            }
+            addText(textLog, textBody);
+            return false;
+        }
+
+        private void closeTextReader() {
+            textLog = null;
+            textBody.setLength(0);
+            if (textReader != null) {
+                try {
+                    textReader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                textReader = null;
+            }
+        }
+
+        private void closeGzipInput() {
+            if (gzipInput != null) {
+                try {
+                    gzipInput.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                gzipInput = null;
+            }
+        }
+
+        private void addText(HiLogMo log, StringBuilder body) {
+            //文本格式的时间只精确到秒，该秒内任意时刻在查询范围内即认为匹配
+            if (log != null && (levelMask & (1 << log.level)) != 0 && (tags == null || tags.contains(log.tag))
+                    && log.timeMillis + 999 >= startTime && log.timeMillis < endTime) {
+                log.log = body.toString();
+                results.add(log);
+            }
+        }
+    }
+
+    /**
+     * 通过FileChannel的定位读取顺序读出[start, end)，不读区域以外的数据
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 文件中待读取的一段区域
+     */
+    private static final class Region {
+        long start;
+        final long end;
+
+        Region(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class LogFile {
+        final File file;
+        final String date;
+        final int hour;
+        final int index;
+        final boolean binary;
+        final boolean gzip;
+
+        LogFile(File file, String date, int hour, int index, boolean binary, boolean gzip) {
+            this.file = file;
+            this.date = date;
+            this.hour = hour;
+            this.index = index;
+            this.binary = binary;
+            this.gzip = gzip;
+        }
+    }
+}
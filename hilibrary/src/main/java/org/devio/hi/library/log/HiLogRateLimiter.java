@@ -0,0 +1,240 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * log的限流和采样，通过{@link HiLogConfig#rateLimiter()}配置，在格式化log之前判断
+ * tips：
+ * 1、每个tag(或调用位置)一个令牌桶，使用GCRA算法，状态只有一个AtomicLong，判断时只需一次CAS，无锁；
+ * 2、采样：级别<=maxLevel的log按概率保留，随机数由每个线程自己的Random生成，线程之间不竞争；
+ * 3、被限流或采样丢弃的log只计数，由后台线程每隔summaryInterval为每个key打印一条"suppressed N logs"的汇总；
+ * 4、配置完成后再交给HiLogConfig，之后不要再修改配置。
+ */
+public class HiLogRateLimiter {
+    /**
+     * 按tag限流
+     */
+    public static final int BY_TAG = 0;
+    /**
+     * 按调用位置限流，需要获取一帧调用栈，开销比按tag大
+     */
+    public static final int BY_CALL_SITE = 1;
+
+    @IntDef({BY_TAG, BY_CALL_SITE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface KeyMode {
+    }
+
+    /**
+     * 不同key的令牌桶数量上限，超出后共用一个桶，避免动态tag导致内存增长
+     */
+    private static final int MAX_KEYS = 1024;
+    private static final Object OVERFLOW_KEY = new Object();
+    private static final ScheduledExecutorService SUMMARY_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "HiLog-rate-limiter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private int keyMode = BY_TAG;
+    private final Map<String, double[]> tagLimits = new HashMap<>();
+    private int sampleMaxLevel = -1;
+    private double sampleProbability = 1;
+    private long summaryIntervalMs = 10_000;
+    private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean summaryScheduled = new AtomicBoolean();
+
+    /**
+     * @param permitsPerSecond 每个key每秒允许的log条数，<=0表示不限流
+     * @param burst            允许的突发条数，至少为1
+     */
+    public HiLogRateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(burst, 1);
+    }
+
+    /**
+     * @param keyMode 按tag还是按调用位置限流，默认按tag
+     */
+    public HiLogRateLimiter keyBy(@KeyMode int keyMode) {
+        this.keyMode = keyMode;
+        return this;
+    }
+
+    /**
+     * 为某个tag单独设置限流速率，按调用位置限流时同样按该tag的速率
+     */
+    public HiLogRateLimiter limitTag(@NonNull String tag, double permitsPerSecond, int burst) {
+        tagLimits.put(tag, new double[]{permitsPerSecond, Math.max(burst, 1)});
+        return this;
+    }
+
+    /**
+     * 对级别<=maxLevel的log按概率采样
+     *
+     * @param probability 保留的概率，0~1
+     */
+    public HiLogRateLimiter sample(@HiLogType.TYPE int maxLevel, double probability) {
+        this.sampleMaxLevel = maxLevel;
+        this.sampleProbability = probability;
+        return this;
+    }
+
+    /**
+     * @param summaryIntervalMs 打印汇总的间隔，单位毫秒，默认10秒
+     */
+    public HiLogRateLimiter summaryInterval(long summaryIntervalMs) {
+        this.summaryIntervalMs = Math.max(summaryIntervalMs, 100);
+        return this;
+    }
+
+    boolean needCallSite() {
+        return keyMode == BY_CALL_SITE;
+    }
+
+    /**
+     * 判断该条log是否可以打印，不能打印时计入汇总
+     *
+     * @param callSite 按调用位置限流时为调用方的栈帧，否则为null
+     */
+    boolean tryAcquire(@NonNull HiLogConfig config, int level, @NonNull String tag, StackTraceElement callSite) {
+        boolean sampled = level <= sampleMaxLevel && sampleProbability < 1
+                && RANDOM.get().nextDouble() >= sampleProbability;
+        double[] tagLimit = tagLimits.isEmpty() ? null : tagLimits.get(tag);
+        double rate = tagLimit != null ? tagLimit[0] : permitsPerSecond;
+        if (!sampled && rate <= 0) {
+            return true;
+        }
+        Bucket bucket = getBucket(callSite != null ? callSite : tag, tag, rate, tagLimit != null ? (int) tagLimit[1] : burst);
+        if (!sampled && bucket.tryAcquire(System.nanoTime())) {
+            return true;
+        }
+        bucket.suppress(config, level);
+        if (summaryScheduled.compareAndSet(false, true)) {
+            SUMMARY_EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    printSummary();
+                }
+            }, summaryIntervalMs, summaryIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    private Bucket getBucket(Object key, String tag, double rate, int burst) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_KEYS) {
+                key = OVERFLOW_KEY;
+                tag = "HiLog";
+                bucket = buckets.get(key);
+                if (bucket != null) {
+                    return bucket;
+                }
+            }
+            Bucket newBucket = new Bucket(tag, rate, burst);
+            bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * 为有log被丢弃的key打印汇总，汇总本身不经过限流
+     */
+    private void printSummary() {
+        HiLogManager manager = HiLogManager.getInstance();
+        if (manager == null) {
+            return;
+        }
+        for (Map.Entry<Object, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            long suppressed = bucket.suppressed.getAndSet(0);
+            if (suppressed <= 0) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(64).append("suppressed ").append(suppressed)
+                    .append(" logs in the last ").append(summaryIntervalMs / 1000.0).append('s');
+            if (entry.getKey() instanceof StackTraceElement) {
+                sb.append(" at ").append(entry.getKey());
+            }
+            try {
+                manager.dispatch(bucket.config, bucket.level, bucket.tag, sb.toString());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 单个key的令牌桶，GCRA：tat为理论上下一条log的到达时间，tat - now不超过容忍度时放行并将tat后移一个间隔
+     */
+    private static class Bucket {
+        final String tag;
+        final long intervalNanos;
+        final long toleranceNanos;
+        final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLong suppressed = new AtomicLong();
+        /**
+         * 汇总使用的config和级别，取最近一条被丢弃的log
+         */
+        volatile HiLogConfig config;
+        volatile int level;
+
+        Bucket(String tag, double permitsPerSecond, int burst) {
+            this.tag = tag;
+            this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+            this.toleranceNanos = intervalNanos * (burst - 1);
+        }
+
+        boolean tryAcquire(long now) {
+            if (intervalNanos <= 0) {
+                return true;
+            }
+            while (true) {
+                long current = tat.get();
+                long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+                if (start - now > toleranceNanos) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, start + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        void suppress(HiLogConfig config, int level) {
+            this.config = config;
+            this.level = level;
+            suppressed.incrementAndGet();
+        }
+    }
+}
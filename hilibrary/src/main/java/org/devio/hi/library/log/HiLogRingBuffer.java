@@ -0,0 +1,309 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 预分配、有界、无锁的多生产者单消费者(MPSC)log环形队列，用于替代{@link HiFilePrinter}中的LinkedBlockingQueue
+ * tips：
+ * 1、slot在创建时一次性分配好，生产者直接填充slot的字段，不再为每条log创建HiLogMo和队列节点；
+ * 2、每个slot带一个序号，生产者CAS领取tail、消费者CAS领取head，序号用来判断slot是否可写/可读(Vyukov bounded queue)；
+ * 3、队列满时的处理方式由{@link OverflowPolicy}决定；
+ * 4、消费者等待数据时先自旋、再yield、最后park，生产者只在消费者park时才unpark；
+ * 5、{@link #DROP_OLDEST}在丢弃最早的log也失败时(该slot正在被写入或处理)先yield再重试，不会空转。
+ */
+public class HiLogRingBuffer {
+
+    /**
+     * 队列满时阻塞生产者，直到有空位
+     */
+    public static final int BLOCK = 0;
+    /**
+     * 队列满时丢弃最早的一条log
+     */
+    public static final int DROP_OLDEST = 1;
+    /**
+     * 队列满时丢弃低于{@link #setKeepLevel(int)}级别的log，不低于该级别的log阻塞等待
+     */
+    public static final int DROP_LOWEST_LEVEL = 2;
+    /**
+     * 队列使用量超过3/4后，每{@link #setSampleRate(int)}条只保留一条，队列满时丢弃
+     */
+    public static final int SAMPLE = 3;
+
+    @IntDef({BLOCK, DROP_OLDEST, DROP_LOWEST_LEVEL, SAMPLE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface OverflowPolicy {
+    }
+
+    /**
+     * 消费者处理slot的回调，回调返回后slot会被复用，不能持有slot的引用
+     */
+    public interface Handler {
+        void onLog(@NonNull HiLogMo slot);
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 10;
+    private static final long PRODUCER_PARK_NANOS = 50_000L;
+
+    private final HiLogMo[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final int overflowPolicy;
+    private volatile int keepLevel = HiLogType.W;
+    private volatile int sampleRate = 10;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    /**
+     * @param capacity       队列容量，会向上取整到2的幂
+     * @param overflowPolicy 队列满时的处理方式
+     */
+    public HiLogRingBuffer(int capacity, @OverflowPolicy int overflowPolicy) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new HiLogMo[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new HiLogMo(0, 0, null, null);
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * {@link #DROP_LOWEST_LEVEL}策略下，低于该级别的log在队列满时被丢弃，默认为{@link HiLogType#W}
+     */
+    public void setKeepLevel(@HiLogType.TYPE int keepLevel) {
+        this.keepLevel = keepLevel;
+    }
+
+    /**
+     * {@link #SAMPLE}策略下的采样间隔，默认为10
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(sampleRate, 1);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    /**
+     * 因队列满或采样而被丢弃的log条数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 写入时遇到队列已满的次数
+     */
+    public long getOverflowCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * 生产者写入一条log，可被多个线程同时调用
+     *
+     * @return false 表示该条log被丢弃
+     */
+    public boolean put(long timeMillis, int level, String tag, String log) {
+        return put(timeMillis, level, tag, log, null);
+    }
+
+    /**
+     * 生产者写入一条结构化log，可被多个线程同时调用
+     *
+     * @param fields 结构化log的字段，见{@link HiLogMo#fields}
+     * @return false 表示该条log被丢弃
+     */
+    public boolean put(long timeMillis, int level, String tag, String log, HiLogFields fields) {
+        if (overflowPolicy == SAMPLE && size() >= slots.length - (slots.length >> 2)
+                && sampleCounter.incrementAndGet() % sampleRate != 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        boolean overflow = false;
+        while (!offer(timeMillis, level, tag, log, fields)) {
+            if (!overflow) {
+                overflow = true;
+                overflowed.incrementAndGet();
+            }
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    if (poll(null)) {
+                        dropped.incrementAndGet();
+                    } else {
+                        //最早的slot正在被其它生产者写入或被消费者处理，让出cpu等它完成，避免空转
+                        Thread.yield();
+                    }
+                    break;
+                case DROP_LOWEST_LEVEL:
+                    if (level < keepLevel) {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    waitForSpace();
+                    break;
+                case SAMPLE:
+                    dropped.incrementAndGet();
+                    return false;
+                case BLOCK:
+                default:
+                    waitForSpace();
+                    break;
+            }
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * 消费者取出最多max条log，按写入顺序交给handler处理
+     *
+     * @return 实际处理的条数
+     */
+    public int drain(@NonNull Handler handler, int max) {
+        int count = 0;
+        while (count < max && poll(handler)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 消费者等待数据，先自旋，再yield，最后park
+     *
+     * @param timeoutNanos 最长等待时间，<0表示一直等待
+     * @return true 表示有数据可读
+     */
+    public boolean await(long timeoutNanos) {
+        for (int i = 0; i < SPIN_TRIES + YIELD_TRIES; i++) {
+            if (!isEmpty()) {
+                return true;
+            }
+            if (i >= SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        consumer = Thread.currentThread();
+        consumerParked = true;
+        try {
+            while (isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                if (timeoutNanos < 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            return true;
+        } finally {
+            consumerParked = false;
+        }
+    }
+
+    public boolean isEmpty() {
+        long pos = head.get();
+        return sequences.get((int) pos & mask) != pos + 1;
+    }
+
+    private boolean offer(long timeMillis, int level, String tag, String log, HiLogFields fields) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                //slot还没被消费者释放，队列已满
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        HiLogMo slot = slots[index];
+        slot.timeMillis = timeMillis;
+        slot.level = level;
+        slot.tag = tag;
+        slot.log = log;
+        slot.fields = fields;
+        //发布slot，对消费者可见
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * @param handler 为null时直接丢弃该条log
+     */
+    private boolean poll(Handler handler) {
+        long pos = head.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                //队列为空
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+        HiLogMo slot = slots[index];
+        try {
+            if (handler != null) {
+                handler.onLog(slot);
+            }
+        } finally {
+            slot.tag = null;
+            slot.log = null;
+            slot.fields = null;
+            //释放slot，供生产者复用
+            sequences.set(index, pos + mask + 1);
+        }
+        return true;
+    }
+
+    private void waitForSpace() {
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+    }
+}
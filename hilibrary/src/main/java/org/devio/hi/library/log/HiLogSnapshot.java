@@ -0,0 +1,145 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link HiLogConfig}编译后的不可变快照，由{@link HiLogManager}通过volatile引用发布
+ * tips：
+ * 1、创建时调用一次配置的各个方法并保存到final字段中，打印时只读取一次快照的引用，之后都是普通字段读取，
+ * 快照是final类，调用它的方法不是虚调用；
+ * 2、开关和最低级别被编译成级别掩码，tag级别被编译成字典树，判断是否打印只需一次位运算(有tag级别时再查一次字典树)；
+ * 3、快照本身也是HiLogConfig，可以直接交给打印器。
+ */
+final class HiLogSnapshot extends HiLogConfig {
+    /**
+     * 最近一次为非快照配置编译的快照，{@link HiLog#log(HiLogConfig, int, String, Object...)}重复使用同一个配置时不再编译
+     */
+    private static volatile HiLogSnapshot lastCompiled;
+
+    private final HiLogConfig source;
+    private final boolean enable;
+    private final boolean includeThread;
+    private final boolean asyncDispatch;
+    private final HiLogRateLimiter rateLimiter;
+    private final int stackTraceDepth;
+    private final String globalTag;
+    private final HiLogPrinter[] printers;
+    private final JsonParser jsonParser;
+    private final int minLevel;
+    private final Map<String, Integer> tagLevels;
+    private final int levelMask;
+    private final HiLogTagTrie tagTrie;
+
+    private HiLogSnapshot(@NonNull HiLogConfig source) {
+        this.source = source;
+        this.enable = source.enable();
+        this.includeThread = source.includeThread();
+        this.asyncDispatch = source.asyncDispatch();
+        this.rateLimiter = source.rateLimiter();
+        this.stackTraceDepth = source.stackTraceDepth();
+        this.globalTag = source.getGlobalTag();
+        HiLogPrinter[] printers = source.printers();
+        this.printers = printers != null ? printers.clone() : null;
+        this.jsonParser = source.injectJsonParser();
+        this.minLevel = source.minLevel();
+        Map<String, Integer> tagLevels = source.tagLevels();
+        this.tagLevels = tagLevels == null || tagLevels.isEmpty() ? null
+                : Collections.unmodifiableMap(new HashMap<>(tagLevels));
+        this.levelMask = enable ? levelMask(minLevel) : 0;
+        this.tagTrie = enable && this.tagLevels != null ? new HiLogTagTrie(this.tagLevels) : null;
+    }
+
+    /**
+     * 编译配置，已经是快照时直接返回，否则总是重新调用配置的各个方法
+     */
+    static HiLogSnapshot compile(@NonNull HiLogConfig config) {
+        if (config instanceof HiLogSnapshot) {
+            return (HiLogSnapshot) config;
+        }
+        return new HiLogSnapshot(config);
+    }
+
+    /**
+     * 与{@link #compile}相同，但同一个配置连续使用时复用上次编译的快照
+     */
+    static HiLogSnapshot of(@NonNull HiLogConfig config) {
+        if (config instanceof HiLogSnapshot) {
+            return (HiLogSnapshot) config;
+        }
+        HiLogSnapshot snapshot = lastCompiled;
+        if (snapshot == null || snapshot.source != config) {
+            snapshot = new HiLogSnapshot(config);
+            lastCompiled = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return 级别>=minLevel的位都为1的掩码
+     */
+    static int levelMask(int minLevel) {
+        return minLevel <= 0 ? 0xFF : 0xFF & ~((1 << minLevel) - 1);
+    }
+
+    /**
+     * 根据开关、最低级别和tag级别判断是否打印
+     */
+    boolean isLoggable(int level, @NonNull String tag) {
+        int mask = tagTrie == null ? levelMask : tagTrie.mask(tag, levelMask);
+        return (mask & (1 << level)) != 0;
+    }
+
+    @Override
+    public boolean enable() {
+        return enable;
+    }
+
+    @Override
+    public boolean includeThread() {
+        return includeThread;
+    }
+
+    @Override
+    public boolean asyncDispatch() {
+        return asyncDispatch;
+    }
+
+    @Override
+    public HiLogRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public int minLevel() {
+        return minLevel;
+    }
+
+    @Override
+    public Map<String, Integer> tagLevels() {
+        return tagLevels;
+    }
+
+    @Override
+    public int stackTraceDepth() {
+        return stackTraceDepth;
+    }
+
+    @Override
+    public String getGlobalTag() {
+        return globalTag;
+    }
+
+    @Override
+    public HiLogPrinter[] printers() {
+        return printers;
+    }
+
+    @Override
+    public JsonParser injectJsonParser() {
+        return jsonParser;
+    }
+}
@@ -0,0 +1,9 @@
+package org.devio.hi.library.log;
+
+/**
+ * 延迟求值的log字段值，只有在有打印器接收该条log时才会调用{@link #get()}
+ * minSdkVersion低于24，无法使用java.util.function.Supplier，所以单独定义
+ */
+public interface HiLogSupplier<T> {
+    T get();
+}
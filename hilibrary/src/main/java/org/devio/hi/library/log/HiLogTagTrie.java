@@ -0,0 +1,85 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 按tag前缀查找级别掩码的字典树，构建后不可变，可以被多个线程同时查找
+ * 查找时沿tag逐个字符向下走，取最后一个(即最长的)设置了掩码的前缀，不创建任何对象
+ */
+final class HiLogTagTrie {
+    private static final int NO_MASK = -1;
+
+    private final Node root = new Node();
+
+    /**
+     * @param tagLevels tag前缀到最低级别的映射
+     */
+    HiLogTagTrie(@NonNull Map<String, Integer> tagLevels) {
+        for (Map.Entry<String, Integer> entry : tagLevels.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            Node node = root;
+            String prefix = entry.getKey();
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.getOrAddChild(prefix.charAt(i));
+            }
+            node.mask = HiLogSnapshot.levelMask(entry.getValue());
+        }
+    }
+
+    /**
+     * @param defaultMask 没有前缀匹配时返回的掩码
+     */
+    int mask(@NonNull String tag, int defaultMask) {
+        Node node = root;
+        int mask = node.mask != NO_MASK ? node.mask : defaultMask;
+        for (int i = 0, length = tag.length(); i < length; i++) {
+            node = node.child(tag.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.mask != NO_MASK) {
+                mask = node.mask;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 子节点按字符排序保存在两个数组中，查找时二分
+     */
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        int mask = NO_MASK;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            Node node = new Node();
+            newKeys[index] = c;
+            newChildren[index] = node;
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+    }
+}
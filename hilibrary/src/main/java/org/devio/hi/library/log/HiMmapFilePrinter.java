@@ -0,0 +1,295 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于mmap的文件打印器
+ * 与{@link HiFilePrinter}不同，log不会先停留在内存队列和BufferedWriter中，而是直接写入一块固定大小的MappedByteBuffer，
+ * put返回时数据已经在page cache中，即使进程随后被kill，这部分log也不会丢失。
+ * tips：
+ * 1、ring文件布局：[magic][段大小|当前段][段0长度][段1长度][段0][段1]，每条记录写完后才更新段长度，被kill时写了一半的记录不会被恢复；
+ * 段大小总是偶数，最低位保存当前段，恢复时按文件中的段大小读取，ringSize改变后也能读出上一个进程的log；
+ * 2、当前段写满后切换到另一个段继续写，写满的段由后台线程追加到{@link HiFilePrinter#genFileName()}对应的日期文件中，
+ * 转存成功后才清空该段的长度，所以转存过程中被kill也不会丢log；
+ * 3、转存失败(如磁盘已满)时保留该段的数据，下次切换到该段时重试，仍然失败则丢弃新的log，不覆盖还没转存的段；
+ * 4、启动时如果发现上一个进程遗留的未转存数据(如crash)，先将其转存到日期文件中，转存失败的段保留在hilog.mmap.pending中，下次启动时重试；
+ * 5、写满后等待另一个段转存时被中断，这条log被丢弃，不会越过段的边界写入。
+ */
+public class HiMmapFilePrinter implements HiLogPrinter {
+    private static final String RING_FILE_NAME = "hilog.mmap";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final int MAGIC = 0x48694c32;
+    private static final int SEGMENT_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int DEFAULT_RING_SIZE = 256 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private final String logPath;
+    private final int segmentSize;
+    private MappedByteBuffer buffer;
+    private int active;
+    private final int[] lengths = new int[2];
+    /**
+     * 段是否正在转存
+     */
+    private final boolean[] compacting = new boolean[2];
+    private static HiMmapFilePrinter instance;
+
+    /**
+     * 创建HiMmapFilePrinter，ring大小为256KB
+     *
+     * @param logPath log保存路径，如果是外部路径需要确保已经有外部存储的读写权限
+     */
+    public static synchronized HiMmapFilePrinter getInstance(String logPath) {
+        return getInstance(logPath, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * 创建HiMmapFilePrinter
+     *
+     * @param logPath  log保存路径，如果是外部路径需要确保已经有外部存储的读写权限
+     * @param ringSize mmap ring文件的大小，单位字节，会被平分成两个段
+     */
+    public static synchronized HiMmapFilePrinter getInstance(String logPath, int ringSize) {
+        if (instance == null) {
+            instance = new HiMmapFilePrinter(logPath, ringSize);
+        }
+        return instance;
+    }
+
+    private HiMmapFilePrinter(String logPath, int ringSize) {
+        this.logPath = logPath;
+        //最低位用来保存当前段，段大小取偶数
+        this.segmentSize = Math.max((ringSize - HEADER_SIZE) / 2, 1024) & ~1;
+        File pendingFile = new File(logPath, RING_FILE_NAME + PENDING_SUFFIX);
+        if (recover(pendingFile)) {
+            pendingFile.delete();
+        }
+        File ringFile = new File(logPath, RING_FILE_NAME);
+        if (!recover(ringFile) && !pendingFile.exists()) {
+            //没转存完的段留到下次启动，ring文件重新创建
+            ringFile.renameTo(pendingFile);
+        }
+        this.buffer = map(ringFile, HEADER_SIZE + segmentSize * 2);
+        if (buffer != null) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(SEGMENT_OFFSET, segmentSize);
+            buffer.putInt(lengthOffset(0), 0);
+            buffer.putInt(lengthOffset(1), 0);
+        }
+    }
+
+    @Override
+    public void print(@NonNull HiLogConfig config, int level, String tag, @NonNull String printString) {
+        if (buffer == null) {
+            return;
+        }
+        HiLogMo logMo = new HiLogMo(System.currentTimeMillis(), level, tag, printString);
+        byte[] record = (logMo.flattenedLog() + "\n").getBytes(UTF_8);
+        //单条记录超过段容量时截断
+        int len = Math.min(record.length, segmentSize);
+        synchronized (this) {
+            if (lengths[active] + len > segmentSize && !switchSegment()) {
+                //等待时被中断，丢弃这条log
+                return;
+            }
+            int offset = segmentOffset(active) + lengths[active];
+            buffer.position(offset);
+            buffer.put(record, 0, len);
+            lengths[active] += len;
+            //记录写完后再更新段长度
+            buffer.putInt(lengthOffset(active), lengths[active]);
+        }
+    }
+
+    /**
+     * 切换到另一个段，并转存写满的段。如果另一个段还没转存完，则等待转存完成，上次转存失败时重试一次
+     *
+     * @return false 等待时被中断或者另一个段转存失败，没有切换
+     */
+    private boolean switchSegment() {
+        int full = active;
+        int next = 1 - active;
+        boolean retried = false;
+        while (lengths[next] > 0) {
+            if (!compacting[next]) {
+                if (retried) {
+                    return false;
+                }
+                retried = true;
+                compact(next);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                //恢复中断状态，交给调用方处理
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        active = next;
+        buffer.putInt(SEGMENT_OFFSET, segmentSize | active);
+        compact(full);
+        return true;
+    }
+
+    /**
+     * 由后台线程将段数据追加到日期文件，成功后清空该段，失败时保留
+     */
+    private void compact(final int segment) {
+        final int len = lengths[segment];
+        if (len <= 0) {
+            return;
+        }
+        compacting[segment] = true;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                //duplicate出独立的position，与写入线程互不影响
+                ByteBuffer view = buffer.duplicate();
+                view.position(segmentOffset(segment));
+                byte[] data = new byte[len];
+                view.get(data);
+                boolean success = appendToLogFile(data);
+                synchronized (HiMmapFilePrinter.this) {
+                    compacting[segment] = false;
+                    if (success) {
+                        lengths[segment] = 0;
+                        buffer.putInt(lengthOffset(segment), 0);
+                    }
+                    HiMmapFilePrinter.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * 同步转存上一个进程遗留在ring中的log，先转存非当前段(更早写入)，再转存当前段
+     * 按header中保存的段大小读取，不依赖这次的ringSize。转存成功的段清空长度，失败的段保留
+     *
+     * @return false 有段没有转存成功
+     */
+    private boolean recover(File ringFile) {
+        if (!ringFile.exists()) {
+            return true;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(ringFile, "rw");
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                return true;
+            }
+            int info = raf.readInt();
+            int oldSegmentSize = info & ~1;
+            int last = info & 1;
+            int[] oldLengths = {raf.readInt(), raf.readInt()};
+            if (oldSegmentSize <= 0 || raf.length() < HEADER_SIZE + 2L * oldSegmentSize) {
+                return true;
+            }
+            boolean success = true;
+            int[] order = {1 - last, last};
+            for (int segment : order) {
+                int len = oldLengths[segment];
+                if (len > 0 && len <= oldSegmentSize) {
+                    byte[] data = new byte[len];
+                    raf.seek(HEADER_SIZE + (long) segment * oldSegmentSize);
+                    raf.readFully(data);
+                    if (appendToLogFile(data)) {
+                        raf.seek(lengthOffset(segment));
+                        raf.writeInt(0);
+                    } else {
+                        success = false;
+                    }
+                }
+            }
+            return success;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private int segmentOffset(int segment) {
+        return HEADER_SIZE + segment * segmentSize;
+    }
+
+    private static int lengthOffset(int segment) {
+        return LENGTH_OFFSET + segment * 4;
+    }
+
+    /**
+     * 打开并映射ring文件
+     */
+    private MappedByteBuffer map(File ringFile, int size) {
+        File parent = ringFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(ringFile, "rw");
+            //ringSize变小时去掉上一个进程多出来的部分
+            raf.setLength(size);
+            //映射建立后即使关闭文件，MappedByteBuffer依然有效
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 将段数据追加到日期文件
+     *
+     * @return false 写入失败，如磁盘已满或目录不可写
+     */
+    private boolean appendToLogFile(byte[] data) {
+        File logFile = new File(logPath, HiFilePrinter.genFileName());
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(logFile, true);
+            fos.write(data);
+            fos.flush();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.imooc.hilibrary.log;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 堆栈信息格式化器
  *
@@ -9,9 +11,14 @@ package com.imooc.hilibrary.log;
  * #1.Thread.currentThread().getStackTrace()
  * #2.new Throwable().getStackTrace()
  * StackTraceElement数组包含了StackTrace的内容，通过遍历它并使用toString()方式进行打印，可以得到方法之间的调用过程
+ *
+ * 同一个调用点每次打印log时的StackTraceElement都相同，所以按StackTraceElement缓存其toString()的结果，避免重复拼接
  */
 public class HiStackTraceFormatter implements HiLogFormatter<StackTraceElement[]> {
 
+    private static final int MAX_CACHE_SIZE = 512;
+    private final ConcurrentHashMap<StackTraceElement, String> cache = new ConcurrentHashMap<>();
+
     @Override
     public String format(StackTraceElement[] stackTrace) {
         /*
@@ -34,7 +41,7 @@ public class HiStackTraceFormatter implements HiLogFormatter<StackTraceElement[]
             10，那么加入"\t"后会将字符串长度补到16，也就是补6个空格；如果字符串长度是6，那么则是将字符串长度补到8，也
             就是补两个空格。
              */
-            return "\t─ " + stackTrace[0].toString();
+            return "\t─ " + toText(stackTrace[0]);
         } else {
             /*
             对StackTraceElement[]数组的打印进行处理：
@@ -47,14 +54,27 @@ public class HiStackTraceFormatter implements HiLogFormatter<StackTraceElement[]
                     sb.append("stackTrace:  \n");
                 } else if (i != stackTrace.length - 1) {
                     sb.append("\t├ ");
-                    sb.append(stackTrace[i].toString());
+                    sb.append(toText(stackTrace[i]));
                     sb.append("\n");
                 } else {
                     sb.append("\t└ ");
-                    sb.append(stackTrace[i].toString());
+                    sb.append(toText(stackTrace[i]));
                 }
             }
         }
         return sb.toString();
     }
+
+    private String toText(StackTraceElement element) {
+        String text = cache.get(element);
+        if (text == null) {
+            text = element.toString();
+            //调用点过多时直接清空，避免缓存无限增长
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(element, text);
+        }
+        return text;
+    }
 }
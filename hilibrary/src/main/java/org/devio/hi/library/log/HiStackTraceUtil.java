@@ -1,20 +1,46 @@
 package com.imooc.hilibrary.log;
 
+/**
+ * 堆栈信息工具类
+ * 打印log时只需要调用方附近的几帧，{@link #getCallerStackTrace(String, int)}跳过HiLog自身的帧后只拷贝需要的帧数
+ * tips：Android(minSdk 16)没有惰性遍历调用栈的API，new Throwable().getStackTrace()仍然会生成完整的StackTraceElement[]，
+ * 这里只省掉了多余的数组拷贝，设备上获取调用栈本身的开销没有变化
+ */
 public class HiStackTraceUtil {
 
+    /**
+     * 获取调用方的堆栈信息：跳过栈顶属于ignorePackage的帧，取之后最多maxDepth帧
+     */
+    public static StackTraceElement[] getCallerStackTrace(String ignorePackage, int maxDepth) {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        int start = 0;
+        //跳过HiStackTraceUtil自身以及HiLog系统的帧
+        while (start < stackTrace.length && !isIgnored(stackTrace[start].getClassName(), ignorePackage)) {
+            start++;
+        }
+        while (start < stackTrace.length && isIgnored(stackTrace[start].getClassName(), ignorePackage)) {
+            start++;
+        }
+        return copy(stackTrace, start, maxDepth);
+    }
+
     /**
      * 向外提供一个public方法，获取裁剪行数，并忽略掉无效包名后的真实有效信息
      */
     public static StackTraceElement[] getCroppedRealStackTrace(StackTraceElement[] stackTrace, String ignorePackage, int maxDepth) {
-        return cropStackTrace(getValidStackTrace(stackTrace, ignorePackage), maxDepth);
+        return copy(stackTrace, getIgnoreDepth(stackTrace, ignorePackage), maxDepth);
+    }
+
+    private static boolean isIgnored(String className, String ignorePackage) {
+        return ignorePackage != null && className.startsWith(ignorePackage);
     }
 
     /**
-     * 根据传入的堆栈信息最大打印长度maxDepth，对堆栈信息进行裁剪
+     * 从start开始，根据传入的堆栈信息最大打印长度maxDepth，对堆栈信息进行裁剪，只拷贝一次
      */
-    private static StackTraceElement[] cropStackTrace(StackTraceElement[] callStack, int maxDepth) {
+    private static StackTraceElement[] copy(StackTraceElement[] stackTrace, int start, int maxDepth) {
         //获取堆栈信息的实际长度
-        int realDepth = callStack.length;
+        int realDepth = stackTrace.length - start;
         if (maxDepth > 0) {
             //从堆栈信息的实际长度realDepth和定义的最大长度maxDepth中取出最小值
             realDepth = Math.min(maxDepth, realDepth);
@@ -27,33 +53,22 @@ public class HiStackTraceUtil {
                                         Object dest, int destPos,
                                         int length);
 
-        从原数组callStack的第srcPos个元素开始复制，拷贝到目标数组realStack中(从第destPos个元素开始粘贴)，
+        从原数组stackTrace的第start个元素开始复制，拷贝到目标数组realStack中(从第destPos个元素开始粘贴)，
         一共拷贝realDepth个元素
          */
-        System.arraycopy(callStack, 0, realStack, 0, realDepth);
+        System.arraycopy(stackTrace, start, realStack, 0, realDepth);
         return realStack;
     }
 
     /**
-     * 获取除忽略package以外的有效堆栈信息，传入堆栈信息中要忽略的包名
+     * 获取要忽略的package在堆栈中的最深位置，传入堆栈信息中要忽略的包名
      */
-    private static StackTraceElement[] getValidStackTrace(StackTraceElement[] stackTrace, String ignorePackage) {
-        int ignoreDepth = 0;
-        int allDepth = stackTrace.length;
-        String className;
-        for (int i = allDepth - 1; i >= 0; i--) {
-            className = stackTrace[i].getClassName();
-            if (ignorePackage != null && className.startsWith(ignorePackage)) {
-                ignoreDepth = i + 1;
-                break;
+    private static int getIgnoreDepth(StackTraceElement[] stackTrace, String ignorePackage) {
+        for (int i = stackTrace.length - 1; i >= 0; i--) {
+            if (isIgnored(stackTrace[i].getClassName(), ignorePackage)) {
+                return i + 1;
             }
         }
-        int realDepth = allDepth - ignoreDepth;
-        StackTraceElement[] realStack = new StackTraceElement[realDepth];
-        System.arraycopy(stackTrace, ignoreDepth, realStack, 0, realDepth);
-        return realStack;
+        return 0;
     }
-
-
-
 }
@@ -0,0 +1,69 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 文本格式的编码器，每条log的格式与{@link HiLogMo#flattenedLog()}一致，是{@link HiFilePrinter}默认的编码器
+ * 一个块内的log先追加到同一个StringBuilder中，写入时再复用同一个ByteBuffer转成UTF-8
+ */
+public class HiTextLogEncoder implements HiLogEncoder {
+    private final StringBuilder buffer = new StringBuilder(4096);
+    private final CharsetEncoder charsetEncoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(8192);
+
+    @NonNull
+    @Override
+    public String fileSuffix() {
+        return "";
+    }
+
+    @Override
+    public void writeHeader(@NonNull OutputStream out) {
+    }
+
+    @Override
+    public void encode(@NonNull HiLogMo log) {
+        log.appendFlattenedLog(buffer);
+        buffer.append('\n');
+    }
+
+    @Override
+    public int pendingSize() {
+        return buffer.length();
+    }
+
+    @Override
+    public void writeBlock(@NonNull OutputStream out) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        charsetEncoder.reset();
+        CoderResult result;
+        do {
+            result = charsetEncoder.encode(chars, bytes, true);
+            if (result.isOverflow()) {
+                //缓冲区不够时先写出已编码的部分
+                drain(out);
+            }
+        } while (result.isOverflow());
+        while (charsetEncoder.flush(bytes).isOverflow()) {
+            drain(out);
+        }
+        drain(out);
+        buffer.setLength(0);
+    }
+
+    private void drain(OutputStream out) throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+}
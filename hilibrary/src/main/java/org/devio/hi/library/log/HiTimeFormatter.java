@@ -0,0 +1,225 @@
+package org.devio.hi.library.log;
+
+import androidx.annotation.NonNull;
+
+import java.util.TimeZone;
+
+/**
+ * 线程安全的时间戳格式化器，用于替代SimpleDateFormat
+ * SimpleDateFormat内部持有Calendar，多线程共享一个实例时结果会错乱，每次new一个又开销较大。
+ * tips：
+ * 1、同一天内日期部分不变，按天缓存日期前缀，只有跨天时才重新计算；
+ * 2、时分秒直接由毫秒数算出，逐位写入调用方传入的StringBuilder，可复用同一个StringBuilder；
+ * 3、缓存的{@link Day}是不可变对象，通过volatile发布，多线程读写无需加锁；
+ * 4、当天存在夏令时切换时，不使用缓存的时区偏移，每次都从TimeZone获取；
+ * 5、不指定时区时跟随系统默认时区，用户在设置中修改时区后，1秒内(按被格式化的时间计)的log就会使用新的时区。
+ * TimeZone.getDefault()每次都返回一个新的clone，不能按引用判断是否变化，所以每秒最多读取一次，按id和规则比较。
+ */
+public class HiTimeFormatter {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long ZONE_CHECK_MILLIS = 1000;
+
+    /**
+     * yy-MM-dd HH:mm:ss，用于{@link HiLogMo}
+     */
+    public static final HiTimeFormatter LOG = new HiTimeFormatter(false, ' ', ':');
+    /**
+     * yyyy-MM-dd-HH-mm-ss，用于crash文件
+     */
+    public static final HiTimeFormatter CRASH = new HiTimeFormatter(true, '-', '-');
+
+    private final boolean fullYear;
+    private final char dateTimeSeparator;
+    private final char timeSeparator;
+    /**
+     * 为null时跟随系统默认时区
+     */
+    private final TimeZone fixedTimeZone;
+    private volatile DefaultZone defaultZone;
+    private volatile Day cache;
+
+    /**
+     * 使用系统默认时区，并跟随默认时区的变化
+     *
+     * @param fullYear          年份是否为4位
+     * @param dateTimeSeparator 日期与时间之间的分隔符
+     * @param timeSeparator     时、分、秒之间的分隔符
+     */
+    public HiTimeFormatter(boolean fullYear, char dateTimeSeparator, char timeSeparator) {
+        this.fullYear = fullYear;
+        this.dateTimeSeparator = dateTimeSeparator;
+        this.timeSeparator = timeSeparator;
+        this.fixedTimeZone = null;
+    }
+
+    /**
+     * @param timeZone 指定时区，如解码其他设备的log时使用该设备的时区，不随默认时区变化
+     */
+    public HiTimeFormatter(boolean fullYear, char dateTimeSeparator, char timeSeparator, @NonNull TimeZone timeZone) {
+        this.fullYear = fullYear;
+        this.dateTimeSeparator = dateTimeSeparator;
+        this.timeSeparator = timeSeparator;
+        this.fixedTimeZone = timeZone;
+    }
+
+    public String format(long timeMillis) {
+        StringBuilder sb = new StringBuilder(20);
+        format(timeMillis, sb);
+        return sb.toString();
+    }
+
+    /**
+     * 将时间戳格式化后追加到out中
+     */
+    public void format(long timeMillis, @NonNull StringBuilder out) {
+        TimeZone timeZone = timeZone(timeMillis);
+        Day day = cache;
+        int offset;
+        if (day != null && day.timeZone == timeZone && day.fixedOffset && timeMillis >= day.start && timeMillis < day.end) {
+            offset = day.offset;
+        } else {
+            offset = timeZone.getOffset(timeMillis);
+            day = getDay(day, timeZone, timeMillis, offset);
+        }
+        out.append(day.prefix);
+        int seconds = (int) ((timeMillis + offset - day.localDay * DAY_MILLIS) / 1000);
+        append2(out, seconds / 3600);
+        out.append(timeSeparator);
+        append2(out, seconds / 60 % 60);
+        out.append(timeSeparator);
+        append2(out, seconds % 60);
+    }
+
+    /**
+     * @return yyyy-MM-dd格式的日期，同一天内返回同一个String
+     */
+    public String formatDate(long timeMillis) {
+        TimeZone timeZone = timeZone(timeMillis);
+        Day day = cache;
+        if (day != null && day.timeZone == timeZone && day.fixedOffset && timeMillis >= day.start && timeMillis < day.end) {
+            return day.date;
+        }
+        return getDay(day, timeZone, timeMillis, timeZone.getOffset(timeMillis)).date;
+    }
+
+    /**
+     * @return 本地时间的小时，0-23
+     */
+    public int getHourOfDay(long timeMillis) {
+        TimeZone timeZone = timeZone(timeMillis);
+        Day day = cache;
+        int offset;
+        if (day != null && day.timeZone == timeZone && day.fixedOffset && timeMillis >= day.start && timeMillis < day.end) {
+            offset = day.offset;
+        } else {
+            offset = timeZone.getOffset(timeMillis);
+            day = getDay(day, timeZone, timeMillis, offset);
+        }
+        return (int) ((timeMillis + offset - day.localDay * DAY_MILLIS) / (3600 * 1000));
+    }
+
+    private Day getDay(Day day, TimeZone timeZone, long timeMillis, int offset) {
+        long localDay = floorDiv(timeMillis + offset, DAY_MILLIS);
+        if (day == null || day.timeZone != timeZone || day.localDay != localDay) {
+            day = new Day(timeZone, localDay, offset);
+            cache = day;
+        }
+        return day;
+    }
+
+    /**
+     * @return 指定的时区，或者当前的默认时区。默认时区没有变化时返回同一个对象，日期缓存继续有效
+     */
+    private TimeZone timeZone(long timeMillis) {
+        if (fixedTimeZone != null) {
+            return fixedTimeZone;
+        }
+        DefaultZone zone = defaultZone;
+        if (zone == null || timeMillis < zone.checkedAt - ZONE_CHECK_MILLIS || timeMillis >= zone.checkedAt + ZONE_CHECK_MILLIS) {
+            TimeZone current = TimeZone.getDefault();
+            if (zone != null && zone.timeZone.getID().equals(current.getID()) && zone.timeZone.hasSameRules(current)) {
+                current = zone.timeZone;
+            }
+            zone = new DefaultZone(current, timeMillis);
+            defaultZone = zone;
+        }
+        return zone.timeZone;
+    }
+
+    private static void append2(StringBuilder out, int value) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            r--;
+        }
+        return r;
+    }
+
+    /**
+     * 最近一次读取的默认时区，以及读取时被格式化的时间
+     */
+    private static final class DefaultZone {
+        final TimeZone timeZone;
+        final long checkedAt;
+
+        DefaultZone(TimeZone timeZone, long checkedAt) {
+            this.timeZone = timeZone;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * 某一天的缓存：日期前缀，以及该天在UTC时间轴上的起止时间
+     */
+    private final class Day {
+        final TimeZone timeZone;
+        final long localDay;
+        final int offset;
+        final long start;
+        final long end;
+        /**
+         * 当天时区偏移是否固定，存在夏令时切换时为false
+         */
+        final boolean fixedOffset;
+        final char[] prefix;
+        final String date;
+
+        Day(TimeZone timeZone, long localDay, int offset) {
+            this.timeZone = timeZone;
+            this.localDay = localDay;
+            this.offset = offset;
+            this.start = localDay * DAY_MILLIS - offset;
+            this.end = start + DAY_MILLIS;
+            this.fixedOffset = timeZone.getOffset(start) == offset && timeZone.getOffset(end - 1) == offset;
+
+            //由距1970-01-01的天数计算年月日
+            long z = localDay + 719468;
+            long era = (z >= 0 ? z : z - 146096) / 146097;
+            long doe = z - era * 146097;
+            long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            long mp = (5 * doy + 2) / 153;
+            int dayOfMonth = (int) (doy - (153 * mp + 2) / 5 + 1);
+            int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+            StringBuilder sb = new StringBuilder(11);
+            append2(sb, year / 100);
+            append2(sb, year % 100);
+            sb.append('-');
+            append2(sb, month);
+            sb.append('-');
+            append2(sb, dayOfMonth);
+            this.date = sb.toString();
+            if (!fullYear) {
+                sb.delete(0, 2);
+            }
+            sb.append(dateTimeSeparator);
+            this.prefix = new char[sb.length()];
+            sb.getChars(0, sb.length(), prefix, 0);
+        }
+    }
+}
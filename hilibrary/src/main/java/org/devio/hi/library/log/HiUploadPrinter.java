@@ -0,0 +1,444 @@
+package org.devio.hi.library.log;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+
+import org.devio.hi.library.restful.HiCall;
+import org.devio.hi.library.restful.HiRequest;
+import org.devio.hi.library.restful.HiResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 将log分批上传到服务端的打印器，通过restful包中的{@link HiCall.Factory}发送请求
+ * tips：
+ * 1、打印时只把log放入内存中的待发送列表，攒够一批(条数或大小)或到达上传间隔时，由低优先级的后台线程编码、gzip压缩后上传；
+ * 2、上传失败后按指数退避(带随机抖动)重试，退避期间新的批次写入磁盘，恢复后按序号从旧到新依次补传，保证顺序；
+ * 3、内存中待发送的log和磁盘上的批次都有上限，超出时丢弃(磁盘上丢弃最旧的批次)，丢弃的条数随下一批上报；
+ * 4、每批是一个完整的log文件(文件头 + 一个块)，由{@link HiLogEncoder}编码，使用{@link HiBinaryLogEncoder}时建议关闭其块压缩，避免重复压缩；
+ * 5、请求为POST表单，参数：seq(批次序号，递增)、count(条数)、dropped(之前丢弃的条数)、format(编码器的文件后缀)、data(gzip后Base64编码的批次)，
+ * 服务端返回{@link HiResponse#successful()}表示成功。
+ */
+public class HiUploadPrinter implements HiLogPrinter {
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "HiUploadPrinter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private static final String SPILL_SUFFIX = ".batch";
+    /**
+     * 磁盘上的批次文件名：序号-条数-丢弃条数.batch，序号补齐到19位，按文件名排序即按序号排序
+     */
+    private static final Pattern SPILL_NAME = Pattern.compile("(\\d{19})-(\\d+)-(\\d+)\\" + SPILL_SUFFIX);
+
+    private final HiCall.Factory callFactory;
+    private final String domainUrl;
+    private final String relativeUrl;
+    private final HiLogEncoder encoder;
+    private final int maxBatchCount;
+    private final long maxBatchBytes;
+    private final long memoryLimit;
+    private final long diskLimit;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final File spillDir;
+
+    private final Object lock = new Object();
+    private List<HiLogMo> pending = new ArrayList<>();
+    private long pendingBytes;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean shipScheduled = new AtomicBoolean();
+    private final Runnable shipTask = new Runnable() {
+        @Override
+        public void run() {
+            shipScheduled.set(false);
+            try {
+                ship();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    /**
+     * 以下字段只在上传线程中使用
+     */
+    private final TreeMap<Long, File> spilled = new TreeMap<>();
+    private long spilledBytes;
+    private long nextSeq = -1;
+    private int failures;
+    private long retryAt;
+    private final Random random = new Random();
+
+    private HiUploadPrinter(Builder builder) {
+        this.callFactory = builder.callFactory;
+        this.domainUrl = builder.domainUrl;
+        this.relativeUrl = builder.relativeUrl;
+        this.encoder = builder.encoder != null ? builder.encoder : new HiTextLogEncoder();
+        this.maxBatchCount = builder.maxBatchCount;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.memoryLimit = builder.memoryLimit;
+        this.diskLimit = builder.diskLimit;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.spillDir = new File(builder.spillPath);
+        EXECUTOR.scheduleWithFixedDelay(shipTask, builder.uploadInterval, builder.uploadInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void print(@NonNull HiLogConfig config, int level, String tag, @NonNull String printString) {
+        HiLogMo log = new HiLogMo(HiLogDispatcher.logTimeMillis(), level, tag, printString);
+        long size = estimateSize(log);
+        boolean full;
+        synchronized (lock) {
+            if (pendingBytes + size > memoryLimit) {
+                dropped.incrementAndGet();
+                return;
+            }
+            pending.add(log);
+            pendingBytes += size;
+            full = pending.size() >= maxBatchCount || pendingBytes >= maxBatchBytes;
+        }
+        if (full) {
+            scheduleShip(0);
+        }
+    }
+
+    /**
+     * 立即将待发送的log打成一批并尝试上传，不等待上传完成
+     */
+    public void flush() {
+        scheduleShip(0);
+    }
+
+    private void scheduleShip(long delayMillis) {
+        if (delayMillis > 0) {
+            EXECUTOR.schedule(shipTask, delayMillis, TimeUnit.MILLISECONDS);
+        } else if (shipScheduled.compareAndSet(false, true)) {
+            EXECUTOR.execute(shipTask);
+        }
+    }
+
+    /**
+     * 打包待发送的log，没有积压时直接上传，否则写入磁盘，之后按顺序补传磁盘上的批次
+     */
+    private void ship() {
+        if (nextSeq < 0) {
+            loadSpilled();
+        }
+        List<HiLogMo> logs = null;
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                logs = pending;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+            }
+        }
+        if (logs != null) {
+            //积压时待发送的log可能超过一批，按批次大小切分
+            int start = 0;
+            long bytes = 0;
+            for (int i = 0; i < logs.size(); i++) {
+                bytes += estimateSize(logs.get(i));
+                if (i + 1 - start >= maxBatchCount || bytes >= maxBatchBytes || i == logs.size() - 1) {
+                    sendOrSpill(logs.subList(start, i + 1));
+                    start = i + 1;
+                    bytes = 0;
+                }
+            }
+        }
+        replay();
+    }
+
+    private void sendOrSpill(List<HiLogMo> logs) {
+        long seq = nextSeq++;
+        long droppedCount = dropped.getAndSet(0);
+        byte[] data;
+        try {
+            data = encode(logs);
+        } catch (IOException e) {
+            e.printStackTrace();
+            dropped.addAndGet(droppedCount + logs.size());
+            return;
+        }
+        boolean sent = spilled.isEmpty() && System.currentTimeMillis() >= retryAt
+                && upload(seq, logs.size(), droppedCount, data);
+        if (!sent) {
+            spill(seq, logs.size(), droppedCount, data);
+        }
+    }
+
+    /**
+     * 按UTF-16估算一条log占用的内存
+     */
+    private static long estimateSize(HiLogMo log) {
+        return 32 + 2L * ((log.tag == null ? 0 : log.tag.length()) + (log.log == null ? 0 : log.log.length()));
+    }
+
+    /**
+     * 按序号从旧到新补传磁盘上的批次，失败时停止，等待退避结束
+     */
+    private void replay() {
+        while (!spilled.isEmpty() && System.currentTimeMillis() >= retryAt) {
+            Map.Entry<Long, File> entry = spilled.firstEntry();
+            File file = entry.getValue();
+            Matcher matcher = SPILL_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                int count = Integer.parseInt(matcher.group(2));
+                long droppedCount = Long.parseLong(matcher.group(3));
+                byte[] data = null;
+                try {
+                    data = readFile(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (data == null) {
+                    //读不出来的批次被删除，和超出磁盘上限一样计入丢弃的条数
+                    dropped.addAndGet(count + droppedCount);
+                } else if (!upload(entry.getKey(), count, droppedCount, data)) {
+                    return;
+                }
+            }
+            removeSpilled(entry.getKey());
+        }
+    }
+
+    private byte[] encode(List<HiLogMo> logs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        encoder.writeHeader(out);
+        for (HiLogMo log : logs) {
+            encoder.encode(log);
+        }
+        encoder.writeBlock(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 同步上传一批，失败时计算下次重试的时间
+     *
+     * @return true 表示服务端已接收
+     */
+    private boolean upload(long seq, int count, long droppedCount, byte[] data) {
+        HiRequest request = new HiRequest();
+        request.setHttpMethod(HiRequest.METHOD.POST);
+        request.setDomainUrl(domainUrl);
+        request.setRelativeUrl(relativeUrl);
+        request.setReturnType(String.class);
+        request.setFormPost(true);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("seq", String.valueOf(seq));
+        parameters.put("count", String.valueOf(count));
+        parameters.put("dropped", String.valueOf(droppedCount));
+        parameters.put("format", encoder.fileSuffix());
+        parameters.put("data", Base64.encodeToString(data, Base64.NO_WRAP));
+        request.setParameters(parameters);
+        boolean success;
+        try {
+            HiResponse<?> response = callFactory.newCall(request).execute();
+            success = response.successful();
+        } catch (IOException | RuntimeException e) {
+            success = false;
+        }
+        if (success) {
+            failures = 0;
+            retryAt = 0;
+        } else {
+            failures++;
+            //退避时间：initialBackoff * 2^(failures-1)，不超过maxBackoff，再随机取其一半到全部，避免大量设备同时重试
+            long backoff = Math.min(maxBackoff, initialBackoff << Math.min(failures - 1, 30));
+            backoff = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+            retryAt = System.currentTimeMillis() + backoff;
+            scheduleShip(backoff);
+        }
+        return success;
+    }
+
+    /**
+     * 将一批写入磁盘，超出磁盘上限时丢弃最旧的批次
+     */
+    private void spill(long seq, int count, long droppedCount, byte[] data) {
+        File file = new File(spillDir, String.format("%019d-%d-%d%s", seq, count, droppedCount, SPILL_SUFFIX));
+        File temp = new File(spillDir, file.getName() + ".tmp");
+        try {
+            if (!spillDir.exists() && !spillDir.mkdirs()) {
+                throw new IOException("can not create " + spillDir);
+            }
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("can not rename " + temp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            dropped.addAndGet(droppedCount + count);
+            return;
+        }
+        spilled.put(seq, file);
+        spilledBytes += data.length;
+        while (spilledBytes > diskLimit && !spilled.isEmpty()) {
+            Matcher matcher = SPILL_NAME.matcher(spilled.firstEntry().getValue().getName());
+            if (matcher.matches()) {
+                dropped.addAndGet(Long.parseLong(matcher.group(2)) + Long.parseLong(matcher.group(3)));
+            }
+            removeSpilled(spilled.firstKey());
+        }
+    }
+
+    private void removeSpilled(long seq) {
+        File file = spilled.remove(seq);
+        if (file != null) {
+            spilledBytes -= file.length();
+            file.delete();
+        }
+    }
+
+    /**
+     * 加载之前的进程留下的批次，新批次的序号接在它们之后
+     */
+    private void loadSpilled() {
+        long maxSeq = -1;
+        File[] files = spillDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SPILL_NAME.matcher(file.getName());
+                if (!matcher.matches()) {
+                    //未写完的临时文件
+                    file.delete();
+                    continue;
+                }
+                long seq = Long.parseLong(matcher.group(1));
+                spilled.put(seq, file);
+                spilledBytes += file.length();
+                maxSeq = Math.max(maxSeq, seq);
+            }
+        }
+        nextSeq = Math.max(maxSeq + 1, System.currentTimeMillis());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public static class Builder {
+        private final HiCall.Factory callFactory;
+        private final String domainUrl;
+        private final String relativeUrl;
+        private final String spillPath;
+        private HiLogEncoder encoder;
+        private int maxBatchCount = 500;
+        private long maxBatchBytes = 256 * 1024;
+        private long uploadInterval = 30_000;
+        private long memoryLimit = 1024 * 1024;
+        private long diskLimit = 10 * 1024 * 1024;
+        private long initialBackoff = 1000;
+        private long maxBackoff = TimeUnit.MINUTES.toMillis(10);
+
+        /**
+         * @param callFactory 发送请求的工厂
+         * @param domainUrl   服务端的域名，如https://api.devio.org/v1/
+         * @param relativeUrl 上传log的路径
+         * @param spillPath   离线时保存批次的目录，该目录只能用于保存批次
+         */
+        public Builder(@NonNull HiCall.Factory callFactory, @NonNull String domainUrl, @NonNull String relativeUrl,
+                       @NonNull String spillPath) {
+            this.callFactory = callFactory;
+            this.domainUrl = domainUrl;
+            this.relativeUrl = relativeUrl;
+            this.spillPath = spillPath;
+        }
+
+        /**
+         * @param encoder 批次的编码器，默认为{@link HiTextLogEncoder}
+         */
+        public Builder encoder(@NonNull HiLogEncoder encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        /**
+         * @param maxCount 每批最多的条数，默认500
+         * @param maxBytes 每批log最多占用的内存，单位字节，默认256KB
+         */
+        public Builder batchSize(int maxCount, long maxBytes) {
+            this.maxBatchCount = Math.max(maxCount, 1);
+            this.maxBatchBytes = Math.max(maxBytes, 1);
+            return this;
+        }
+
+        /**
+         * @param uploadInterval 不满一批时上传的间隔，即log最长的上传延迟，单位毫秒，默认30秒
+         */
+        public Builder uploadInterval(long uploadInterval) {
+            this.uploadInterval = Math.max(uploadInterval, 100);
+            return this;
+        }
+
+        /**
+         * @param memoryLimit 内存中待发送log的上限，单位字节，默认1MB
+         * @param diskLimit   磁盘上批次的上限，单位字节，默认10MB
+         */
+        public Builder limits(long memoryLimit, long diskLimit) {
+            this.memoryLimit = memoryLimit;
+            this.diskLimit = diskLimit;
+            return this;
+        }
+
+        /**
+         * @param initialBackoff 第一次失败后的退避时间，单位毫秒，默认1秒
+         * @param maxBackoff     最长的退避时间，单位毫秒，默认10分钟
+         */
+        public Builder backoff(long initialBackoff, long maxBackoff) {
+            this.initialBackoff = Math.max(initialBackoff, 1);
+            this.maxBackoff = Math.max(maxBackoff, this.initialBackoff);
+            return this;
+        }
+
+        public HiUploadPrinter build() {
+            return new HiUploadPrinter(this);
+        }
+    }
+}
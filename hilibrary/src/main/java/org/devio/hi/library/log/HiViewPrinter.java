@@ -1,6 +1,7 @@
 package com.imooc.hilibrary.log;
 
 import android.app.Activity;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,8 +10,14 @@ import android.widget.TextView;
 
 import com.imooc.hilibrary.R;
 
+import org.devio.hi.library.util.MainHandler;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -18,15 +25,55 @@ import androidx.recyclerview.widget.RecyclerView;
 
 /**
  * HiViewPrinter 将log显示在界面上
+ * tips：
+ * 1、只保留最近capacity条log，存放在定长的{@link HiViewPrinterRing}中，长时间运行内存也不会增长；
+ * 2、任意线程打印的log先放入待显示的队列，通过Choreographer每帧只合并一次，按区间通知RecyclerView插入和移除，
+ * 每帧最多滚动一次；
+ * 3、按级别和tag过滤时，在后台线程中遍历整个ring，回到主线程后按序号归并新旧列表，只通知变化的区间。
  */
 public class HiViewPrinter implements HiLogPrinter {
+    private static final int DEFAULT_CAPACITY = 2000;
+    private static final ExecutorService FILTER_EXECUTOR = Executors.newSingleThreadExecutor();
 
     private RecyclerView recyclerView;
     private LogAdapter adapter;
     private HiViewPrinterProvider viewProvider;
     private LayoutInflater inflater;
+    private final Choreographer choreographer;
+    /**
+     * 还没显示的log，任意线程写入，需持有自身的锁
+     */
+    private final HiViewPrinterRing pending;
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    /**
+     * 以下字段只在主线程中使用
+     */
+    private final HiViewPrinterRing allLogs;
+    private final List<HiViewPrinterMo> frameBatch = new ArrayList<>();
+    private long nextSeq;
+    private int minLevel = HiLogType.V;
+    private String tagQuery;
+    private int filterGeneration;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled.set(false);
+            appendPending();
+        }
+    };
 
     public HiViewPrinter(Activity activity) {
+        this(activity, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 最多保留的log条数
+     */
+    public HiViewPrinter(Activity activity, int capacity) {
+        pending = new HiViewPrinterRing(capacity);
+        allLogs = new HiViewPrinterRing(capacity);
+        choreographer = Choreographer.getInstance();
         FrameLayout rootView = activity.findViewById(android.R.id.content);
         recyclerView = initRecyclerView(activity);
         viewProvider = new HiViewPrinterProvider(rootView, recyclerView);
@@ -52,7 +99,7 @@ public class HiViewPrinter implements HiLogPrinter {
         LinearLayoutManager layoutManager = new LinearLayoutManager(recyclerView.getContext());
         recyclerView.setLayoutManager(layoutManager);
         inflater = activity.getLayoutInflater();
-        adapter = new LogAdapter(inflater);
+        adapter = new LogAdapter(inflater, allLogs.capacity());
         recyclerView.setAdapter(adapter);
         return recyclerView;
     }
@@ -65,12 +112,159 @@ public class HiViewPrinter implements HiLogPrinter {
         return viewProvider;
     }
 
+    /**
+     * 可在任意线程中调用，log在下一帧统一显示
+     */
     @Override
     public void print(@NonNull HiLogConfig config, int level, String tag, @NonNull String printString) {
-        //将log展示添加到recyclerView
-        adapter.addItem(new HiViewPrinterMo(System.currentTimeMillis(), level, tag, printString));
-        //滚动到对应的位置
-        recyclerView.smoothScrollToPosition(adapter.getItemCount() - 1);
+        HiViewPrinterMo logItem = new HiViewPrinterMo(HiLogDispatcher.logTimeMillis(), level, tag, printString);
+        synchronized (pending) {
+            //一帧内的log超过容量时，最早的几条不会被显示
+            pending.add(logItem);
+        }
+        if (frameScheduled.compareAndSet(false, true)) {
+            //Choreographer.postFrameCallback是线程安全的
+            choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * 按级别和tag过滤显示的log，在主线程中调用，过滤在后台线程中进行
+     *
+     * @param minLevel 只显示级别>=minLevel的log
+     * @param tagQuery tag中包含该字符串(忽略大小写)的log才显示，为null或空时不按tag过滤
+     */
+    public void setFilter(@HiLogType.TYPE int minLevel, String tagQuery) {
+        this.minLevel = minLevel;
+        this.tagQuery = tagQuery == null || tagQuery.isEmpty() ? null : tagQuery.toLowerCase(Locale.ROOT);
+        final int generation = ++filterGeneration;
+        final int level = this.minLevel;
+        final String query = this.tagQuery;
+        final HiViewPrinterMo[] snapshot = allLogs.toArray();
+        final long lastSeq = nextSeq - 1;
+        FILTER_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<HiViewPrinterMo> result = new ArrayList<>();
+                for (HiViewPrinterMo logItem : snapshot) {
+                    if (matches(logItem, level, query)) {
+                        result.add(logItem);
+                    }
+                }
+                MainHandler.INSTANCE.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        //过滤期间条件又被修改时，丢弃本次结果
+                        if (generation == filterGeneration) {
+                            applyFilterResult(result, lastSeq);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static boolean matches(HiViewPrinterMo logItem, int minLevel, String tagQuery) {
+        return logItem.level >= minLevel
+                && (tagQuery == null || (logItem.tag != null && logItem.tag.toLowerCase(Locale.ROOT).contains(tagQuery)));
+    }
+
+    /**
+     * 每帧执行一次，将这一帧内打印的log合并到ring中，并按区间通知RecyclerView
+     */
+    private void appendPending() {
+        synchronized (pending) {
+            for (int i = 0, size = pending.size(); i < size; i++) {
+                frameBatch.add(pending.get(i));
+            }
+            pending.clear();
+        }
+        if (frameBatch.isEmpty()) {
+            return;
+        }
+        //只有在列表底部时才跟随滚动，用户向上翻看时不打断
+        boolean follow = !recyclerView.canScrollVertically(1);
+        for (HiViewPrinterMo logItem : frameBatch) {
+            logItem.seq = nextSeq++;
+            allLogs.add(logItem);
+        }
+        HiViewPrinterRing visible = adapter.visible;
+        int oldSize = visible.size();
+        //移除已经被挤出ring的log
+        long oldestSeq = allLogs.get(0).seq;
+        int removed = 0;
+        while (removed < visible.size() && visible.get(removed).seq < oldestSeq) {
+            removed++;
+        }
+        visible.removeFirst(removed);
+        int inserted = 0;
+        for (HiViewPrinterMo logItem : frameBatch) {
+            if (logItem.seq >= oldestSeq && matches(logItem, minLevel, tagQuery)) {
+                visible.add(logItem);
+                inserted++;
+            }
+        }
+        frameBatch.clear();
+        if (removed > 0) {
+            adapter.notifyItemRangeRemoved(0, removed);
+        }
+        if (inserted > 0) {
+            adapter.notifyItemRangeInserted(oldSize - removed, inserted);
+            if (follow) {
+                recyclerView.scrollToPosition(visible.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * 应用后台过滤的结果，补上过滤期间新增的log，再按序号归并新旧列表，只通知变化的区间
+     *
+     * @param lastSeq 过滤时ring中最新一条log的序号
+     */
+    private void applyFilterResult(List<HiViewPrinterMo> result, long lastSeq) {
+        long oldestSeq = allLogs.size() > 0 ? allLogs.get(0).seq : nextSeq;
+        HiViewPrinterRing visible = adapter.visible;
+        HiViewPrinterMo[] oldItems = visible.toArray();
+        visible.clear();
+        for (HiViewPrinterMo logItem : result) {
+            if (logItem.seq >= oldestSeq) {
+                visible.add(logItem);
+            }
+        }
+        for (int i = 0, size = allLogs.size(); i < size; i++) {
+            HiViewPrinterMo logItem = allLogs.get(i);
+            if (logItem.seq > lastSeq && matches(logItem, minLevel, tagQuery)) {
+                visible.add(logItem);
+            }
+        }
+        //新旧列表都按序号递增，线性归并即可得到删除和插入的区间
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        int newSize = visible.size();
+        while (i < oldItems.length || j < newSize) {
+            if (j >= newSize || (i < oldItems.length && oldItems[i].seq < visible.get(j).seq)) {
+                int start = i;
+                while (i < oldItems.length && (j >= newSize || oldItems[i].seq < visible.get(j).seq)) {
+                    i++;
+                }
+                adapter.notifyItemRangeRemoved(position, i - start);
+            } else if (i >= oldItems.length || visible.get(j).seq < oldItems[i].seq) {
+                int start = j;
+                while (j < newSize && (i >= oldItems.length || visible.get(j).seq < oldItems[i].seq)) {
+                    j++;
+                }
+                adapter.notifyItemRangeInserted(position, j - start);
+                position += j - start;
+            } else {
+                i++;
+                j++;
+                position++;
+            }
+        }
+        if (newSize > 0) {
+            recyclerView.scrollToPosition(newSize - 1);
+        }
     }
 
     /**
@@ -99,20 +293,15 @@ public class HiViewPrinter implements HiLogPrinter {
     private class LogAdapter extends RecyclerView.Adapter<LogViewHolder> {
 
         private LayoutInflater inflater;
-        //新建一个List，用于存储每个Item的数据层Mo对象
-        private List<HiViewPrinterMo> logItemList = new ArrayList<>();
-
-        void addItem(HiViewPrinterMo logItem) {
-            logItemList.add(logItem);
-            //插入指定位置的item，并刷新
-            notifyItemInserted(logItemList.size() - 1);
-        }
+        //当前显示的log，没有过滤条件时与ring中的log一致，由HiViewPrinter在主线程中更新并通知刷新
+        private final HiViewPrinterRing visible;
 
         /**
          * 构造方法中需要将LayoutInflater传进来
          */
-        public LogAdapter(LayoutInflater inflater) {
+        public LogAdapter(LayoutInflater inflater, int capacity) {
             this.inflater = inflater;
+            this.visible = new HiViewPrinterRing(capacity);
         }
 
         /**
@@ -131,7 +320,7 @@ public class HiViewPrinter implements HiLogPrinter {
          */
         @Override
         public void onBindViewHolder(@NonNull LogViewHolder holder, int position) {
-            HiViewPrinterMo logItem = logItemList.get(position);
+            HiViewPrinterMo logItem = visible.get(position);
             int color = getHighlightColor(logItem.level);
             holder.tagView.setTextColor(color);
             holder.messageView.setTextColor(color);
@@ -144,7 +333,7 @@ public class HiViewPrinter implements HiLogPrinter {
          */
         @Override
         public int getItemCount() {
-            return logItemList.size();
+            return visible.size();
         }
 
         /**
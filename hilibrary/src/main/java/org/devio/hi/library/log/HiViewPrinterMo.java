@@ -26,6 +26,10 @@ class HiViewPrinterMo {
     public int level;
     public String tag;
     public String log;
+    /**
+     * 显示时分配的递增序号，用于过滤结果与新旧列表的归并
+     */
+    long seq;
 
     public HiViewPrinterMo(long timeMillis, int level, String tag, String log) {
         this.timeMillis = timeMillis;
@@ -0,0 +1,69 @@
+package org.devio.hi.library.log;
+
+/**
+ * {@link HiViewPrinter}使用的定长环形列表，写满后再添加会挤出最早的一条，内存占用不会随log数量增长
+ * 非线程安全，只在主线程中使用，或由调用方加锁
+ */
+class HiViewPrinterRing {
+    private final HiViewPrinterMo[] items;
+    private int head;
+    private int size;
+
+    HiViewPrinterRing(int capacity) {
+        this.items = new HiViewPrinterMo[Math.max(capacity, 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    /**
+     * @param index 0为最早的一条
+     */
+    HiViewPrinterMo get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return items[(head + index) % items.length];
+    }
+
+    /**
+     * @return 被挤出的最早一条，没有时为null
+     */
+    HiViewPrinterMo add(HiViewPrinterMo item) {
+        if (size < items.length) {
+            items[(head + size++) % items.length] = item;
+            return null;
+        }
+        HiViewPrinterMo evicted = items[head];
+        items[head] = item;
+        head = (head + 1) % items.length;
+        return evicted;
+    }
+
+    void removeFirst(int count) {
+        count = Math.min(count, size);
+        for (int i = 0; i < count; i++) {
+            items[head] = null;
+            head = (head + 1) % items.length;
+        }
+        size -= count;
+    }
+
+    void clear() {
+        removeFirst(size);
+        head = 0;
+    }
+
+    HiViewPrinterMo[] toArray() {
+        HiViewPrinterMo[] array = new HiViewPrinterMo[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = items[(head + i) % items.length];
+        }
+        return array;
+    }
+}
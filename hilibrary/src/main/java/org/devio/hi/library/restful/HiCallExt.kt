@@ -0,0 +1,59 @@
+package org.devio.hi.library.restful
+
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * HiCall的协程扩展，基于[HiCall.enqueue]，挂起时不占用线程
+ * tips：
+ * 1、CACHE_FIRST的请求会先回调一次缓存(code为[HiResponse.CACHE_SUCCESS])，再回调一次网络结果，
+ * [await]跳过缓存只返回网络结果，[asFlow]两次都发射，网络结果之后结束；
+ * 2、协程被取消后，之后的回调被忽略。
+ */
+
+/**
+ * 挂起直到网络结果返回
+ */
+suspend fun <T> HiCall<T>.await(): HiResponse<T> {
+    return suspendCancellableCoroutine { continuation ->
+        enqueue(object : HiCallback<T> {
+            override fun onSuccess(response: HiResponse<T>) {
+                if (response.code != HiResponse.CACHE_SUCCESS && continuation.isActive) {
+                    continuation.resume(response)
+                }
+            }
+
+            override fun onFailed(throwable: Throwable) {
+                if (continuation.isActive) {
+                    continuation.resumeWithException(throwable)
+                }
+            }
+        })
+    }
+}
+
+/**
+ * 依次发射缓存结果(如果有)和网络结果，网络请求失败时以异常结束
+ */
+fun <T> HiCall<T>.asFlow(): Flow<HiResponse<T>> = flow {
+    val channel = Channel<HiResponse<T>>(Channel.UNLIMITED)
+    enqueue(object : HiCallback<T> {
+        override fun onSuccess(response: HiResponse<T>) {
+            channel.offer(response)
+            if (response.code != HiResponse.CACHE_SUCCESS) {
+                channel.close()
+            }
+        }
+
+        override fun onFailed(throwable: Throwable) {
+            channel.close(throwable)
+        }
+    })
+    for (response in channel) {
+        emit(response)
+    }
+}
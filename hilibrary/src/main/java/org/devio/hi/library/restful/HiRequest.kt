@@ -22,6 +22,11 @@ open class HiRequest {
     var returnType: Type? = null
     var formPost: Boolean = true
 
+    /**
+     * 同时发起的相同GET请求是否合并成一次网络请求，见[Scheduler]
+     */
+    var coalesce: Boolean = true
+
     @IntDef(value = [METHOD.GET, METHOD.POST])
     annotation class METHOD {
         companion object {
@@ -10,6 +10,18 @@ class HiRestful constructor(val baserUrl: String, callFactory: HiCall.Factory) {
     private var methodService: ConcurrentHashMap<Method, MethodParser> = ConcurrentHashMap();
     private var scheduler: Scheduler
 
+    /**
+     * 同时发起的相同GET请求被合并的次数，见[Scheduler]
+     */
+    val coalescedCount: Long
+        get() = scheduler.coalescedCount
+
+    /**
+     * 可以合并的GET请求总数
+     */
+    val coalescibleRequestCount: Long
+        get() = scheduler.requestCount
+
     fun addInterceptor(interceptor: HiInterceptor) {
         interceptors.add(interceptor)
     }
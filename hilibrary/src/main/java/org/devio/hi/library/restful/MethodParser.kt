@@ -12,6 +12,7 @@ class MethodParser(
     private var cacheStrategy: Int = CacheStrategy.NET_ONLY
     private var domainUrl: String? = null
     private var formPost: Boolean = true
+    private var coalesce: Boolean = true
     private var httpMethod: Int = -1
     private lateinit var relativeUrl: String
     private lateinit var returnType: Type
@@ -149,6 +150,8 @@ class MethodParser(
                 domainUrl = annotation.value
             } else if (annotation is CacheStrategy) {
                 cacheStrategy = annotation.value
+            } else if (annotation is NoCoalesce) {
+                coalesce = false
             } else {
                 throw IllegalStateException("cannot handle method annotation:" + annotation.javaClass.toString())
             }
@@ -226,6 +229,7 @@ class MethodParser(
         request.httpMethod = httpMethod
         request.formPost = formPost
         request.cacheStrategy = cacheStrategy
+        request.coalesce = coalesce
         return request
     }
 
@@ -7,14 +7,45 @@ import org.devio.hi.library.executor.HiExecutor
 import org.devio.hi.library.log.HiLog
 import org.devio.hi.library.restful.annotation.CacheStrategy
 import org.devio.hi.library.util.MainHandler
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * 代理CallFactory创建出来的call对象，从而实现拦截器的派发动作
+ *
+ * tips：
+ * 1、同时发起的相同GET请求(key为[HiRequest.getCacheKey]加返回类型)只有第一个请求网络，
+ * 后面的请求挂到正在进行的请求上，网络结果返回后所有请求收到同一个[HiResponse]，缓存也只写一次；
+ * 2、getCacheKey不包含header，header会影响结果的接口用[org.devio.hi.library.restful.annotation.NoCoalesce]关闭合并；
+ * 3、被合并的请求仍然会派发请求阶段的拦截器、读取CACHE_FIRST的缓存，响应阶段的拦截器只随第一个请求派发一次；
+ * 4、同步请求的结果在调用execute的线程上返回，异步回调则由[HiCall.Factory]派发到它的回调线程(通常是主线程)，
+ * 所以异步请求只合并到异步请求上，同步请求只合并到同步请求上，异步回调不会跑在别人的后台线程里；
+ * 5、发起请求时同步抛出异常(如call已经执行过)，这次合并的请求全部收到onFailed，不会有请求一直等下去。
  */
 class Scheduler(
     private val callFactory: HiCall.Factory,
     private val interceptors: MutableList<HiInterceptor>
 ) {
+    /**
+     * 正在请求网络的GET请求
+     */
+    private val inFlight = ConcurrentHashMap<String, Flight<*>>()
+    private val requests = AtomicLong()
+    private val coalesced = AtomicLong()
+
+    /**
+     * 可以合并的GET请求总数
+     */
+    val requestCount: Long
+        get() = requests.get()
+
+    /**
+     * 被合并到正在进行的请求上、没有单独请求网络的次数
+     */
+    val coalescedCount: Long
+        get() = coalesced.get()
+
     fun newCall(request: HiRequest): HiCall<*> {
         val newCall: HiCall<*> = callFactory.newCall(request)
         return ProxyCall(newCall, request)
@@ -34,6 +65,24 @@ class Scheduler(
                 }
             }
 
+            val key = flightKey(true) ?: return executeRemote()
+            val waiter = BlockingCallback<T>()
+            val flight = join(key, waiter)
+            if (flight != null) {
+                val response = try {
+                    executeRemote()
+                } catch (e: Throwable) {
+                    inFlight.remove(key, flight)
+                    flight.onFailed(e)
+                    throw e
+                }
+                inFlight.remove(key, flight)
+                flight.onSuccess(response)
+            }
+            return waiter.get()
+        }
+
+        private fun executeRemote(): HiResponse<T> {
             val response = delegate.execute()
             saveCacheIfNeed(response)
 
@@ -45,7 +94,7 @@ class Scheduler(
         override fun enqueue(callback: HiCallback<T>) {
             dispatchInterceptor(request, null)
             if (request.cacheStrategy == CacheStrategy.CACHE_FIRST) {
-                HiExecutor.execute(runnable = Runnable {
+                HiExecutor.execute(type = HiExecutor.PoolType.IO, runnable = Runnable {
                     val cacheResponse = readCache<T>()
                     if (cacheResponse.data != null) {
                         //抛到主线程里面
@@ -58,6 +107,32 @@ class Scheduler(
                 })
             }
 
+            val key = flightKey(false)
+            if (key == null) {
+                enqueueRemote(callback)
+                return
+            }
+            val flight = join(key, callback) ?: return
+            try {
+                enqueueRemote(object : HiCallback<T> {
+                    override fun onSuccess(response: HiResponse<T>) {
+                        inFlight.remove(key, flight)
+                        flight.onSuccess(response)
+                    }
+
+                    override fun onFailed(throwable: Throwable) {
+                        inFlight.remove(key, flight)
+                        flight.onFailed(throwable)
+                    }
+                })
+            } catch (e: Throwable) {
+                //没有发出去，移除后挂在上面的请求都收到失败，后面的请求重新发起
+                inFlight.remove(key, flight)
+                flight.onFailed(e)
+            }
+        }
+
+        private fun enqueueRemote(callback: HiCallback<T>) {
             delegate.enqueue(object : HiCallback<T> {
                 override fun onSuccess(response: HiResponse<T>) {
                     dispatchInterceptor(request, response)
@@ -76,12 +151,44 @@ class Scheduler(
             })
         }
 
+        /**
+         * @param sync 是否是同步请求，同步和异步请求不互相合并
+         * @return null 这个请求不合并
+         */
+        private fun flightKey(sync: Boolean): String? {
+            if (request.httpMethod != HiRequest.METHOD.GET || !request.coalesce) {
+                return null
+            }
+            return request.getCacheKey() + "#" + request.returnType + if (sync) "#sync" else "#async"
+        }
+
+        /**
+         * 把callback登记到key正在进行的请求上
+         * @return 没有正在进行的请求时返回新登记的flight，由当前请求去请求网络；为null表示已经合并
+         */
+        private fun join(key: String, callback: HiCallback<T>): Flight<T>? {
+            requests.incrementAndGet()
+            val flight = Flight<T>()
+            flight.attach(callback)
+            while (true) {
+                @Suppress("UNCHECKED_CAST")
+                val existing = inFlight.putIfAbsent(key, flight) as Flight<T>? ?: return flight
+                if (existing.attach(callback)) {
+                    coalesced.incrementAndGet()
+                    HiLog.d("enqueue ,coalesced : $key")
+                    return null
+                }
+                //已经结束但还没移除，换成新的请求
+                inFlight.remove(key, existing)
+            }
+        }
+
         private fun saveCacheIfNeed(response: HiResponse<T>) {
             if (request.cacheStrategy == CacheStrategy.CACHE_FIRST
                 || request.cacheStrategy == CacheStrategy.NET_CACHE
             ) {
                 if (response.data != null) {
-                    HiExecutor.execute(runnable = Runnable {
+                    HiExecutor.execute(type = HiExecutor.PoolType.IO, runnable = Runnable {
                         HiStorage.saveCache(request.getCacheKey(), response.data)
                     })
                 }
@@ -138,5 +245,76 @@ class Scheduler(
         }
     }
 
-}
+    /**
+     * 一次正在进行的网络请求和挂在它上面的回调，结束后不能再登记
+     */
+    private class Flight<T> : HiCallback<T> {
+        private var callbacks: MutableList<HiCallback<T>>? = ArrayList(2)
+
+        @Synchronized
+        fun attach(callback: HiCallback<T>): Boolean {
+            val list = callbacks ?: return false
+            list.add(callback)
+            return true
+        }
+
+        @Synchronized
+        private fun close(): List<HiCallback<T>> {
+            val list = callbacks ?: return emptyList()
+            callbacks = null
+            return list
+        }
+
+        override fun onSuccess(response: HiResponse<T>) {
+            deliver(close()) { it.onSuccess(response) }
+        }
+
+        override fun onFailed(throwable: Throwable) {
+            deliver(close()) { it.onFailed(throwable) }
+        }
 
+        /**
+         * 一个回调抛出异常不影响其他回调，全部派发完后再抛出第一个异常，与不合并时回调抛出异常的表现一致
+         */
+        private inline fun deliver(callbacks: List<HiCallback<T>>, action: (HiCallback<T>) -> Unit) {
+            var error: Throwable? = null
+            for (callback in callbacks) {
+                try {
+                    action(callback)
+                } catch (e: Throwable) {
+                    if (error == null) {
+                        error = e
+                    } else {
+                        e.printStackTrace()
+                    }
+                }
+            }
+            error?.let { throw it }
+        }
+    }
+
+    /**
+     * 同步请求合并时等待结果
+     */
+    private class BlockingCallback<T> : HiCallback<T> {
+        private val latch = CountDownLatch(1)
+        private var response: HiResponse<T>? = null
+        private var error: Throwable? = null
+
+        override fun onSuccess(response: HiResponse<T>) {
+            this.response = response
+            latch.countDown()
+        }
+
+        override fun onFailed(throwable: Throwable) {
+            error = throwable
+            latch.countDown()
+        }
+
+        fun get(): HiResponse<T> {
+            latch.await()
+            error?.let { throw it }
+            return response!!
+        }
+    }
+}
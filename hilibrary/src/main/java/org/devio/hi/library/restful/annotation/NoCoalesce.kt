@@ -0,0 +1,11 @@
+package org.devio.hi.library.restful.annotation
+
+/**
+ * 默认同时发起的相同GET请求会合并成一次网络请求，加上这个注解后每次都单独请求
+ * @NoCoalesce
+ * @GET("/cities/all")
+ *fun test(@Filed("province") int provinceId)
+ */
+@Target(AnnotationTarget.FUNCTION)
+@Retention(AnnotationRetention.RUNTIME)
+annotation class NoCoalesce
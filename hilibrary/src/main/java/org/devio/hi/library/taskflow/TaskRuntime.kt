@@ -90,7 +90,8 @@ internal object TaskRuntime {
     @JvmStatic
     fun executeTask(task: Task) {
         if (task.isAsyncTask) {
-            HiExecutor.execute(runnable = task)
+            //启动任务多是sdk初始化、读写文件和网络，放到IO线程池，不与计算任务争抢CPU线程池
+            HiExecutor.execute(runnable = task, type = HiExecutor.PoolType.IO)
         } else {
             //else 里面的 都是在主线程 执行的
             //延迟任务 ，但是如果这个延迟任务 它存在着后置任务  A(延迟任务)-->B--->C（Block task）
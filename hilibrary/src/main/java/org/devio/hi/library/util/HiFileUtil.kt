@@ -13,7 +13,7 @@ object HiFileUtil {
      * @param fileName 要copy的文件名，如xx.xx
      */
     fun copyAssetsFile2FilesDir(context: Context, fileName: String, listener: (() -> Unit)?) {
-        HiExecutor.execute(runnable = Runnable {
+        HiExecutor.execute(type = HiExecutor.PoolType.IO, runnable = Runnable {
             doCopy(context, fileName)
             listener?.invoke()
         })
@@ -0,0 +1,108 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地单元测试用的Handler，android.jar中的实现在JVM上不能运行
+ * 测试的classpath中测试类在android.jar之前，这个类会替换掉android.jar中的Handler
+ * tips：
+ * 1、所有Handler共用一个模拟的主线程，消息按时间顺序在这个线程中执行；
+ * 2、只实现了库中用到的post、postDelayed、removeCallbacks。
+ */
+public class Handler {
+    static volatile Thread MAIN_THREAD;
+    private static final ScheduledThreadPoolExecutor MAIN = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "main");
+            thread.setDaemon(true);
+            MAIN_THREAD = thread;
+            return thread;
+        }
+    });
+    private static final List<Pending> PENDING = new ArrayList<>();
+
+    static {
+        MAIN.setRemoveOnCancelPolicy(true);
+        MAIN.prestartCoreThread();
+    }
+
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(final Runnable r, long delayMillis) {
+        final Pending message = new Pending(r);
+        synchronized (PENDING) {
+            PENDING.add(message);
+            message.future = MAIN.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (PENDING) {
+                        if (!PENDING.remove(message)) {
+                            return;
+                        }
+                    }
+                    r.run();
+                }
+            }, Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (PENDING) {
+            Iterator<Pending> iterator = PENDING.iterator();
+            while (iterator.hasNext()) {
+                Pending message = iterator.next();
+                if (message.callback == r) {
+                    iterator.remove();
+                    message.future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待主线程执行完当前所有的消息，测试中代替Looper的idle
+     */
+    public static void idleMainLooper() throws InterruptedException {
+        final Object done = new Object();
+        final boolean[] finished = {false};
+        MAIN.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    finished[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+        synchronized (done) {
+            while (!finished[0]) {
+                done.wait();
+            }
+        }
+    }
+
+    private static final class Pending {
+        final Runnable callback;
+        ScheduledFuture<?> future;
+
+        Pending(Runnable callback) {
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * 本地单元测试用的Looper，只有一个主线程Looper，见{@link Handler}
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return Thread.currentThread() == Handler.MAIN_THREAD ? MAIN : null;
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * 本地单元测试用的SystemClock
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+}
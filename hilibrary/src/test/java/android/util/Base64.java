@@ -0,0 +1,21 @@
+package android.util;
+
+/**
+ * 本地单元测试用的Base64，android.jar中的实现在JVM上会抛出异常
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return (flags & NO_WRAP) != 0 ? java.util.Base64.getEncoder().encodeToString(input)
+                : java.util.Base64.getMimeEncoder().encodeToString(input);
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}
@@ -0,0 +1,60 @@
+package android.util;
+
+import java.util.List;
+
+/**
+ * 本地单元测试用的Log，不输出到控制台，设置{@link #capture}后记录println的内容
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    /**
+     * 为null时不记录
+     */
+    public static volatile List<String> capture;
+    /**
+     * 累计输出的字符数，避免基准测试中的输出被优化掉
+     */
+    public static long written;
+
+    private Log() {
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        List<String> list = capture;
+        if (list != null) {
+            list.add(msg);
+        }
+        written += msg.length();
+        return msg.length();
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg + '\n' + tr);
+    }
+}
@@ -0,0 +1,67 @@
+package org.devio.hi.library.executor
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * [HiExecutor.parallelFor]、[HiExecutor.invokeAll]的测试
+ */
+class HiBatchTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            HiLogManager.init(object : HiLogConfig() {})
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun everyIndexRunsOnce() {
+        val count = 10000
+        for (grain in intArrayOf(0, 1, 7, count * 2)) {
+            val hits = AtomicIntegerArray(count)
+            HiExecutor.parallelFor(from = 0, to = count, grain = grain) { hits.incrementAndGet(it) }
+            for (i in 0 until count) {
+                assertEquals("grain $grain index $i", 1, hits.get(i))
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun invokeAllKeepsOrder() {
+        assertEquals(listOf(0, 1, 4, 9, 16), HiExecutor.invokeAll(tasks = (0 until 5).map { i -> { i * i } }))
+    }
+
+    @Test(timeout = 10000)
+    fun firstExceptionIsRethrown() {
+        try {
+            HiExecutor.parallelFor(from = 0, to = 100) {
+                if (it == 42) throw IllegalStateException("boom")
+            }
+            fail()
+        } catch (e: IllegalStateException) {
+            assertEquals("boom", e.message)
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun nestedCallFromPoolThreadCompletes() {
+        //线程池的每个线程都在嵌套调用parallelFor，提交的线程自己也能把任务做完
+        val workers = HiExecutor.snapshot().cpu.maxPoolSize
+        val futures = (0 until workers * 2).map {
+            HiExecutor.submit {
+                val sum = AtomicLong()
+                HiExecutor.parallelFor(from = 0, to = 1000) { i -> sum.addAndGet(i.toLong()) }
+                sum.get()
+            }
+        }
+        for (future in futures) {
+            assertEquals(499500L, future.get())
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.devio.hi.library.executor
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 混合优先级负载下低优先级任务的等待时间(尾延迟)，对比不老化(agingMillis = 0，只按优先级)和老化
+ * 优先级10的任务让cpu线程池一直积压约150个任务(小于队列容量256，不会触发rejectPolicy)，
+ * 每50ms提交一个优先级0的任务，记录它从提交到开始执行的时间。不老化时低优先级任务要等到负载结束，
+ * 老化时等待时间不超过约10 * agingMillis
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiExecutorLatencyBenchmark'
+ */
+class HiExecutorLatencyBenchmark {
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+        HiLogManager.init(object : HiLogConfig() {})
+    }
+
+    @Test
+    fun lowPriorityTailLatency() {
+        for (aging in longArrayOf(0, 10, 100)) {
+            HiExecutor.agingMillis = aging
+            //第一轮预热
+            run(1000)
+            val latencies = run(3000)
+            println(
+                "agingMillis=" + aging + " low priority wait: n=" + latencies.size +
+                        " p50=" + percentile(latencies, 0.5) + "ms p99=" + percentile(latencies, 0.99) +
+                        "ms max=" + latencies.lastOrNull() + "ms"
+            )
+        }
+        HiExecutor.agingMillis = 1000
+    }
+
+    private fun run(durationMillis: Long): List<Long> {
+        val workers = HiExecutor.snapshot().cpu.maxPoolSize
+        val latencies = ConcurrentLinkedQueue<Long>()
+        val backlog = AtomicInteger()
+        val submitted = AtomicInteger()
+        val done = AtomicInteger()
+        val stop = System.nanoTime() + durationMillis * 1000000L
+        val producer = Thread {
+            while (System.nanoTime() < stop) {
+                //每个任务2ms，积压的任务被执行后立即补充
+                while (backlog.get() < 150 + workers) {
+                    backlog.incrementAndGet()
+                    HiExecutor.execute(10, Runnable {
+                        busy(2)
+                        backlog.decrementAndGet()
+                    })
+                }
+                Thread.sleep(1)
+            }
+        }
+        producer.start()
+        while (System.nanoTime() < stop) {
+            val start = System.nanoTime()
+            submitted.incrementAndGet()
+            HiExecutor.execute(0, Runnable {
+                latencies.add((System.nanoTime() - start) / 1000000L)
+                done.incrementAndGet()
+            })
+            Thread.sleep(50)
+        }
+        producer.join()
+        while (done.get() < submitted.get() || backlog.get() > 0) {
+            Thread.sleep(5)
+        }
+        return latencies.sorted()
+    }
+
+    private fun busy(millis: Long) {
+        val end = System.nanoTime() + millis * 1000000L
+        while (System.nanoTime() < end) {
+        }
+    }
+
+    private fun percentile(sorted: List<Long>, q: Double): Long {
+        return if (sorted.isEmpty()) -1 else sorted[((sorted.size - 1) * q).toInt()]
+    }
+}
@@ -0,0 +1,125 @@
+package org.devio.hi.library.executor
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * HiExecutor的排序(同优先级FIFO、老化)和通道并发数的测试
+ */
+class HiExecutorSchedulingTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            HiLogManager.init(object : HiLogConfig() {})
+        }
+    }
+
+    @After
+    fun tearDown() {
+        HiExecutor.agingMillis = 1000L
+    }
+
+    @Test
+    fun samePriorityDequeuesInSubmitOrder() {
+        val tasks = ArrayList<HiExecutor.PriorityRunnable>()
+        repeat(1000) {
+            tasks.add(HiExecutor.PriorityRunnable(5, Runnable { }))
+        }
+        val shuffled = ArrayList(tasks)
+        Collections.shuffle(shuffled)
+        val queue = PriorityBlockingQueue(shuffled)
+        for (task in tasks) {
+            assertSame(task, queue.poll())
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun samePriorityRunsInSubmitOrder() {
+        //通道并发数为1时任务串行执行，执行顺序就是出队顺序
+        HiExecutor.setLaneLimit("fifo", 1)
+        val count = 200
+        val order = Collections.synchronizedList(ArrayList<Int>())
+        val done = CountDownLatch(count)
+        for (i in 0 until count) {
+            HiExecutor.execute(5, Runnable {
+                order.add(i)
+                done.countDown()
+            }, "fifo")
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals((0 until count).toList(), order)
+    }
+
+    @Test
+    fun higherPriorityGoesFirstWithoutAging() {
+        HiExecutor.agingMillis = 0
+        val low = HiExecutor.PriorityRunnable(0, Runnable { })
+        Thread.sleep(50)
+        val high = HiExecutor.PriorityRunnable(10, Runnable { })
+        assertTrue(high < low)
+    }
+
+    @Test
+    fun waitingLowPriorityTaskAgesPastNewHighPriorityTask() {
+        HiExecutor.agingMillis = 10
+        val low = HiExecutor.PriorityRunnable(0, Runnable { })
+        val earlyHigh = HiExecutor.PriorityRunnable(10, Runnable { })
+        //10级 * 10ms之后，等待中的优先级0相当于优先级10
+        Thread.sleep(150)
+        val lateHigh = HiExecutor.PriorityRunnable(10, Runnable { })
+        assertTrue(earlyHigh < low)
+        assertTrue(low < lateHigh)
+    }
+
+    @Test(timeout = 10000)
+    fun laneLimitCapsConcurrency() {
+        HiExecutor.setLaneLimit("capped", 2)
+        val count = 30
+        val current = AtomicInteger()
+        val peak = AtomicInteger()
+        val done = CountDownLatch(count)
+        for (i in 0 until count) {
+            HiExecutor.execute(i % 3, Runnable {
+                val c = current.incrementAndGet()
+                while (true) {
+                    val p = peak.get()
+                    if (c <= p || peak.compareAndSet(p, c)) break
+                }
+                Thread.sleep(5)
+                current.decrementAndGet()
+                done.countDown()
+            }, "capped", HiExecutor.PoolType.IO)
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertTrue("peak " + peak.get(), peak.get() <= 2)
+    }
+
+    @Test(timeout = 10000)
+    fun pausedGroupDoesNotHoldLanePermit() {
+        HiExecutor.setLaneLimit("shared", 1)
+        HiExecutor.pause("paused")
+        try {
+            val held = CountDownLatch(1)
+            HiExecutor.execute(0, Runnable { held.countDown() }, "shared", group = "paused")
+            //暂停分组中的任务不占用通道，同一通道上的其它任务可以执行
+            val other = CountDownLatch(1)
+            HiExecutor.execute(0, Runnable { other.countDown() }, "shared")
+            assertTrue(other.await(5, TimeUnit.SECONDS))
+            assertEquals(1, held.count)
+            HiExecutor.resume("paused")
+            assertTrue(held.await(5, TimeUnit.SECONDS))
+        } finally {
+            HiExecutor.resume("paused")
+        }
+    }
+}
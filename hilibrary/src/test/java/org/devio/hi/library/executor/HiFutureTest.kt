@@ -0,0 +1,153 @@
+package org.devio.hi.library.executor
+
+import android.os.Handler
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * HiExecutor.Callable和HiFuture的测试，主线程由测试目录下的android.os.Handler模拟
+ */
+class HiFutureTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            //HiExecutor暂停、恢复时会打印log，不添加打印器
+            HiLogManager.init(object : HiLogConfig() {})
+        }
+    }
+
+    @After
+    fun tearDown() {
+        HiExecutor.rejectPolicy = HiExecutor.RejectPolicy.CALLER_RUNS
+        HiExecutor.resume()
+    }
+
+    @Test(timeout = 10000)
+    fun concurrentCallablesDeliverEveryCallback() {
+        val count = 500
+        val prepared = AtomicInteger()
+        val completed = AtomicInteger()
+        val done = CountDownLatch(count)
+        repeat(count) { i ->
+            HiExecutor.execute(runnable = object : HiExecutor.Callable<Int>() {
+                override fun onPrepare() {
+                    prepared.incrementAndGet()
+                }
+
+                override fun onBackground(): Int? {
+                    return i
+                }
+
+                override fun onCompleted(t: Int?) {
+                    assertEquals(i, t)
+                    completed.incrementAndGet()
+                    done.countDown()
+                }
+            }, type = HiExecutor.PoolType.IO)
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        Handler.idleMainLooper()
+        //别的任务的removeCallbacks不能移除这个任务的onCompleted
+        assertEquals(count, completed.get())
+        assertTrue(prepared.get() <= count)
+    }
+
+    @Test(timeout = 10000)
+    fun thenAndThenOnMainChain() {
+        val future = HiExecutor.submit { 20 }
+            .then { it + 1 }
+            .thenOnMain { it * 2 }
+        assertEquals(42, future.get())
+    }
+
+    @Test(timeout = 10000)
+    fun timeoutFiresWhilePoolIsPaused() {
+        HiExecutor.pause()
+        val future = HiExecutor.submit { "never" }.timeout(50)
+        try {
+            future.get()
+            fail()
+        } catch (e: ExecutionException) {
+            assertTrue(e.cause is TimeoutException)
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun discardedTaskFailsItsFuture() {
+        val gate = CountDownLatch(1)
+        val maxPoolSize = HiExecutor.snapshot().cpu.maxPoolSize
+        repeat(maxPoolSize) {
+            HiExecutor.execute(runnable = Runnable { gate.await() })
+        }
+        while (HiExecutor.snapshot().cpu.running < maxPoolSize) {
+            Thread.sleep(5)
+        }
+        try {
+            HiExecutor.rejectPolicy = HiExecutor.RejectPolicy.DISCARD
+            //把队列填满
+            while (true) {
+                val before = HiExecutor.snapshot().cpu.rejected
+                HiExecutor.execute(runnable = Runnable { })
+                if (HiExecutor.snapshot().cpu.rejected > before) {
+                    break
+                }
+            }
+            val future = HiExecutor.submit { "discarded" }
+            try {
+                future.get()
+                fail()
+            } catch (e: ExecutionException) {
+                assertTrue(e.cause is RejectedExecutionException)
+            }
+        } finally {
+            gate.countDown()
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun cancelStopsRunningTaskAtEnsureActive() {
+        val started = CountDownLatch(1)
+        val iterations = AtomicInteger()
+        val future = HiExecutor.submit {
+            started.countDown()
+            while (true) {
+                HiFuture.ensureActive()
+                iterations.incrementAndGet()
+                Thread.sleep(1)
+            }
+        }
+        started.await()
+        assertTrue(future.cancel())
+        assertTrue(future.isCancelled)
+        val stopped = iterations.get()
+        Thread.sleep(50)
+        assertTrue(iterations.get() <= stopped + 1)
+    }
+
+    @Test(timeout = 10000)
+    fun allOfFailsFastAndCancelsTheRest() {
+        val slow = HiExecutor.submit(type = HiExecutor.PoolType.IO) {
+            Thread.sleep(2000)
+            1
+        }
+        val failing = HiExecutor.submit<Int> { throw IllegalStateException("boom") }
+        try {
+            HiFuture.allOf(listOf(slow, failing)).get()
+            fail()
+        } catch (e: ExecutionException) {
+            assertTrue(e.cause is IllegalStateException)
+        }
+        assertTrue(slow.isCancelled)
+    }
+}
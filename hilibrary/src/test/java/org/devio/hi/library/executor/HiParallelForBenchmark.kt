@@ -0,0 +1,103 @@
+package org.devio.hi.library.executor
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.After
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+
+/**
+ * 10000个很小的计算任务：逐个execute提交 vs [HiExecutor.parallelFor]
+ * 记录耗时，以及所有线程等待/阻塞的次数(ThreadMXBean)，反映争抢优先级队列锁的程度
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiParallelForBenchmark'
+ */
+class HiParallelForBenchmark {
+    private val count = 10000
+    private val threadMXBean = ManagementFactory.getThreadMXBean()
+
+    @Volatile
+    private var sink = 0L
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+        HiLogManager.init(object : HiLogConfig() {})
+        //逐个提交时任务数超过队列容量，等待空位而不是在提交的线程执行
+        HiExecutor.rejectPolicy = HiExecutor.RejectPolicy.BLOCK
+        if (threadMXBean.isThreadContentionMonitoringSupported) {
+            threadMXBean.isThreadContentionMonitoringEnabled = true
+        }
+    }
+
+    @After
+    fun tearDown() {
+        HiExecutor.rejectPolicy = HiExecutor.RejectPolicy.CALLER_RUNS
+    }
+
+    @Test
+    fun tinyTasks() {
+        //预热
+        repeat(20) {
+            viaQueue()
+            viaParallelFor()
+        }
+        report("execute() + latch") { viaQueue() }
+        report("parallelFor") { viaParallelFor() }
+    }
+
+    private fun viaQueue(): Long {
+        val done = CountDownLatch(count)
+        val start = System.nanoTime()
+        for (i in 0 until count) {
+            HiExecutor.execute(5, Runnable {
+                tiny(i)
+                done.countDown()
+            })
+        }
+        done.await()
+        return System.nanoTime() - start
+    }
+
+    private fun viaParallelFor(): Long {
+        val start = System.nanoTime()
+        HiExecutor.parallelFor(5, 0, count) { tiny(it) }
+        return System.nanoTime() - start
+    }
+
+    private fun report(name: String, run: () -> Long) {
+        val runs = 30
+        val waits = waits()
+        var best = Long.MAX_VALUE
+        var total = 0L
+        repeat(runs) {
+            val cost = run()
+            best = minOf(best, cost)
+            total += cost
+        }
+        println(
+            name + ": best " + best / 1000 + "us, avg " + total / runs / 1000 +
+                    "us, thread waits/blocks per run " + (waits() - waits) / runs
+        )
+    }
+
+    private fun waits(): Long {
+        var sum = 0L
+        for (info in threadMXBean.getThreadInfo(threadMXBean.allThreadIds)) {
+            if (info != null) {
+                sum += info.waitedCount + info.blockedCount
+            }
+        }
+        return sum
+    }
+
+    private fun tiny(i: Int) {
+        var h = i.toLong()
+        for (k in 0 until 200) {
+            h = h * 31 + k
+        }
+        sink += h and 1
+    }
+}
@@ -0,0 +1,75 @@
+package org.devio.hi.library.executor
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * HiThreadPool队列满时的处理
+ */
+class HiThreadPoolTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            HiLogManager.init(object : HiLogConfig() {})
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun blockFromOwnWorkerRunsOnCaller() {
+        //1个线程，队列只有1个名额
+        val pool = HiThreadPool("test", 1, 1, 30, 1, HiPauseGate())
+        val done = CountDownLatch(2)
+        var nestedThread: Thread? = null
+        val outer = task(Runnable {
+            //队列的名额被queued占用，唯一的线程正在执行outer，BLOCK等待名额会死锁
+            pool.execute(task(Runnable { done.countDown() }), HiExecutor.RejectPolicy.BLOCK)
+            pool.execute(task(Runnable {
+                nestedThread = Thread.currentThread()
+                done.countDown()
+            }), HiExecutor.RejectPolicy.BLOCK)
+            assertSame(Thread.currentThread(), nestedThread)
+        })
+        pool.execute(outer, HiExecutor.RejectPolicy.BLOCK)
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test(timeout = 10000)
+    fun blockFromOtherThreadWaitsForSlot() {
+        val pool = HiThreadPool("test", 1, 1, 30, 1, HiPauseGate())
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        pool.execute(task(Runnable {
+            started.countDown()
+            release.await()
+        }), HiExecutor.RejectPolicy.BLOCK)
+        started.await()
+        val order = ArrayList<String>()
+        //占用队列唯一的名额
+        pool.execute(task(Runnable { synchronized(order) { order.add("queued") } }), HiExecutor.RejectPolicy.BLOCK)
+        val done = CountDownLatch(1)
+        val submitter = Thread {
+            pool.execute(task(Runnable {
+                synchronized(order) { order.add("blocked") }
+                done.countDown()
+            }), HiExecutor.RejectPolicy.BLOCK)
+        }
+        submitter.start()
+        Thread.sleep(100)
+        //其它线程提交时仍然等待名额，不在提交的线程执行
+        assertTrue(submitter.isAlive)
+        release.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        submitter.join()
+        assertEquals(listOf("queued", "blocked"), order)
+    }
+
+    private fun task(runnable: Runnable): HiExecutor.PriorityRunnable {
+        return HiExecutor.PriorityRunnable(0, runnable)
+    }
+}
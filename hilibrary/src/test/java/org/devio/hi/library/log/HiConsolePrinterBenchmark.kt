@@ -0,0 +1,138 @@
+package org.devio.hi.library.log
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.util.ArrayList
+
+/**
+ * 64KB的json(与[HiLogConfig.injectJsonParser]注入Gson后的输出形式相同，含中文和emoji，紧凑和格式化两种)分段打印的耗时：
+ * substring：改动前的HiConsolePrinter，每MAX_LEN个字符substring一次；
+ * chunker：当前的[HiConsolePrinter]，按换行和代理对切分，续行前缀预先写入缓冲区；
+ * substring+header：同样的切分，续行用"... " + substring拼接
+ * 控制台输出由测试目录下的android.util.Log代替，只累计字符数
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiConsolePrinterBenchmark'
+ */
+class HiConsolePrinterBenchmark {
+    private val config = object : HiLogConfig() {}
+    private val printer = HiConsolePrinter()
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+    }
+
+    @Test
+    fun largeJson() {
+        for (pretty in booleanArrayOf(false, true)) {
+            val json = json(pretty)
+            checkChunks(json)
+            var substring = 0.0
+            var chunker = 0.0
+            var concat = 0.0
+            val iterations = 5000
+            for (round in 0 until 8) {
+                val t0 = System.nanoTime()
+                for (i in 0 until iterations) {
+                    printBySubstring(json)
+                }
+                val t1 = System.nanoTime()
+                for (i in 0 until iterations) {
+                    printer.print(config, Log.DEBUG, "bench", json)
+                }
+                val t2 = System.nanoTime()
+                for (i in 0 until iterations) {
+                    printWithHeaderConcat(json)
+                }
+                val t3 = System.nanoTime()
+                //前6轮预热
+                if (round >= 6) {
+                    substring += (t1 - t0) / 1000.0 / iterations / 2
+                    chunker += (t2 - t1) / 1000.0 / iterations / 2
+                    concat += (t3 - t2) / 1000.0 / iterations / 2
+                }
+            }
+            println(
+                (if (pretty) "pretty " else "compact ") + json.length + " chars: substring " +
+                        String.format("%.1f", substring) + "us/op, chunker " + String.format("%.1f", chunker) +
+                        "us/op, substring+header " + String.format("%.1f", concat) + "us/op"
+            )
+        }
+    }
+
+    /**
+     * 分段后拼回原文完全一致，每段不超过MAX_LEN，不以高代理项结尾
+     */
+    private fun checkChunks(json: String) {
+        val chunks = ArrayList<String>()
+        Log.capture = chunks
+        try {
+            printer.print(config, Log.DEBUG, "bench", json)
+        } finally {
+            Log.capture = null
+        }
+        var pos = 0
+        for ((index, chunk) in chunks.withIndex()) {
+            val body = if (index == 0) chunk else chunk.substring("... ".length)
+            assertTrue(body.length <= HiLogConfig.MAX_LEN)
+            assertFalse(Character.isHighSurrogate(body[body.length - 1]))
+            assertTrue(json.startsWith(body, pos))
+            pos += body.length
+            if (pos < json.length && json[pos] == '\n') {
+                pos++
+            }
+        }
+        assertEquals(json.length, pos)
+    }
+
+    /**
+     * 改动前的HiConsolePrinter
+     */
+    private fun printBySubstring(s: String) {
+        val maxLen = HiLogConfig.MAX_LEN
+        val len = s.length
+        var index = 0
+        for (i in 0 until len / maxLen) {
+            Log.println(Log.DEBUG, "bench", s.substring(index, index + maxLen))
+            index += maxLen
+        }
+        if (index != len) {
+            Log.println(Log.DEBUG, "bench", s.substring(index, len))
+        }
+    }
+
+    private fun printWithHeaderConcat(s: String) {
+        val maxLen = HiLogConfig.MAX_LEN
+        val len = s.length
+        var start = 0
+        while (start < len) {
+            val end = minOf(start + maxLen, len)
+            Log.println(Log.DEBUG, "bench", if (start == 0) s.substring(0, end) else "... " + s.substring(start, end))
+            start = end
+            if (start < len && s[start] == '\n') {
+                start++
+            }
+        }
+    }
+
+    private fun json(pretty: Boolean): String {
+        val sb = StringBuilder("{\"items\":[")
+        var i = 0
+        while (sb.length < 64 * 1024) {
+            if (i > 0) {
+                sb.append(',')
+            }
+            if (pretty) {
+                sb.append("\n  ")
+            }
+            sb.append("{\"id\":").append(i).append(",\"name\":\"课程😀").append(i)
+                .append("\",\"price\":").append(i * 1.5).append('}')
+            i++
+        }
+        return sb.append(if (pretty) "\n]}" else "]}").toString()
+    }
+}
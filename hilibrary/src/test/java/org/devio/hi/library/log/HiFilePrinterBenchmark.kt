@@ -0,0 +1,149 @@
+package org.devio.hi.library.log
+
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * HiFilePrinter每秒写入的行数，对比：
+ * BASELINE：改动前的写法，LinkedBlockingQueue + 每条new HiLogMo + BufferedWriter每行flush；
+ * PER_LINE、DEFAULT：当前的HiFilePrinter，对应的[HiFilePrinter.FlushPolicy]
+ * HiFilePrinter是进程内的单例，每种写法在单独的JVM中运行，见[main]
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiFilePrinterBenchmark'
+ */
+class HiFilePrinterBenchmark {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+    }
+
+    @Test
+    fun linesPerSecond() {
+        for (producers in intArrayOf(1, 4)) {
+            for (mode in arrayOf("BASELINE", "PER_LINE", "DEFAULT")) {
+                val java = File(System.getProperty("java.home"), "bin/java").path
+                val process = ProcessBuilder(
+                    java, "-cp", System.getProperty("java.class.path"),
+                    HiFilePrinterBenchmark::class.java.name, mode, producers.toString(), folder.newFolder().path
+                ).redirectErrorStream(true).start()
+                val output = process.inputStream.bufferedReader().readText()
+                process.waitFor()
+                print(output)
+            }
+        }
+    }
+
+    /**
+     * 一种写法：打印一条log，以及判断已打印的log是否都被写入线程取走
+     */
+    private interface Sink {
+        fun print(log: String)
+
+        fun isDrained(): Boolean
+    }
+
+    /**
+     * 改动前的HiFilePrinter
+     */
+    private class BaselineSink(logPath: String) : Sink {
+        private val queue = LinkedBlockingQueue<HiLogMo>()
+        private val written = AtomicLong()
+        private val printed = AtomicLong()
+
+        init {
+            val writer = BufferedWriter(FileWriter(File(logPath, "baseline"), true))
+            val thread = Thread {
+                while (true) {
+                    val log = queue.take()
+                    writer.write(log.flattenedLog())
+                    writer.newLine()
+                    writer.flush()
+                    written.incrementAndGet()
+                }
+            }
+            thread.isDaemon = true
+            thread.start()
+        }
+
+        override fun print(log: String) {
+            printed.incrementAndGet()
+            queue.put(HiLogMo(System.currentTimeMillis(), HiLogType.D, "bench", log))
+        }
+
+        override fun isDrained(): Boolean = written.get() == printed.get()
+    }
+
+    private class PrinterSink(logPath: String, policy: HiFilePrinter.FlushPolicy) : Sink {
+        private val ringBuffer = HiLogRingBuffer(1024, HiLogRingBuffer.BLOCK)
+        private val printer = HiFilePrinter.Builder(logPath).flushPolicy(policy).ringBuffer(ringBuffer).build()
+        private val config = object : HiLogConfig() {}
+
+        override fun print(log: String) {
+            printer.print(config, HiLogType.D, "bench", log)
+        }
+
+        override fun isDrained(): Boolean = ringBuffer.isEmpty
+    }
+
+    companion object {
+        private const val WARMUP_LINES = 200000
+        private const val LINES = 1000000
+
+        /**
+         * 在单独的JVM中运行一种写法：args为BASELINE/PER_LINE/DEFAULT、生产者线程数、log目录
+         */
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val mode = args[0]
+            val producers = args[1].toInt()
+            val logPath = args[2]
+            val sink = when (mode) {
+                "BASELINE" -> BaselineSink(logPath)
+                "PER_LINE" -> PrinterSink(logPath, HiFilePrinter.FlushPolicy.PER_LINE)
+                else -> PrinterSink(logPath, HiFilePrinter.FlushPolicy.DEFAULT)
+            }
+
+            run(sink, 1, WARMUP_LINES)
+            val cost = run(sink, producers, LINES)
+            //等最后一批超过maxLatency后写入，确认没有丢失
+            Thread.sleep(HiFilePrinter.FlushPolicy.DEFAULT.maxLatencyMs + 500)
+            var written = 0L
+            File(logPath).listFiles()!!.forEach { file -> file.forEachLine { if (it.contains("bench-")) written++ } }
+            println(
+                mode + ", " + producers + " producers: " + LINES * 1000000000L / cost + " lines/s, written " +
+                        written + "/" + (WARMUP_LINES + LINES)
+            )
+            System.exit(0)
+        }
+
+        /**
+         * @return 从开始打印到所有log被写入线程取走的耗时，单位纳秒
+         */
+        private fun run(sink: Sink, producers: Int, lines: Int): Long {
+            val start = System.nanoTime()
+            val threads = (0 until producers).map { p ->
+                Thread {
+                    for (i in p until lines step producers) {
+                        sink.print("bench-$i thread ${Thread.currentThread().name} some payload")
+                    }
+                }
+            }
+            threads.forEach { it.start() }
+            threads.forEach { it.join() }
+            while (!sink.isDrained()) {
+                Thread.sleep(1)
+            }
+            return System.nanoTime() - start
+        }
+    }
+}
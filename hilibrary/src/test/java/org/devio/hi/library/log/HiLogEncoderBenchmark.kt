@@ -0,0 +1,100 @@
+package org.devio.hi.library.log
+
+import org.junit.Assert.assertEquals
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.io.StringWriter
+import java.util.Random
+
+/**
+ * 各编码器每条log占用的字节数和编码吞吐量：[HiTextLogEncoder]、[HiBinaryLogEncoder]不压缩、[HiBinaryLogEncoder]块压缩
+ * 20000条合成log(多行的线程、堆栈信息，中文和emoji)，每100条一个块，与打印线程按批写入相近
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiLogEncoderBenchmark'
+ */
+class HiLogEncoderBenchmark {
+    private val blockSize = 100
+    private lateinit var logs: List<HiLogMo>
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+        val random = Random(3)
+        val tags = arrayOf("net", "ui", "db", "HiExecutor", "MApplication")
+        var time = 1614528000000L
+        logs = (0 until 20000).map { i ->
+            time += random.nextInt(50) - 5
+            HiLogMo(
+                time, 2 + random.nextInt(6), tags[random.nextInt(tags.size)],
+                "Thread: hi-cpu-" + random.nextInt(4) + "\nstackTrace:  \n\t├ org.devio.hi.Demo.run(Demo.java:" +
+                        random.nextInt(300) + ")\nmessage 中文 😀 " + i
+            )
+        }
+    }
+
+    @Test
+    fun bytesPerRecordAndThroughput() {
+        val text = String(encode(HiTextLogEncoder()), Charsets.UTF_8)
+        for (name in arrayOf("text", "binary", "binary+deflate")) {
+            val bytes = encode(newEncoder(name))
+            if (name != "text") {
+                //解码后与文本格式完全一致
+                val decoded = StringWriter()
+                HiBinaryLogDecoder.decode(ByteArrayInputStream(bytes), decoded)
+                assertEquals(text, decoded.toString())
+            }
+            //预热
+            repeat(20) {
+                encodeTo(newEncoder(name), NullOutputStream)
+            }
+            var best = Long.MAX_VALUE
+            repeat(10) {
+                val encoder = newEncoder(name)
+                val begin = System.nanoTime()
+                encodeTo(encoder, NullOutputStream)
+                best = minOf(best, System.nanoTime() - begin)
+            }
+            println(
+                name + ": " + String.format("%.1f", bytes.size.toDouble() / logs.size) + " B/record, " +
+                        logs.size * 1000000000L / best + " records/s, " +
+                        String.format("%.1f", text.toByteArray(Charsets.UTF_8).size * 1000.0 / best) + " MB/s of text"
+            )
+        }
+    }
+
+    private fun newEncoder(name: String): HiLogEncoder {
+        return when (name) {
+            "text" -> HiTextLogEncoder()
+            "binary" -> HiBinaryLogEncoder(false)
+            else -> HiBinaryLogEncoder(true)
+        }
+    }
+
+    private fun encode(encoder: HiLogEncoder): ByteArray {
+        val out = ByteArrayOutputStream()
+        encodeTo(encoder, out)
+        return out.toByteArray()
+    }
+
+    private fun encodeTo(encoder: HiLogEncoder, out: OutputStream) {
+        encoder.writeHeader(out)
+        for (i in logs.indices) {
+            encoder.encode(logs[i])
+            if (i % blockSize == blockSize - 1) {
+                encoder.writeBlock(out)
+            }
+        }
+        encoder.writeBlock(out)
+    }
+
+    private object NullOutputStream : OutputStream() {
+        override fun write(b: Int) {
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+        }
+    }
+}
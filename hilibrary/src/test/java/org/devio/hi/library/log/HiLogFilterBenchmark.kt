@@ -0,0 +1,98 @@
+package org.devio.hi.library.log
+
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * HiLog调用的耗时(ns/op)和调用线程分配的内存(bytes/op)：被打印器的[HiLogFilter]过滤掉的调用 vs 被打印的调用
+ * 打印器只接收I及以上的log，d/dt/event().d()被过滤，i/it被打印(打印器本身不做任何事)
+ * bytes/op通过HotSpot的com.sun.management.ThreadMXBean统计，其它JVM上显示为-1
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiLogFilterBenchmark'
+ */
+class HiLogFilterBenchmark {
+    private val threadMXBean = ManagementFactory.getThreadMXBean()
+
+    /**
+     * 提前创建好的参数，避免在调用方装箱，只统计HiLog本身分配的内存
+     */
+    private val values = Array<Any>(1024) { "value-$it" }
+
+    private var index = 0
+
+    @Volatile
+    private var sink = 0
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+    }
+
+    @Test
+    fun filteredAndUnfiltered() {
+        for (depth in intArrayOf(5, 0)) {
+            HiLogManager.init(object : HiLogConfig() {
+                override fun stackTraceDepth(): Int {
+                    return depth
+                }
+            })
+            HiLogManager.getInstance().addPrinter(object : HiLogPrinter {
+                override fun print(config: HiLogConfig, level: Int, tag: String?, printString: String) {
+                    sink += printString.length
+                }
+            }, HiLogFilter(HiLogType.I))
+            println("stackTraceDepth=$depth")
+            val filtered = 1000000
+            //获取调用栈每次需要十几微秒，减少次数
+            val unfiltered = if (depth > 0) 50000 else 1000000
+            measure("filtered   dt(tag, a)", filtered) { HiLog.dt("bench", next()) }
+            measure("filtered   dt(tag, a, b)", filtered) { HiLog.dt("bench", next(), "b") }
+            measure("filtered   dt(tag, varargs)", filtered) { HiLog.dt("bench", next(), "b", "c") }
+            measure("filtered   d(varargs)", filtered) { HiLog.d("bench", next()) }
+            measure("filtered   event().kv().d()", filtered) { HiLog.event("bench").kv("v", next()).d() }
+            measure("unfiltered it(tag, a)", unfiltered) { HiLog.it("bench", next()) }
+            measure("unfiltered i(varargs)", unfiltered) { HiLog.i("bench", next()) }
+        }
+    }
+
+    private fun next(): Any {
+        return values[index++ and 1023]
+    }
+
+    /**
+     * op不带参数，避免(Int) -> Unit在每次调用时装箱
+     */
+    private fun measure(name: String, iterations: Int, op: () -> Unit) {
+        //预热
+        repeat(2) {
+            for (i in 0 until iterations) {
+                op()
+            }
+        }
+        var bestNanos = Long.MAX_VALUE
+        var bytes = -1L
+        repeat(5) {
+            val allocated = allocatedBytes()
+            val begin = System.nanoTime()
+            for (i in 0 until iterations) {
+                op()
+            }
+            val cost = System.nanoTime() - begin
+            if (cost < bestNanos) {
+                bestNanos = cost
+                bytes = if (allocated < 0) -1 else (allocatedBytes() - allocated) / iterations
+            }
+        }
+        println("  " + name + ": " + bestNanos / iterations + " ns/op, " + bytes + " bytes/op")
+    }
+
+    private fun allocatedBytes(): Long {
+        val bean = threadMXBean
+        return if (bean is com.sun.management.ThreadMXBean && bean.isThreadAllocatedMemorySupported) {
+            bean.getThreadAllocatedBytes(Thread.currentThread().id)
+        } else {
+            -1
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.devio.hi.library.log
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.Random
+import java.util.zip.GZIPOutputStream
+
+/**
+ * HiLogQuery的测试，log文件和索引由测试直接通过编码器和[HiLogIndex]写出，与HiFilePrinter的工作线程写入的格式一致
+ */
+class HiLogQueryTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    /**
+     * 2020-10-01 10:00:00，本地时区
+     */
+    private val base = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).parse("2020-10-01 10:00:00")!!.time
+
+    @Test
+    fun indexSkipsBlocksByLevelTagAndTime() {
+        val dir = folder.newFolder()
+        val file = File(dir, "2020-10-01.hlb")
+        val blocks = listOf(
+            block(0, HiLogType.E, "net", 5),
+            block(1000, HiLogType.E, "ui", 5),
+            block(2000, HiLogType.D, "net", 5),
+            block(2 * 3600 * 1000L, HiLogType.E, "net", 5),
+            block(3000, HiLogType.W, "net", 5)
+        )
+        val positions = write(file, HiBinaryLogEncoder(), blocks, blocks.indices.toSet())
+        //不匹配的块写坏，查询读到它们就会抛出异常并跳过文件剩余的部分
+        for (i in 1..3) {
+            corrupt(file, positions[i])
+        }
+        val result = query(HiLogQuery.from(dir.path).level(HiLogType.W).tag("net").between(base, base + 3600 * 1000L))
+        assertLogs(blocks[0] + blocks[4], result)
+    }
+
+    @Test
+    fun scansRegionsNotCoveredByIndexAndStopsAtTruncatedBlock() {
+        val dir = folder.newFolder()
+        val file = File(dir, "2020-10-01.hlb")
+        val blocks = List(5) { block(it * 1000L, HiLogType.I, "net", 20) }
+        //索引只记录了第1个块：之前的块是开启索引之前写入的，之后的块是进程被杀时还没来得及记录的
+        write(file, HiBinaryLogEncoder(), blocks.subList(0, 4), setOf(1))
+        FileOutputStream(HiLogIndex.indexFile(file), true).use { it.write(byteArrayOf(0x80.toByte(), 0x80.toByte())) }
+        //最后一个块只写了一半
+        val tail = ByteArrayOutputStream()
+        val encoder = HiBinaryLogEncoder()
+        blocks[4].forEach { encoder.encode(it) }
+        encoder.writeBlock(tail)
+        FileOutputStream(file, true).use { it.write(tail.toByteArray(), 0, tail.size() / 2) }
+
+        val result = query(HiLogQuery.from(dir.path).pageSize(7))
+        assertLogs(blocks.subList(0, 4).flatten(), result)
+    }
+
+    @Test
+    fun textLogsMatchBySecond() {
+        val dir = folder.newFolder()
+        val file = File(dir, "2020-10-01")
+        val logs = listOf(
+            HiLogMo(base + 500, HiLogType.I, "net", "a"),
+            HiLogMo(base + 1100, HiLogType.I, "net", "b\nsecond line"),
+            HiLogMo(base + 2100, HiLogType.I, "net", "c"),
+            HiLogMo(base + 3100, HiLogType.I, "net", "d")
+        )
+        write(file, HiTextLogEncoder(), logs.map { listOf(it) }, logs.indices.toSet())
+        //文本格式只记录到秒：10:00:01.100记为10:00:01，该秒的一部分在[10:00:01.700, 10:00:02.200)内，所以匹配
+        val query = HiLogQuery.from(dir.path).between(base + 1700, base + 2200)
+        val indexed = query(query)
+        assertEquals(listOf("b\nsecond line", "c"), indexed.map { it.log })
+        assertEquals(listOf(base + 1000, base + 2000), indexed.map { it.timeMillis })
+        //按索引跳过块与顺序扫描的结果一致
+        assertTrue(HiLogIndex.indexFile(file).delete())
+        val scanned = query(query)
+        assertEquals(indexed.map { it.log }, scanned.map { it.log })
+    }
+
+    @Test
+    fun gzipBinaryFileIsDecodedPageByPage() {
+        val dir = folder.newFolder()
+        val random = Random(1)
+        val blocks = List(200) { index ->
+            List(50) { HiLogMo(base + index * 1000L + it, HiLogType.I, "net", java.lang.Long.toHexString(random.nextLong())) }
+        }
+        val plain = File(folder.newFolder(), "2020-10-01.hlb")
+        write(plain, HiBinaryLogEncoder(false), blocks, emptySet())
+        val file = File(dir, "2020-10-01.hlb.gz")
+        GZIPOutputStream(FileOutputStream(file)).use { it.write(plain.readBytes()) }
+        assertLogs(blocks.flatten(), query(HiLogQuery.from(dir.path)))
+
+        val cursor = HiLogQuery.from(dir.path).pageSize(10).open()
+        val first = cursor.nextPage()
+        assertLogs(blocks[0].subList(0, 10), first)
+        //后面的块还没有解码，文件被截断后只能读出已经解压的部分
+        RandomAccessFile(file, "rw").use { it.setLength(0) }
+        var total = first.size
+        while (cursor.hasNextPage()) {
+            total += cursor.nextPage().size
+        }
+        cursor.close()
+        assertTrue("decoded $total logs", total < blocks.size * 50 / 2)
+    }
+
+    private fun block(offset: Long, level: Int, tag: String, count: Int): List<HiLogMo> {
+        return List(count) { HiLogMo(base + offset + it, level, tag, "$tag-$offset-$it") }
+    }
+
+    /**
+     * 按HiFilePrinter的方式写入文件头和块，indexed中的块同时写入索引
+     *
+     * @return 每个块在文件中的[起始, 结束)
+     */
+    private fun write(file: File, encoder: HiLogEncoder, blocks: List<List<HiLogMo>>, indexed: Set<Int>): List<LongArray> {
+        val index = HiLogIndex()
+        index.open(file)
+        val positions = ArrayList<LongArray>()
+        FileOutputStream(file).use { out ->
+            encoder.writeHeader(out)
+            for ((i, logs) in blocks.withIndex()) {
+                val offset = out.channel.position()
+                for (log in logs) {
+                    encoder.encode(log)
+                    if (i in indexed) {
+                        index.onLog(log)
+                    }
+                }
+                encoder.writeBlock(out)
+                val end = out.channel.position()
+                index.onBlockWritten(offset, end - offset)
+                positions.add(longArrayOf(offset, end))
+            }
+        }
+        index.close()
+        return positions
+    }
+
+    private fun corrupt(file: File, position: LongArray) {
+        RandomAccessFile(file, "rw").use {
+            it.seek(position[0])
+            it.write(ByteArray((position[1] - position[0]).toInt()) { 0xff.toByte() })
+        }
+    }
+
+    private fun query(query: HiLogQuery): List<HiLogMo> {
+        val cursor = query.open()
+        val result = ArrayList<HiLogMo>()
+        while (cursor.hasNextPage()) {
+            result.addAll(cursor.nextPage())
+        }
+        cursor.close()
+        return result
+    }
+
+    private fun assertLogs(expected: List<HiLogMo>, actual: List<HiLogMo>) {
+        assertEquals(expected.map { it.flattenedLog() }, actual.map { it.flattenedLog() })
+    }
+}
@@ -0,0 +1,102 @@
+package org.devio.hi.library.log
+
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.util.ArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 1/4/16个生产者同时写入时的吞吐量，对比HiLogRingBuffer(BLOCK、DROP_OLDEST)和原来的LinkedBlockingQueue
+ * 一个消费者持续取出，所有log被取出或丢弃后计时结束
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiLogRingBufferBenchmark'
+ */
+class HiLogRingBufferBenchmark {
+    private val total = 1000000
+    private val capacity = 1024
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+    }
+
+    @Test
+    fun producerContention() {
+        for (producers in intArrayOf(1, 4, 16)) {
+            //第一轮预热
+            for (round in 0 until 2) {
+                val results = listOf(
+                    "LinkedBlockingQueue" to runQueue(producers),
+                    "ring BLOCK" to runRing(producers, HiLogRingBuffer.BLOCK),
+                    "ring DROP_OLDEST" to runRing(producers, HiLogRingBuffer.DROP_OLDEST)
+                )
+                if (round == 1) {
+                    for ((name, result) in results) {
+                        println(
+                            producers.toString() + " producers, " + name + ": " +
+                                    String.format("%.2f", total.toDouble() / result.first) + " Mlog/s, dropped " + result.second
+                        )
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 耗时(微秒)和丢弃的条数
+     */
+    private fun runRing(producers: Int, policy: Int): Pair<Long, Long> {
+        val ring = HiLogRingBuffer(capacity, policy)
+        val consumed = AtomicLong()
+        val handler = HiLogRingBuffer.Handler { consumed.incrementAndGet() }
+        val consumer = Thread {
+            while (consumed.get() + ring.droppedCount < total) {
+                if (ring.drain(handler, 256) == 0) {
+                    ring.await(TimeUnit.MILLISECONDS.toNanos(1))
+                }
+            }
+        }
+        val cost = produce(producers, consumer) { i -> ring.put(i.toLong(), HiLogType.D, "bench", "log") }
+        return Pair(cost, ring.droppedCount)
+    }
+
+    private fun runQueue(producers: Int): Pair<Long, Long> {
+        val queue = LinkedBlockingQueue<HiLogMo>(capacity)
+        val consumer = Thread {
+            val batch = ArrayList<HiLogMo>(256)
+            var consumed = 0
+            while (consumed < total) {
+                batch.add(queue.take())
+                queue.drainTo(batch, 255)
+                consumed += batch.size
+                batch.clear()
+            }
+        }
+        val cost = produce(producers, consumer) { i -> queue.put(HiLogMo(i.toLong(), HiLogType.D, "bench", "log")) }
+        return Pair(cost, 0L)
+    }
+
+    private fun produce(producers: Int, consumer: Thread, put: (Int) -> Unit): Long {
+        val start = CountDownLatch(1)
+        val threads = (0 until producers).map { p ->
+            Thread {
+                start.await()
+                val from = total / producers * p
+                val to = if (p == producers - 1) total else from + total / producers
+                for (i in from until to) {
+                    put(i)
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        consumer.start()
+        val begin = System.nanoTime()
+        start.countDown()
+        threads.forEach { it.join() }
+        consumer.join()
+        return (System.nanoTime() - begin) / 1000
+    }
+}
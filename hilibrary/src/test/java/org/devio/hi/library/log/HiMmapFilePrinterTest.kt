@@ -0,0 +1,93 @@
+package org.devio.hi.library.log
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * HiMmapFilePrinter转存失败时的测试，日期文件的位置被同名目录占用时追加会失败，模拟磁盘已满或目录不可写
+ * getInstance是单例，测试通过反射为每个场景创建新的实例，相当于进程重启
+ */
+class HiMmapFilePrinterTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val config = object : HiLogConfig() {}
+
+    @Test(timeout = 10000)
+    fun failedCompactionIsRetriedOnNextSwitch() {
+        val dir = folder.newFolder()
+        val blocker = blockLogFile(dir)
+        //每个段1KB，约7条log
+        val printer = newPrinter(dir, 2 * 1024 + 16)
+        printLogs(printer, 0, 10)
+        //第一个段转存失败
+        Thread.sleep(200)
+        assertTrue(blocker.delete())
+        printLogs(printer, 10, 20)
+        waitFor { logFile(dir).isFile && (0 until 10).all { logFile(dir).readText().contains(id(it)) } }
+        assertInOrder(logFile(dir).readText())
+    }
+
+    @Test(timeout = 10000)
+    fun failedRecoveryIsKeptForNextStart() {
+        val dir = folder.newFolder()
+        val blocker = blockLogFile(dir)
+        printLogs(newPrinter(dir, 64 * 1024), 0, 3)
+        //进程被杀后重启，上一个进程的log转存失败
+        newPrinter(dir, 64 * 1024)
+        assertTrue(File(dir, "hilog.mmap.pending").isFile)
+        assertTrue(blocker.delete())
+        newPrinter(dir, 64 * 1024)
+        val text = logFile(dir).readText()
+        for (i in 0 until 3) {
+            assertTrue(text.contains(id(i)))
+        }
+        assertFalse(File(dir, "hilog.mmap.pending").exists())
+    }
+
+    private fun newPrinter(dir: File, ringSize: Int): HiMmapFilePrinter {
+        val constructor = HiMmapFilePrinter::class.java.getDeclaredConstructor(String::class.java, Int::class.javaPrimitiveType)
+        constructor.isAccessible = true
+        return constructor.newInstance(dir.path, ringSize)
+    }
+
+    private fun logFile(dir: File): File {
+        return File(dir, HiFilePrinter.genFileName())
+    }
+
+    private fun blockLogFile(dir: File): File {
+        val blocker = logFile(dir)
+        assertTrue(blocker.mkdir())
+        return blocker
+    }
+
+    private fun printLogs(printer: HiMmapFilePrinter, from: Int, count: Int) {
+        for (i in from until from + count) {
+            printer.print(config, HiLogType.D, "mmap", id(i) + "x".repeat(100))
+        }
+    }
+
+    private fun id(i: Int): String {
+        return String.format("log-%03d;", i)
+    }
+
+    private fun assertInOrder(text: String) {
+        var index = -1
+        var i = 0
+        while (text.contains(id(i))) {
+            val next = text.indexOf(id(i))
+            assertTrue("${id(i)} out of order", next > index)
+            index = next
+            i++
+        }
+    }
+
+    private fun waitFor(condition: () -> Boolean) {
+        while (!condition()) {
+            Thread.sleep(10)
+        }
+    }
+}
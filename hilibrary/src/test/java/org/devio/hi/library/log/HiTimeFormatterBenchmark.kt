@@ -0,0 +1,79 @@
+package org.devio.hi.library.log
+
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.TimeZone
+
+/**
+ * HiTimeFormatter与SimpleDateFormat的格式化耗时对比，单位ns/op
+ * 时间戳按每次+1ms递增，与打印log时相近；时区固定为Asia/Shanghai
+ * 运行：./gradlew :hilibrary:testDebugUnitTest -Pbenchmark --tests '*HiTimeFormatterBenchmark'
+ */
+class HiTimeFormatterBenchmark {
+    private val zone = TimeZone.getTimeZone("Asia/Shanghai")
+    private val start = 1614528000000L
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("hi.benchmark"))
+    }
+
+    @Test
+    fun format() {
+        val formatter = HiTimeFormatter(false, ' ', ':', zone)
+        val shared = simpleDateFormat()
+        val threadLocal = object : ThreadLocal<SimpleDateFormat>() {
+            override fun initialValue(): SimpleDateFormat = simpleDateFormat()
+        }
+        val sb = StringBuilder(32)
+        measure("new SimpleDateFormat per call") { simpleDateFormat().format(Date(it)).length }
+        measure("shared SimpleDateFormat, synchronized") { synchronized(shared) { shared.format(Date(it)).length } }
+        measure("ThreadLocal<SimpleDateFormat>") { threadLocal.get()!!.format(Date(it)).length }
+        measure("HiTimeFormatter.format(long)") { formatter.format(it).length }
+        measure("HiTimeFormatter.format(long, StringBuilder)") {
+            sb.setLength(0)
+            formatter.format(it, sb)
+            sb.length
+        }
+        //跟随默认时区，每秒最多读取一次默认时区
+        val original = TimeZone.getDefault()
+        TimeZone.setDefault(zone)
+        try {
+            val defaultZone = HiTimeFormatter(false, ' ', ':')
+            measure("HiTimeFormatter(default zone).format(long, StringBuilder)") {
+                sb.setLength(0)
+                defaultZone.format(it, sb)
+                sb.length
+            }
+        } finally {
+            TimeZone.setDefault(original)
+        }
+    }
+
+    private fun simpleDateFormat(): SimpleDateFormat {
+        val format = SimpleDateFormat("yy-MM-dd HH:mm:ss")
+        format.timeZone = zone
+        return format
+    }
+
+    private fun measure(name: String, op: (Long) -> Int) {
+        val iterations = 1000000
+        var sink = 0
+        //预热
+        for (i in 0 until iterations) {
+            sink += op(start + i)
+        }
+        var best = Long.MAX_VALUE
+        repeat(5) {
+            val begin = System.nanoTime()
+            for (i in 0 until iterations) {
+                sink += op(start + i)
+            }
+            best = minOf(best, System.nanoTime() - begin)
+        }
+        println(name + ": " + best / iterations + " ns/op (sink " + sink + ")")
+    }
+}
@@ -0,0 +1,160 @@
+package org.devio.hi.library.log
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Random
+import java.util.TimeZone
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * HiTimeFormatter的测试，除跟随默认时区的测试外时区都在构造时指定，结果与SimpleDateFormat对比，不依赖运行测试的机器的时区
+ */
+class HiTimeFormatterTest {
+    private val zones = arrayOf(
+        "UTC", "Asia/Shanghai", "America/New_York", "Europe/London",
+        "Australia/Lord_Howe", "America/St_Johns", "Pacific/Chatham", "America/Sao_Paulo"
+    )
+
+    @Test
+    fun matchesSimpleDateFormat() {
+        val random = Random(6)
+        for (id in zones) {
+            val zone = TimeZone.getTimeZone(id)
+            val log = HiTimeFormatter(false, ' ', ':', zone)
+            val crash = HiTimeFormatter(true, '-', '-', zone)
+            val logFormat = simpleDateFormat("yy-MM-dd HH:mm:ss", zone)
+            val crashFormat = simpleDateFormat("yyyy-MM-dd-HH-mm-ss", zone)
+            val dateFormat = simpleDateFormat("yyyy-MM-dd", zone)
+            repeat(20000) {
+                val time = randomTime(random)
+                assertEquals(id, logFormat.format(time), log.format(time))
+                assertEquals(id, crashFormat.format(time), crash.format(time))
+                assertEquals(id, dateFormat.format(time), log.formatDate(time))
+            }
+        }
+    }
+
+    @Test
+    fun midnightRollover() {
+        val zone = TimeZone.getTimeZone("Asia/Shanghai")
+        val formatter = HiTimeFormatter(false, ' ', ':', zone)
+        //2021-03-01 00:00:00 +08:00
+        val midnight = 1614528000000L
+        assertEquals("21-02-28 23:59:59", formatter.format(midnight - 1))
+        assertEquals("2021-02-28", formatter.formatDate(midnight - 1))
+        assertEquals(23, formatter.getHourOfDay(midnight - 1))
+        assertEquals("21-03-01 00:00:00", formatter.format(midnight))
+        assertEquals("2021-03-01", formatter.formatDate(midnight))
+        assertEquals(0, formatter.getHourOfDay(midnight))
+        //缓存已经是第二天，回到前一天也要重新计算
+        assertEquals("21-02-28 23:59:59", formatter.format(midnight - 1))
+        //闰年的2月29日
+        assertEquals("2020-02-29", formatter.formatDate(midnight - 366 * DAY))
+    }
+
+    @Test
+    fun dstRollover() {
+        val zone = TimeZone.getTimeZone("America/New_York")
+        val formatter = HiTimeFormatter(false, ' ', ':', zone)
+        //2021-03-14 02:00 EST时钟拨到03:00 EDT
+        val springForward = 1615705200000L
+        assertEquals("21-03-14 01:59:59", formatter.format(springForward - 1000))
+        assertEquals("21-03-14 03:00:00", formatter.format(springForward))
+        assertEquals(3, formatter.getHourOfDay(springForward))
+        //切换当天的其它时间也要用切换后的偏移
+        assertEquals("21-03-14 23:00:00", formatter.format(springForward + 20 * HOUR))
+        //2021-11-07 02:00 EDT时钟拨回01:00 EST，01点出现两次
+        val fallBack = 1636264800000L
+        assertEquals("21-11-07 01:59:59", formatter.format(fallBack - 1000))
+        assertEquals("21-11-07 01:00:00", formatter.format(fallBack))
+        assertEquals("21-11-07 00:30:00", formatter.format(fallBack - 90 * MINUTE))
+        assertEquals("21-11-07 23:00:00", formatter.format(fallBack + 22 * HOUR))
+
+        //Lord_Howe的夏令时只差30分钟，2021-04-04 02:00拨回01:30
+        val lordHowe = HiTimeFormatter(false, ' ', ':', TimeZone.getTimeZone("Australia/Lord_Howe"))
+        val expected = simpleDateFormat("yy-MM-dd HH:mm:ss", TimeZone.getTimeZone("Australia/Lord_Howe"))
+        val day = 1617454800000L
+        var time = day - DAY
+        while (time < day + 2 * DAY) {
+            assertEquals(expected.format(time), lordHowe.format(time))
+            time += 7 * MINUTE
+        }
+    }
+
+    @Test
+    fun followsDefaultTimeZone() {
+        val original = TimeZone.getDefault()
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"))
+            val formatter = HiTimeFormatter(false, ' ', ':')
+            val fixed = HiTimeFormatter(false, ' ', ':', TimeZone.getTimeZone("Asia/Shanghai"))
+            //2021-03-01 00:00:00 +08:00
+            val time = 1614528000000L
+            assertEquals("21-03-01 00:00:00", formatter.format(time))
+            assertEquals("2021-03-01", formatter.formatDate(time))
+            //修改默认时区后，1秒后的时间按新的时区格式化，指定了时区的不受影响
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"))
+            assertEquals("21-02-28 16:00:01", formatter.format(time + 1000))
+            assertEquals("2021-02-28", formatter.formatDate(time + 1000))
+            assertEquals(16, formatter.getHourOfDay(time + 1000))
+            assertEquals("21-03-01 00:00:01", fixed.format(time + 1000))
+        } finally {
+            TimeZone.setDefault(original)
+        }
+    }
+
+    @Test(timeout = 30000)
+    fun concurrentUse() {
+        val zone = TimeZone.getTimeZone("America/New_York")
+        val formatter = HiTimeFormatter(false, ' ', ':', zone)
+        val threads = 8
+        val pool = Executors.newFixedThreadPool(threads)
+        try {
+            val results = (0 until threads).map { seed ->
+                pool.submit(Callable {
+                    //每个线程用自己的SimpleDateFormat作为期望值
+                    val expected = simpleDateFormat("yy-MM-dd HH:mm:ss", zone)
+                    val random = Random(seed.toLong())
+                    //跨天、跨夏令时的时间戳混在一起，让共享的日期缓存不断被替换
+                    val base = 1615600000000L
+                    var mismatches = 0
+                    repeat(50000) {
+                        val time = base + (random.nextDouble() * 4 * DAY).toLong()
+                        if (expected.format(time) != formatter.format(time)) {
+                            mismatches++
+                        }
+                    }
+                    mismatches
+                })
+            }
+            for (result in results) {
+                assertEquals(0, result.get().toInt())
+            }
+        } finally {
+            pool.shutdownNow()
+            pool.awaitTermination(5, TimeUnit.SECONDS)
+        }
+    }
+
+    private fun simpleDateFormat(pattern: String, zone: TimeZone): SimpleDateFormat {
+        val format = SimpleDateFormat(pattern)
+        format.timeZone = zone
+        return format
+    }
+
+    /**
+     * 1971 - 2037年之间的随机时间
+     */
+    private fun randomTime(random: Random): Long {
+        return 31536000000L + (random.nextDouble() * 2100000000000L).toLong()
+    }
+
+    companion object {
+        private const val MINUTE = 60 * 1000L
+        private const val HOUR = 60 * MINUTE
+        private const val DAY = 24 * HOUR
+    }
+}
@@ -0,0 +1,162 @@
+package org.devio.hi.library.log
+
+import org.devio.hi.library.restful.HiCall
+import org.devio.hi.library.restful.HiCallback
+import org.devio.hi.library.restful.HiRequest
+import org.devio.hi.library.restful.HiResponse
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.Base64
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.zip.GZIPInputStream
+
+/**
+ * HiUploadPrinter的测试，服务端由进程内的[FakeCollector]模拟
+ */
+class HiUploadPrinterTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val config = object : HiLogConfig() {}
+    private val collector = FakeCollector()
+
+    @Test(timeout = 10000)
+    fun uploadsBatchesInOrder() {
+        val printer = builder(folder.newFolder()).batchSize(10, 1024 * 1024).build()
+        printLogs(printer, 0, 25)
+        printer.flush()
+        waitFor { collector.count() == 25 }
+        assertTrue(collector.batches.all { it.count <= 10 })
+        assertEquals(0L, collector.dropped())
+        assertInOrder(0, 25)
+    }
+
+    @Test(timeout = 10000)
+    fun offlineBatchesSpillAndReplayInOrder() {
+        val spillDir = folder.newFolder()
+        val printer = builder(spillDir).batchSize(10, 1024 * 1024).backoff(10, 20).build()
+        collector.online = false
+        for (round in 0 until 3) {
+            printLogs(printer, round * 10, 10)
+            printer.flush()
+            waitFor { spillDir.list()!!.size == round + 1 }
+        }
+        assertEquals(0, collector.count())
+        collector.online = true
+        printLogs(printer, 30, 5)
+        printer.flush()
+        waitFor { collector.count() == 35 }
+        assertEquals(0L, collector.dropped())
+        assertInOrder(0, 35)
+        waitFor { spillDir.list()!!.isEmpty() }
+    }
+
+    @Test(timeout = 10000)
+    fun batchesOverDiskLimitAreReportedAsDropped() {
+        //每一批写入磁盘后都超出上限，离线期间的log全部被丢弃
+        val printer = builder(folder.newFolder()).limits(1024 * 1024, 1).backoff(10, 20).build()
+        collector.online = false
+        printLogs(printer, 0, 20)
+        printer.flush()
+        Thread.sleep(100)
+        collector.online = true
+        var printed = 20
+        while (collector.batches.isEmpty()) {
+            printLogs(printer, printed++, 1)
+            printer.flush()
+            Thread.sleep(20)
+        }
+        waitFor { collector.count() + collector.dropped() == printed.toLong() }
+    }
+
+    @Test(timeout = 10000)
+    fun unreadableSpilledBatchIsReportedAsDropped() {
+        val spillDir = folder.newFolder()
+        //上一个进程留下的批次：7条，携带之前丢弃的2条，读取时失败
+        assertTrue(File(spillDir, "0000000000000000001-7-2.batch").mkdir())
+        val printer = builder(spillDir).build()
+        printLogs(printer, 0, 1)
+        printer.flush()
+        waitFor { collector.count() == 1 }
+        printLogs(printer, 1, 1)
+        printer.flush()
+        waitFor { collector.count() == 2 }
+        assertEquals(9L, collector.dropped())
+        assertInOrder(0, 2)
+    }
+
+    private fun builder(spillDir: File): HiUploadPrinter.Builder {
+        return HiUploadPrinter.Builder(collector, "https://log.devio.org/", "upload", spillDir.path)
+            .uploadInterval(60000)
+    }
+
+    private fun printLogs(printer: HiUploadPrinter, from: Int, count: Int) {
+        for (i in from until from + count) {
+            printer.print(config, HiLogType.D, "upload", "log-$i;")
+        }
+    }
+
+    private fun assertInOrder(from: Int, count: Int) {
+        val seqs = collector.batches.map { it.seq }
+        assertEquals(seqs.sorted(), seqs)
+        assertEquals(seqs.size, seqs.toSet().size)
+        val text = collector.batches.joinToString("") { it.text }
+        var index = -1
+        for (i in from until from + count) {
+            val next = text.indexOf("log-$i;")
+            assertTrue("log-$i missing or out of order", next > index)
+            index = next
+        }
+    }
+
+    private fun waitFor(condition: () -> Boolean) {
+        while (!condition()) {
+            Thread.sleep(10)
+        }
+    }
+
+    class Batch(val seq: Long, val count: Int, val dropped: Long, val text: String)
+
+    /**
+     * 进程内的log收集服务，解码每一批并按收到的顺序保存，离线时请求抛出IOException
+     */
+    class FakeCollector : HiCall.Factory {
+        @Volatile
+        var online = true
+        val batches = CopyOnWriteArrayList<Batch>()
+
+        fun count(): Int = batches.sumBy { it.count }
+
+        fun dropped(): Long = batches.map { it.dropped }.sum()
+
+        override fun newCall(request: HiRequest): HiCall<*> {
+            return object : HiCall<String> {
+                override fun execute(): HiResponse<String> {
+                    if (!online) {
+                        throw IOException("collector offline")
+                    }
+                    val parameters = request.parameters!!
+                    val data = Base64.getDecoder().decode(parameters["data"])
+                    val text = GZIPInputStream(data.inputStream()).reader(Charsets.UTF_8).readText()
+                    batches.add(
+                        Batch(
+                            parameters["seq"]!!.toLong(),
+                            parameters["count"]!!.toInt(),
+                            parameters["dropped"]!!.toLong(),
+                            text
+                        )
+                    )
+                    return HiResponse()
+                }
+
+                override fun enqueue(callback: HiCallback<String>) {
+                    throw UnsupportedOperationException()
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.devio.hi.library.restful
+
+import org.devio.hi.library.log.HiLogConfig
+import org.devio.hi.library.log.HiLogManager
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Scheduler合并相同GET请求的测试，网络由[FakeFactory]模拟
+ */
+class SchedulerTest {
+    companion object {
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            HiLogManager.init(object : HiLogConfig() {})
+        }
+    }
+
+    private val factory = FakeFactory()
+    private val scheduler = Scheduler(factory, ArrayList())
+
+    @Test(timeout = 10000)
+    fun enqueueThrowingSynchronouslyFailsAllWaiters() {
+        val first = Recorder()
+        val joined = Recorder()
+        //第一个请求发起时，相同的请求挂上来，然后发起失败
+        factory.onEnqueue = {
+            factory.onEnqueue = null
+            newCall().enqueue(joined)
+            throw IllegalStateException("Already executed.")
+        }
+        newCall().enqueue(first)
+        assertEquals(1L, scheduler.coalescedCount)
+        assertTrue(first.error is IllegalStateException)
+        assertTrue(joined.error is IllegalStateException)
+
+        //失败的请求已经移除，后面的请求重新发起
+        val next = Recorder()
+        newCall().enqueue(next)
+        assertEquals(1, factory.pending.size)
+        factory.pending.last().onSuccess(HiResponse())
+        assertNotNull(next.response)
+    }
+
+    @Test(timeout = 10000)
+    fun throwingCallbackDoesNotStopOtherWaiters() {
+        val error = RuntimeException("callback")
+        val recorders = List(3) { Recorder() }
+        newCall().enqueue(object : HiCallback<Any> {
+            override fun onSuccess(response: HiResponse<Any>) {
+                throw error
+            }
+        })
+        for (recorder in recorders) {
+            newCall().enqueue(recorder)
+        }
+        assertEquals(1, factory.pending.size)
+        try {
+            factory.pending[0].onSuccess(HiResponse())
+            fail()
+        } catch (e: RuntimeException) {
+            //与不合并时一样，回调的异常抛给派发回调的线程
+            assertSame(error, e)
+        }
+        for (recorder in recorders) {
+            assertNotNull(recorder.response)
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun asyncRequestDoesNotJoinSyncRequest() {
+        val release = CountDownLatch(1)
+        factory.onExecute = { release.await() }
+        val thread = Thread { newCall().execute() }
+        thread.start()
+        while (factory.executing.get() == 0) {
+            Thread.sleep(5)
+        }
+        val async = Recorder()
+        newCall().enqueue(async)
+        //异步请求单独发起，由factory在它的回调线程上派发
+        assertEquals(0L, scheduler.coalescedCount)
+        assertEquals(1, factory.pending.size)
+        release.countDown()
+        thread.join()
+        assertNull(async.response)
+        factory.pending[0].onSuccess(HiResponse())
+        assertNotNull(async.response)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun newCall(): HiCall<Any> {
+        val request = HiRequest()
+        request.httpMethod = HiRequest.METHOD.GET
+        request.domainUrl = "https://api.devio.org/as/"
+        request.relativeUrl = "course/list"
+        request.returnType = String::class.java
+        return scheduler.newCall(request) as HiCall<Any>
+    }
+
+    class Recorder : HiCallback<Any> {
+        @Volatile
+        var response: HiResponse<Any>? = null
+        @Volatile
+        var error: Throwable? = null
+
+        override fun onSuccess(response: HiResponse<Any>) {
+            this.response = response
+        }
+
+        override fun onFailed(throwable: Throwable) {
+            error = throwable
+        }
+    }
+
+    /**
+     * 异步请求的回调保存在[pending]中，由测试决定何时、在哪个线程上返回
+     */
+    class FakeFactory : HiCall.Factory {
+        @Volatile
+        var onEnqueue: ((HiCallback<Any>) -> Unit)? = null
+        @Volatile
+        var onExecute: (() -> Unit)? = null
+        val pending = CopyOnWriteArrayList<HiCallback<Any>>()
+        val executing = AtomicInteger()
+
+        override fun newCall(request: HiRequest): HiCall<*> {
+            return object : HiCall<Any> {
+                override fun execute(): HiResponse<Any> {
+                    executing.incrementAndGet()
+                    onExecute?.invoke()
+                    return HiResponse()
+                }
+
+                override fun enqueue(callback: HiCallback<Any>) {
+                    onEnqueue?.invoke(callback)
+                    pending.add(callback)
+                }
+            }
+        }
+    }
+}